@@ -0,0 +1,77 @@
+package ml.randomforest.algo;
+
+import java.util.Random;
+
+import ml.randomforest.SampleGenerators;
+import ml.randomforest.SampleGenerators.SampleGenerator;
+import ml.randomforest.SampleGenerators.Spiral2DSampleGenerator;
+import ml.randomforest.SampleGenerators.UniformSampleGenerator;
+import ml.randomforest.example.AxisAlignedLearner;
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.Learner;
+
+/**
+ * The data sets of the benchmarks, drawn with fixed seeds by the generators of
+ * the tests so that every run measures the same data and the same trees.
+ */
+final class BenchmarkData {
+
+    static final long TRAINING_SEED = 42;
+    static final long TEST_SEED = 43;
+    static final long LEARNER_SEED = 44;
+    // of the trainings, @see TrainingOptions#seed()
+    static final long FOREST_SEED = 45;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 
+     * @param dataset
+     *            "uniform": each class uniform in an overlapping box, [c, c +
+     *            2) on every feature; "spiral": the five-class spiral of the
+     *            tests on the first two features, the others uniform noise
+     * @return nRows data points
+     */
+    static DataPoint[] generate(String dataset, int nRows, int nFeatures, int nClasses, long seed) {
+        Random random = new Random(seed);
+        if ("uniform".equals(dataset)) {
+            float[][][] sampleRanges = new float[nClasses][nFeatures][];
+            for (int c = 0; c < nClasses; c++) {
+                for (int f = 0; f < nFeatures; f++) {
+                    sampleRanges[c][f] = new float[] { c, c + 2 };
+                }
+            }
+            return SampleGenerators.generateData(nRows, new UniformSampleGenerator(sampleRanges, random));
+        }
+        if ("spiral".equals(dataset)) {
+            if (nFeatures < 2)
+                throw new IllegalArgumentException("the spiral data set has at least 2 features");
+            SampleGenerator spiral = new Spiral2DSampleGenerator(nClasses, random);
+            return SampleGenerators.generateData(nRows, () -> {
+                DataPoint dataPoint = spiral.generate();
+                float[] features = new float[nFeatures];
+                System.arraycopy(dataPoint.getFeatures(), 0, features, 0, 2);
+                for (int f = 2; f < nFeatures; f++) {
+                    features[f] = random.nextFloat() * 40;
+                }
+                return new DataPoint(dataPoint.getLabel(), features);
+            });
+        }
+        throw new IllegalArgumentException("unknown data set " + dataset);
+    }
+
+    /**
+     * 
+     * @return an axis aligned learner sampling thresholds over the range of
+     *         the data set
+     */
+    static Learner learner(String dataset, int nFeatures, int nClasses) {
+        float max = "spiral".equals(dataset) ? 40 : nClasses + 1;
+        float[][] rangeToSample = new float[nFeatures][];
+        for (int f = 0; f < nFeatures; f++) {
+            rangeToSample[f] = new float[] { 0, max };
+        }
+        return new AxisAlignedLearner(nClasses, rangeToSample, LEARNER_SEED);
+    }
+}
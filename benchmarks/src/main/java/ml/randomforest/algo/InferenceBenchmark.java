@@ -0,0 +1,129 @@
+package ml.randomforest.algo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * Classification of a fixed test set by one tree and by the whole forest, per
+ * row. The compiled and compacted forests are there for comparison, and the
+ * compiled forest stopping early, once the most likely class is settled and
+ * once a confidence bound of 0.01 says so.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class InferenceBenchmark {
+
+    static final int N_TEST = 1024;
+
+    @Param({ "uniform", "spiral" })
+    String dataset;
+
+    @Param({ "10000" })
+    int nRows;
+
+    @Param({ "2", "16" })
+    int nFeatures;
+
+    @Param({ "5" })
+    int nClasses;
+
+    @Param({ "10" })
+    int nSample;
+
+    @Param({ "5", "10" })
+    int treeMaxDepth;
+
+    @Param({ "16", "256" })
+    int nTrees;
+
+    DecisionTreeNode[] forest;
+    CompiledForest compiled;
+    CompactForest compact;
+    DataPoint[] testSet;
+    float[] p;
+
+    @Setup
+    public void setUp() {
+        DataPoint[] trainingSet = BenchmarkData.generate(dataset, nRows, nFeatures, nClasses,
+                BenchmarkData.TRAINING_SEED);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(nTrees).nSample(nSample)
+                .treeMaxDepth(treeMaxDepth).seed(BenchmarkData.FOREST_SEED).build();
+        forest = RandomForest.trainClassifier(trainingSet, BenchmarkData.learner(dataset, nFeatures, nClasses),
+                trainingOption);
+        compiled = CompiledForest.compile(forest);
+        compact = CompactForest.compact(compiled, 16, CompactForest.Thresholds.BIN_INDEX);
+        testSet = BenchmarkData.generate(dataset, N_TEST, nFeatures, nClasses, BenchmarkData.TEST_SEED);
+        p = new float[nClasses];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_TEST)
+    public void classifyTree(Blackhole blackhole) {
+        for (DataPoint dataPoint : testSet) {
+            blackhole.consume(RandomDecisionTree.classify(dataPoint, forest[0]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_TEST)
+    public void classifyForest(Blackhole blackhole) {
+        for (DataPoint dataPoint : testSet) {
+            blackhole.consume(RandomForest.classify(dataPoint, forest));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_TEST)
+    public void classifyCompiledForest(Blackhole blackhole) {
+        for (DataPoint dataPoint : testSet) {
+            compiled.classify(dataPoint, p);
+            blackhole.consume(p);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_TEST)
+    public void classifyCompactForest(Blackhole blackhole) {
+        for (DataPoint dataPoint : testSet) {
+            compact.classify(dataPoint.getFeatures(), p);
+            blackhole.consume(p);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_TEST)
+    public void classifyEarlyExit(Blackhole blackhole) {
+        for (DataPoint dataPoint : testSet) {
+            blackhole.consume(compiled.classifyEarlyExit(dataPoint.getFeatures(), p, 0f));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_TEST)
+    public void classifyEarlyExitBound(Blackhole blackhole) {
+        for (DataPoint dataPoint : testSet) {
+            blackhole.consume(compiled.classifyEarlyExit(dataPoint.getFeatures(), p, 0.01f));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ml.randomforest.algo;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ml.randomforest.example.AxisAlignedLearner.AxisAlignedParameterSet;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.SplitCriterion;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * The work done on one node: scoring the sampled parameter sets over all of
+ * its rows, sequentially or with the parallel loop of
+ * {@link RandomDecisionTree#sampleSplit}, the threshold kernel's counting
+ * alone, partitioning its rows, and the impurity and gain of class counts by
+ * each split criterion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SplitBenchmark {
+
+    @Param({ "uniform", "spiral" })
+    String dataset;
+
+    @Param({ "1000", "100000" })
+    int nRows;
+
+    @Param({ "2", "16" })
+    int nFeatures;
+
+    @Param({ "5" })
+    int nClasses;
+
+    @Param({ "10", "100" })
+    int nSample;
+
+    @Param({ "false", "true" })
+    boolean parallelSample;
+
+    TrainingContext context;
+    int[] hist;
+    float nodeEntropy;
+    float nodeGini;
+    int[] shuffled;
+    ParameterSet param;
+    float[] thresholds;
+    int[] leftHist;
+    int[] rightHist;
+    int left;
+    int right;
+
+    @Setup
+    public void setUp() {
+        FeatureMatrix data = FeatureMatrix.fromDataPoints(
+                BenchmarkData.generate(dataset, nRows, nFeatures, nClasses, BenchmarkData.TRAINING_SEED));
+        Learner learner = BenchmarkData.learner(dataset, nFeatures, nClasses);
+        // without a cutoff, to find where the parallel loop starts paying off,
+        // @see TrainingOptions#minParallelSearchCost()
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nSample(nSample).minParallelSearchCost(0)
+                .seed(BenchmarkData.FOREST_SEED).build();
+        context = TrainingContext.prepare(data, learner, trainingOption, parallelSample).forTree(0);
+
+        hist = new int[nClasses];
+        for (int row = 0; row < nRows; row++) {
+            hist[data.getLabel(row)]++;
+        }
+        nodeEntropy = RandomDecisionTree.entropy(nRows, hist);
+        nodeGini = SplitCriterion.GINI.impurity(hist, nRows);
+
+        // rows in random order, as in a node deep in a tree, split at the
+        // median of the first feature
+        Random random = new Random(BenchmarkData.TEST_SEED);
+        shuffled = RandomDecisionTree.identityPermutation(nRows);
+        for (int i = nRows - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+        float[] column = new float[nRows];
+        for (int row = 0; row < nRows; row++) {
+            column[row] = data.getFeature(row, 0);
+        }
+        Arrays.sort(column);
+        param = new AxisAlignedParameterSet(0, column[nRows / 2]);
+        // nSample thresholds on the first feature, at its quantiles
+        thresholds = new float[nSample];
+        for (int k = 0; k < nSample; k++) {
+            thresholds[k] = column[(int) ((k + 0.5) * nRows / nSample)];
+        }
+
+        leftHist = new int[nClasses];
+        rightHist = new int[nClasses];
+        for (int row = 0; row < nRows; row++) {
+            if (param.evaluateDecision(data, row)) {
+                leftHist[data.getLabel(row)]++;
+                left++;
+            } else {
+                rightHist[data.getLabel(row)]++;
+                right++;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object sampleSplit() {
+        return RandomDecisionTree.sampleSplit(context, new SplittableRandom(BenchmarkData.FOREST_SEED), hist,
+                nodeEntropy, 0, nRows);
+    }
+
+    /**
+     * Counts the shuffled rows going left of each of the nSample thresholds
+     * with the threshold kernel in use, the vector one when the vector
+     * subproject is on the class path.
+     */
+    @Benchmark
+    public int[] countLeft() {
+        return countLeft(ThresholdKernels.KERNEL);
+    }
+
+    @Benchmark
+    public int[] scalarCountLeft() {
+        return countLeft(ThresholdKernels.SCALAR);
+    }
+
+    private int[] countLeft(ThresholdKernel kernel) {
+        int[] leftCounts = new int[nSample * nClasses];
+        kernel.countLeft(context.data.heapColumn(0), context.data.heapLabels(), null, shuffled, 0, nRows,
+                thresholds, nClasses, leftCounts);
+        return leftCounts;
+    }
+
+    /**
+     * Includes restoring the shuffled order, a copy of nRows ints.
+     */
+    @Benchmark
+    public int partition() {
+        System.arraycopy(shuffled, 0, context.index, 0, nRows);
+        return RandomDecisionTree.partition(context.data, context.index, 0, nRows, param);
+    }
+
+    @Benchmark
+    public int scalarPartition() {
+        System.arraycopy(shuffled, 0, context.index, 0, nRows);
+        return ThresholdKernels.SCALAR.partition(context.data.heapColumn(0), context.index, 0, nRows,
+                ((AxisAlignedParameterSet) param).getThreshold());
+    }
+
+    @Benchmark
+    public float entropy() {
+        return RandomDecisionTree.entropy(left, leftHist);
+    }
+
+    @Benchmark
+    public float informationGain() {
+        return RandomDecisionTree.informationGain(nodeEntropy, leftHist, left, rightHist, right);
+    }
+
+    @Benchmark
+    public float gini() {
+        return SplitCriterion.GINI.impurity(leftHist, left);
+    }
+
+    @Benchmark
+    public float giniGain() {
+        return SplitCriterion.GINI.gain(nodeGini, leftHist, left, rightHist, right);
+    }
+}
@@ -0,0 +1,80 @@
+package ml.randomforest.algo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * Training of a single tree and of a whole forest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TrainingBenchmark {
+
+    @Param({ "uniform", "spiral" })
+    String dataset;
+
+    @Param({ "1000", "100000" })
+    int nRows;
+
+    @Param({ "2", "16" })
+    int nFeatures;
+
+    @Param({ "5" })
+    int nClasses;
+
+    @Param({ "10", "100" })
+    int nSample;
+
+    @Param({ "10" })
+    int treeMaxDepth;
+
+    @Param({ "16" })
+    int nTrees;
+
+    // calibrates TrainingOptions#minParallelSubtreeCost(), for trainTree
+    @Param({ "16384" })
+    long minParallelSubtreeCost;
+
+    FeatureMatrix data;
+    Learner learner;
+    TrainingOptions trainingOption;
+
+    @Setup
+    public void setUp() {
+        data = FeatureMatrix.fromDataPoints(
+                BenchmarkData.generate(dataset, nRows, nFeatures, nClasses, BenchmarkData.TRAINING_SEED));
+        learner = BenchmarkData.learner(dataset, nFeatures, nClasses);
+        trainingOption = new TrainingOptions.Builder().nTrees(nTrees).nSample(nSample).treeMaxDepth(treeMaxDepth)
+                .minParallelSubtreeCost(minParallelSubtreeCost).seed(BenchmarkData.FOREST_SEED).build();
+    }
+
+    @Benchmark
+    public DecisionTreeNode trainTree() {
+        return RandomDecisionTree.trainClassifier(data, learner, trainingOption);
+    }
+
+    @Benchmark
+    public DecisionTreeNode[] trainForest() {
+        return RandomForest.trainClassifier(data, learner, trainingOption);
+    }
+}
@@ -0,0 +1,154 @@
+package ml.randomforest.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import ml.randomforest.model.TrainingListener;
+
+/**
+ * A {@link TrainingListener} emitting Java Flight Recorder events: one per
+ * tree trained, with its duration, and one per split node and per leaf. The
+ * node events are many and so disabled unless the recording enables them, by
+ * name in a .jfc settings file or through
+ * {@link jdk.jfr.Recording#enable(String)}; disabled events are not filled in
+ * or committed. Record the tree events with e.g.
+ * 
+ * <pre>
+ * java -XX:StartFlightRecording=filename=training.jfr ...
+ * </pre>
+ */
+public class JfrTrainingListener implements TrainingListener {
+
+    private static final String CATEGORY = "Random Forest";
+
+    // trees are trained one per thread, from start to finish
+    private final ThreadLocal<TreeEvent> tree = new ThreadLocal<>();
+
+    @Name("ml.randomforest.Tree")
+    @Label("Tree Trained")
+    @Category({ CATEGORY, "Training" })
+    static class TreeEvent extends Event {
+        @Label("Tree")
+        int tree;
+
+        @Label("Nodes")
+        @Description("Split nodes and leaves")
+        int nodes;
+    }
+
+    @Name("ml.randomforest.NodeSplit")
+    @Label("Node Split")
+    @Category({ CATEGORY, "Training" })
+    @Enabled(false)
+    static class NodeSplitEvent extends Event {
+        @Label("Tree")
+        int tree;
+
+        @Label("Depth")
+        int depth;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Rows Scanned")
+        long rowsScanned;
+
+        @Label("Candidates")
+        long candidates;
+
+        @Label("Split Search")
+        @Timespan(Timespan.NANOSECONDS)
+        long searchTime;
+
+        @Label("Partition")
+        @Timespan(Timespan.NANOSECONDS)
+        long partitionTime;
+    }
+
+    @Name("ml.randomforest.Leaf")
+    @Label("Leaf")
+    @Category({ CATEGORY, "Training" })
+    @Enabled(false)
+    static class LeafEvent extends Event {
+        @Label("Tree")
+        int tree;
+
+        @Label("Depth")
+        int depth;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Stop Reason")
+        String reason;
+
+        @Label("Rows Scanned")
+        long rowsScanned;
+
+        @Label("Candidates")
+        long candidates;
+
+        @Label("Split Search")
+        @Timespan(Timespan.NANOSECONDS)
+        long searchTime;
+    }
+
+    @Override
+    public void treeStarted(int tree) {
+        TreeEvent event = new TreeEvent();
+        if (!event.isEnabled())
+            return;
+        event.tree = tree;
+        event.begin();
+        this.tree.set(event);
+    }
+
+    @Override
+    public void treeFinished(int tree, int nNodes, long nanos) {
+        TreeEvent event = this.tree.get();
+        if (event == null)
+            return;
+        this.tree.remove();
+        event.end();
+        if (event.shouldCommit()) {
+            event.nodes = nNodes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void nodeSplit(int tree, int depth, int nRows, long rowsScanned, long nCandidates, long searchNanos,
+            long partitionNanos) {
+        NodeSplitEvent event = new NodeSplitEvent();
+        if (!event.shouldCommit())
+            return;
+        event.tree = tree;
+        event.depth = depth;
+        event.rows = nRows;
+        event.rowsScanned = rowsScanned;
+        event.candidates = nCandidates;
+        event.searchTime = searchNanos;
+        event.partitionTime = partitionNanos;
+        event.commit();
+    }
+
+    @Override
+    public void leaf(int tree, int depth, int nRows, StopReason reason, long rowsScanned, long nCandidates,
+            long searchNanos) {
+        LeafEvent event = new LeafEvent();
+        if (!event.shouldCommit())
+            return;
+        event.tree = tree;
+        event.depth = depth;
+        event.rows = nRows;
+        event.reason = reason.name();
+        event.rowsScanned = rowsScanned;
+        event.candidates = nCandidates;
+        event.searchTime = searchNanos;
+        event.commit();
+    }
+}
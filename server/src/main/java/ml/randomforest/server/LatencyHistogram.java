@@ -0,0 +1,61 @@
+package ml.randomforest.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of latencies in buckets of at most 1/16 of their value, recorded
+ * without locking: each power of 2 of nanoseconds is split in 16 buckets, so
+ * that a percentile is known to within 6.25%.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // below SUB_BUCKETS one bucket per value, then SUB_BUCKETS per power of 2
+    private final AtomicLongArray counts = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * 
+     * @param quantile
+     *            in [0, 1]
+     * @return the largest latency of the bucket holding the quantile, in
+     *         nanoseconds, 0 if none was recorded
+     */
+    long percentile(double quantile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int b = 0; b < snapshot.length; b++) {
+            snapshot[b] = counts.get(b);
+            total += snapshot[b];
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int b = 0; b < snapshot.length; b++) {
+            seen += snapshot[b];
+            if (seen >= rank)
+                return highest(b);
+        }
+        return 0;
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> exponent - SUB_BUCKET_BITS) & SUB_BUCKETS - 1;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << exponent - SUB_BUCKET_BITS;
+        return lowest + (1L << exponent - SUB_BUCKET_BITS) - 1;
+    }
+}
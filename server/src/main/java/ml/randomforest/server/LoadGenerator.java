@@ -0,0 +1,99 @@
+package ml.randomforest.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a {@link ScoringServer} on the same box: client threads post
+ * requests of random rows back to back for a while, then the server's
+ * counters are printed.
+ * 
+ * <pre>
+ * java ml.randomforest.server.LoadGenerator url n-clients seconds rows-per-request n-features
+ * </pre>
+ * 
+ * with url the server's, e.g. http://127.0.0.1:8080. The features are drawn
+ * uniformly from [0, 1); scale the data with the forest in mind.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("usage: LoadGenerator url n-clients seconds rows-per-request n-features");
+            System.exit(2);
+        }
+        URL classify = new URL(args[0] + "/classify");
+        int nClients = Integer.parseInt(args[1]);
+        long deadline = System.nanoTime() + (long) (Double.parseDouble(args[2]) * 1e9);
+        int rowsPerRequest = Integer.parseInt(args[3]);
+        int nFeatures = Integer.parseInt(args[4]);
+
+        AtomicLong nFailed = new AtomicLong();
+        Thread[] clients = new Thread[nClients];
+        for (int i = 0; i < nClients; i++) {
+            SplittableRandom random = new SplittableRandom(i);
+            clients[i] = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        if (post(classify, rows(random, rowsPerRequest, nFeatures)) != 200)
+                            nFailed.incrementAndGet();
+                    } catch (IOException e) {
+                        nFailed.incrementAndGet();
+                    }
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        System.out.println("failed requests: " + nFailed.get());
+        HttpURLConnection stats = (HttpURLConnection) new URL(args[0] + "/stats").openConnection();
+        System.out.print(new String(readAll(stats.getInputStream()), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] rows(SplittableRandom random, int nRows, int nFeatures) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < nRows; i++) {
+            for (int f = 0; f < nFeatures; f++) {
+                body.append(f == 0 ? "" : ",").append((float) random.nextDouble());
+            }
+            body.append('\n');
+        }
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int post(URL url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            // read to the end, so the connection is kept alive
+            if (in != null)
+                readAll(in);
+        }
+        return status;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
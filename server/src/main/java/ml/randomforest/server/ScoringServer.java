@@ -0,0 +1,472 @@
+package ml.randomforest.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ml.randomforest.algo.MappedForest;
+
+/**
+ * Scores rows over HTTP with a trained forest, gathering the rows of
+ * concurrent requests into micro-batches: a batch is scored once it holds
+ * maxBatchSize rows or its first row has waited maxDelay, whichever comes
+ * first, so that under load each tree goes over many rows while in cache and
+ * an idle server answers within maxDelay. Requests are handled on the JDK's
+ * built-in HTTP server, on a virtual thread each where the JDK has them (21
+ * or later) and on a cached thread pool otherwise; they wait for their rows'
+ * batch while one thread scores the batches.
+ * 
+ * <pre>
+ * POST /classify   one row per line, features separated by commas; answers
+ *                  one line of class probabilities per row
+ * GET  /stats      the counters, @see Stats
+ * </pre>
+ * 
+ * Run it on a file written by ml.randomforest.algo.ForestFile with
+ * 
+ * <pre>
+ * java ml.randomforest.server.ScoringServer forest-file [port [max-batch-size [max-delay-micros]]]
+ * </pre>
+ */
+public class ScoringServer {
+
+    /**
+     * Scores a batch of rows, as CompiledForest#classifyBatch(float[][],
+     * float[][]) and MappedForest#classifyBatch(float[][], float[][]) do.
+     */
+    public interface BatchScorer {
+        void classifyBatch(float[][] rows, float[][] p);
+    }
+
+    // how long a request waits for its rows' batches at most
+    private static final long RESULT_TIMEOUT_MILLIS = 60_000;
+
+    private final BatchScorer scorer;
+    private final int nClasses;
+    private final int nFeatures;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder nRequests = new LongAdder();
+    private final LongAdder nRows = new LongAdder();
+    private final LongAdder nBatches = new LongAdder();
+    private final AtomicInteger nWaiting = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+
+    private HttpServer http;
+    private ExecutorService handlers;
+    private Thread batcher;
+    private volatile boolean running;
+
+    /**
+     * 
+     * @param scorer
+     *            scores the batches
+     * @param nClasses
+     *            the number of classes scorer gives probabilities of
+     * @param nFeatures
+     *            the fewest features a row needs, those the forest splits on
+     * @param maxBatchSize
+     *            the most rows scored in one batch
+     * @param maxDelay
+     *            the longest the first row of a batch waits for more rows
+     */
+    public ScoringServer(BatchScorer scorer, int nClasses, int nFeatures, int maxBatchSize, long maxDelay,
+            TimeUnit unit) {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize should be positive, got " + maxBatchSize);
+        if (maxDelay < 0)
+            throw new IllegalArgumentException("maxDelay should not be negative, got " + maxDelay);
+        this.scorer = scorer;
+        this.nClasses = nClasses;
+        this.nFeatures = nFeatures;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    // a row waiting for its batch
+    private static final class Pending {
+        final float[] features;
+        final long enqueued = System.nanoTime();
+        final CompletableFuture<float[]> result = new CompletableFuture<>();
+
+        Pending(float[] features) {
+            this.features = features;
+        }
+    }
+
+    // the failure of the rows still waiting when the server stops
+    private static final class Stopped extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        Stopped() {
+            super("server stopped");
+        }
+    }
+
+    /**
+     * Starts scoring, and serving HTTP on address.
+     * 
+     * @return the address served, with the port bound if address had port 0
+     */
+    public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+        if (batcher != null)
+            throw new IllegalStateException("already started");
+        batcher = new Thread(this::scoreBatches, "scoring-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+        running = true;
+        handlers = handlerExecutor();
+        http = HttpServer.create(address, 0);
+        http.setExecutor(handlers);
+        http.createContext("/classify", this::handleClassify);
+        http.createContext("/stats", this::handleStats);
+        http.start();
+        return http.getAddress();
+    }
+
+    /**
+     * Stops serving, failing the rows still waiting for a batch. The requests
+     * of those rows are answered 503 within a second before the HTTP server
+     * closes.
+     */
+    public synchronized void stop() {
+        if (batcher == null)
+            return;
+        running = false;
+        batcher.interrupt();
+        try {
+            batcher.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        batcher = null;
+        failQueued();
+        http.stop(1);
+        handlers.shutdown();
+    }
+
+    private void failQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new Stopped());
+        }
+    }
+
+    // a virtual thread per request where the JDK has them
+    private static ExecutorService handlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Scores rows in the batches of the server, as an HTTP request would.
+     * 
+     * @param rows
+     *            the features of the data to test, one array per row
+     * @return the distribution mass function of each row, [row][class]
+     * @throws IllegalArgumentException
+     *             if a row has fewer than nFeatures features, before any row
+     *             is queued
+     * @throws ExecutionException
+     *             if the batch of a row failed to score, or the server was
+     *             stopped before
+     * @throws TimeoutException
+     *             if the rows were not scored within a minute
+     */
+    public float[][] classify(float[][] rows) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!running)
+            throw new IllegalStateException("not started");
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i].length < nFeatures)
+                throw new IllegalArgumentException(
+                        "row " + i + " has " + rows[i].length + " features, expected " + nFeatures);
+        }
+        long start = System.nanoTime();
+        nWaiting.addAndGet(rows.length);
+        float[][] p = new float[rows.length][];
+        try {
+            Pending[] pending = new Pending[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                pending[i] = new Pending(rows[i]);
+                queue.add(pending[i]);
+            }
+            // stop() may have drained the queue before the rows were added
+            if (!running)
+                failQueued();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(RESULT_TIMEOUT_MILLIS);
+            for (int i = 0; i < rows.length; i++) {
+                p[i] = pending[i].result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            nWaiting.addAndGet(-rows.length);
+        }
+        latency.record(System.nanoTime() - start);
+        nRequests.increment();
+        nRows.add(rows.length);
+        return p;
+    }
+
+    /**
+     * 
+     * @return the number of rows of the requests waiting for their results
+     */
+    int nWaiting() {
+        return nWaiting.get();
+    }
+
+    private void scoreBatches() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                long deadline = batch.get(0).enqueued + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0)
+                        continue;
+                    Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+                score(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+        for (Pending pending : batch) {
+            pending.result.completeExceptionally(new Stopped());
+        }
+        failQueued();
+    }
+
+    private void score(List<Pending> batch) {
+        float[][] rows = new float[batch.size()][];
+        float[][] p = new float[batch.size()][nClasses];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = batch.get(i).features;
+        }
+        try {
+            scorer.classifyBatch(rows, p);
+        } catch (RuntimeException e) {
+            // rescore one row at a time, so that only the bad rows fail
+            if (rows.length > 1) {
+                for (Pending pending : batch) {
+                    score(Collections.singletonList(pending));
+                }
+            } else {
+                batch.get(0).result.completeExceptionally(e);
+            }
+            return;
+        }
+        nBatches.increment();
+        for (int i = 0; i < rows.length; i++) {
+            batch.get(i).result.complete(p[i]);
+        }
+    }
+
+    private void handleClassify(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "POST rows to classify\n");
+                return;
+            }
+            float[][] rows;
+            try {
+                rows = parseRows(exchange);
+            } catch (NumberFormatException e) {
+                respond(exchange, 400, "not a number: " + e.getMessage() + "\n");
+                return;
+            }
+            float[][] p;
+            try {
+                p = classify(rows);
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage() + "\n");
+                return;
+            } catch (IllegalStateException e) {
+                respond(exchange, 503, "server stopped\n");
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Stopped)
+                    respond(exchange, 503, "server stopped\n");
+                else
+                    respond(exchange, 400, "could not score the rows: " + e.getCause() + "\n");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "interrupted\n");
+                return;
+            } catch (TimeoutException e) {
+                respond(exchange, 503, "timed out\n");
+                return;
+            }
+            StringBuilder body = new StringBuilder();
+            for (float[] row : p) {
+                for (int c = 0; c < row.length; c++) {
+                    body.append(c == 0 ? "" : ",").append(row[c]);
+                }
+                body.append('\n');
+            }
+            respond(exchange, 200, body.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static float[][] parseRows(HttpExchange exchange) throws IOException {
+        List<float[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            String[] fields = line.split(",");
+            float[] row = new float[fields.length];
+            for (int f = 0; f < fields.length; f++) {
+                row[f] = Float.parseFloat(fields[f].trim());
+            }
+            rows.add(row);
+        }
+        return rows.toArray(new float[rows.size()][]);
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, 200, stats().toString() + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 
+     * @return the counters of the server since it was created
+     */
+    public Stats stats() {
+        return new Stats(nRequests.sum(), nRows.sum(), nBatches.sum(), latency.percentile(0.5),
+                latency.percentile(0.99), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * The requests, rows and batches scored, and the latency of the requests
+     * from their rows' submission until all were scored.
+     */
+    public static final class Stats {
+        private final long nRequests;
+        private final long nRows;
+        private final long nBatches;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long upNanos;
+
+        Stats(long nRequests, long nRows, long nBatches, long p50Nanos, long p99Nanos, long upNanos) {
+            this.nRequests = nRequests;
+            this.nRows = nRows;
+            this.nBatches = nBatches;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.upNanos = upNanos;
+        }
+
+        public long getNRequests() {
+            return nRequests;
+        }
+
+        public long getNRows() {
+            return nRows;
+        }
+
+        public long getNBatches() {
+            return nBatches;
+        }
+
+        /**
+         * 
+         * @return the median latency of a request, to within 6.25%
+         */
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        /**
+         * 
+         * @return the 99th percentile of the latency of a request, to within
+         *         6.25%
+         */
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        /**
+         * 
+         * @return the rows scored per second since the server was created
+         */
+        public double getRowsPerSecond() {
+            return nRows * 1e9 / Math.max(1, upNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "{\"requests\": %d, \"rows\": %d, \"batches\": %d, \"meanBatchSize\": %.2f, "
+                            + "\"p50Micros\": %.1f, \"p99Micros\": %.1f, \"rowsPerSecond\": %.1f}",
+                    nRequests, nRows, nBatches, nBatches == 0 ? 0.0 : nRows / (double) nBatches,
+                    p50Nanos / 1e3, p99Nanos / 1e3, getRowsPerSecond());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ScoringServer forest-file [port [max-batch-size [max-delay-micros]]]");
+            System.exit(2);
+        }
+        MappedForest forest = MappedForest.open(new File(args[0]));
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int maxBatchSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        long maxDelayMicros = args.length > 3 ? Long.parseLong(args[3]) : 500;
+        ScoringServer server = new ScoringServer(forest::classifyBatch, forest.nClasses(), forest.nFeatures(),
+                maxBatchSize, maxDelayMicros, TimeUnit.MICROSECONDS);
+        // local only, for load tests on one box
+        InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        System.out.println("scoring " + forest.nTrees() + " trees on http://" + address.getHostString() + ":"
+                + address.getPort() + "/classify");
+    }
+}
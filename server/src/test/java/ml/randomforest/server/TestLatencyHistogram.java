@@ -0,0 +1,36 @@
+package ml.randomforest.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+
+        // exact below 16 nanoseconds
+        for (long nanos = 1; nanos <= 10; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(5, histogram.percentile(0.5));
+        assertEquals(10, histogram.percentile(1));
+        assertEquals(1, histogram.percentile(0));
+
+        // within 1/16 above, never below the latency
+        histogram = new LatencyHistogram();
+        for (long nanos = 1000; nanos <= 100_000; nanos += 1000) {
+            histogram.record(nanos);
+        }
+        long p50 = histogram.percentile(0.5);
+        long p99 = histogram.percentile(0.99);
+        assertTrue(p50 + " for 50000", p50 >= 50_000 && p50 < 50_000 * 17 / 16);
+        assertTrue(p99 + " for 99000", p99 >= 99_000 && p99 < 99_000 * 17 / 16);
+
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.percentile(1));
+    }
+}
@@ -0,0 +1,239 @@
+package ml.randomforest.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestScoringServer {
+
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    // scores p[0] = features[0], p[1] = 1 - features[0], and fails batches
+    // with a NaN feature
+    private static final class StubScorer implements ScoringServer.BatchScorer {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void classifyBatch(float[][] rows, float[][] p) {
+            batchSizes.add(rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                if (Float.isNaN(rows[i][0]))
+                    throw new IllegalArgumentException("NaN feature");
+                p[i][0] = rows[i][0];
+                p[i][1] = 1 - rows[i][0];
+            }
+        }
+    }
+
+    private static ScoringServer start(StubScorer scorer, int maxBatchSize, long maxDelayMillis) throws Exception {
+        ScoringServer server = new ScoringServer(scorer, 2, 1, maxBatchSize, maxDelayMillis, TimeUnit.MILLISECONDS);
+        server.start(LOOPBACK);
+        return server;
+    }
+
+    private static float[][] rows(float... features) {
+        float[][] rows = new float[features.length][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new float[] { features[i] };
+        }
+        return rows;
+    }
+
+    @Test
+    public void testBatchClosedBySize() throws Exception {
+        StubScorer scorer = new StubScorer();
+        // only full batches are scored before the delay
+        ScoringServer server = start(scorer, 4, TimeUnit.HOURS.toMillis(1));
+        try {
+            float[][] p = server.classify(rows(0, 0.25f, 0.5f, 0.75f, 1, 0.5f, 0.5f, 0.5f));
+            assertEquals(Arrays.asList(4, 4), scorer.batchSizes);
+            assertArrayEquals(new float[] { 0.25f, 0.75f }, p[1], 0f);
+            assertEquals(2, server.stats().getNBatches());
+            assertEquals(8, server.stats().getNRows());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testBatchClosedByDelay() throws Exception {
+        StubScorer scorer = new StubScorer();
+        ScoringServer server = start(scorer, 100, 50);
+        try {
+            long start = System.nanoTime();
+            float[][] p = server.classify(rows(0, 0.5f, 1));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertEquals(Arrays.asList(3), scorer.batchSizes);
+            assertArrayEquals(new float[] { 1, 0 }, p[2], 0f);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFailedBatchRescoredPerRow() throws Exception {
+        StubScorer scorer = new StubScorer();
+        // the two requests make one batch
+        ScoringServer server = start(scorer, 2, TimeUnit.HOURS.toMillis(1));
+        ExecutorService requests = Executors.newFixedThreadPool(2);
+        try {
+            Future<float[][]> good = requests.submit(() -> server.classify(rows(0.25f)));
+            Future<float[][]> bad = requests.submit(() -> server.classify(rows(Float.NaN)));
+            assertArrayEquals(new float[] { 0.25f, 0.75f }, good.get(10, TimeUnit.SECONDS)[0], 0f);
+            try {
+                bad.get(10, TimeUnit.SECONDS);
+                fail("expected the NaN row to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ExecutionException);
+                assertTrue(e.getCause().getCause() instanceof IllegalArgumentException);
+            }
+            assertEquals(Arrays.asList(2, 1, 1), scorer.batchSizes);
+        } finally {
+            requests.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testStopFailsPendingRows() throws Exception {
+        StubScorer scorer = new StubScorer();
+        ScoringServer server = start(scorer, 100, TimeUnit.HOURS.toMillis(1));
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        try {
+            AtomicReference<Thread> requester = new AtomicReference<>();
+            Future<float[][]> pending = requests.submit(() -> {
+                requester.set(Thread.currentThread());
+                return server.classify(rows(0.5f, 0.5f));
+            });
+            // until the request waits for its rows
+            while (requester.get() == null || requester.get().getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+            server.stop();
+            try {
+                pending.get(10, TimeUnit.SECONDS);
+                fail("expected the pending rows to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+            }
+            assertTrue(scorer.batchSizes.isEmpty());
+            try {
+                server.classify(rows(0.5f));
+                fail("expected the stopped server to refuse rows");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            requests.shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        StubScorer scorer = new StubScorer();
+        // rows of two features, scored two at a time
+        ScoringServer server = new ScoringServer(scorer, 2, 2, 2, 1, TimeUnit.HOURS);
+        String url = url(server.start(LOOPBACK));
+        try {
+            assertEquals(new Response(200, "0.25,0.75\n1.0,0.0\n"), request(url + "/classify", "0.25, 9\n\n1,9\n"));
+            assertEquals(new Response(400, "not a number: For input string: \"x\"\n"),
+                    request(url + "/classify", "0.5,x\n"));
+            // a short row fails its request before any row is queued
+            assertEquals(new Response(400, "row 1 has 1 features, expected 2\n"),
+                    request(url + "/classify", "0.5,9\n0.5\n"));
+            assertEquals(Arrays.asList(2), scorer.batchSizes);
+            // a row the forest can't score fails its request only
+            assertEquals(400, request(url + "/classify", "NaN,9\n0.5,9\n").status);
+            assertEquals(Arrays.asList(2, 2, 1, 1), scorer.batchSizes);
+            assertEquals(405, request(url + "/classify", null).status);
+            Response stats = request(url + "/stats", null);
+            assertEquals(200, stats.status);
+            assertTrue(stats.body, stats.body.startsWith("{\"requests\": 1, \"rows\": 2, \"batches\": 2,"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHttpStopped() throws Exception {
+        StubScorer scorer = new StubScorer();
+        ScoringServer server = new ScoringServer(scorer, 2, 1, 100, 1, TimeUnit.HOURS);
+        String url = url(server.start(LOOPBACK));
+        ExecutorService requests = Executors.newSingleThreadExecutor();
+        try {
+            Future<Response> pending = requests.submit(() -> request(url + "/classify", "0.5\n"));
+            while (server.nWaiting() == 0) {
+                Thread.sleep(1);
+            }
+            server.stop();
+            assertEquals(new Response(503, "server stopped\n"), pending.get(10, TimeUnit.SECONDS));
+        } finally {
+            requests.shutdown();
+            server.stop();
+        }
+    }
+
+    private static String url(InetSocketAddress address) {
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Response && ((Response) o).status == status && ((Response) o).body.equals(body);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * status + body.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + body;
+        }
+    }
+
+    // a GET, or a POST of body
+    private static Response request(String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            return new Response(status, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+}
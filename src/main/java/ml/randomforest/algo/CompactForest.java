@@ -0,0 +1,524 @@
+package ml.randomforest.algo;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+
+/**
+ * A compiled forest shrunk for scoring many models on one host: its nodes take
+ * 12 bytes, a feature and a threshold of 2 bytes and two child references, and
+ * its leaves none but their reference to a distribution. Leaf distributions
+ * are stored once each in fixed point of 8 or 16 bits, leaves of the same
+ * quantized distribution sharing it, and thresholds as {@link Thresholds}.
+ * The class counts of the nodes are dropped.
+ * 
+ * Classification is the compiled forest's up to the quantization: a row may
+ * take another branch where float16 rounded its threshold, and the
+ * distributions are off by up to half a step of fixed point.
+ * {@link #compare(DecisionTreeNode[], FeatureMatrix)} reports how much this
+ * changes on test data.
+ */
+public class CompactForest {
+
+    /**
+     * How the thresholds of the split nodes are stored.
+     */
+    public enum Thresholds {
+        /**
+         * rounded to the nearest half precision float, which keeps 11
+         * significant bits and values up to 65504 (larger ones become
+         * infinite)
+         */
+        FLOAT16,
+        /**
+         * exactly, as the index of the threshold among the distinct thresholds
+         * of its feature in the forest, of which there may be up to 65536
+         */
+        BIN_INDEX
+    }
+
+    final int nClasses;
+    final int nLeaves;
+    final int[] roots;
+    final char[] feature;
+    // one of: the float16 bits of the thresholds, or their index in cuts
+    final short[] threshold16;
+    final char[] thresholdIndex;
+    final float[][] cuts;
+    final int[] left;
+    final int[] right;
+    // the distinct leaf distributions in fixed point, one of 8 or 16 bits
+    final int distributionBits;
+    final byte[] distributions8;
+    final char[] distributions16;
+
+    private CompactForest(int nClasses, int nLeaves, int[] roots, char[] feature, short[] threshold16,
+            char[] thresholdIndex, float[][] cuts, int[] left, int[] right, int distributionBits,
+            byte[] distributions8, char[] distributions16) {
+        this.nClasses = nClasses;
+        this.nLeaves = nLeaves;
+        this.roots = roots;
+        this.feature = feature;
+        this.threshold16 = threshold16;
+        this.thresholdIndex = thresholdIndex;
+        this.cuts = cuts;
+        this.left = left;
+        this.right = right;
+        this.distributionBits = distributionBits;
+        this.distributions8 = distributions8;
+        this.distributions16 = distributions16;
+    }
+
+    /**
+     * 
+     * @param forest
+     *            an array of the decision tree root nodes, split by threshold
+     *            decisions only
+     * @param distributionBits
+     *            the bits of fixed point of the leaf distributions, 8 or 16
+     * @param thresholds
+     *            how to store the thresholds
+     * @return the compacted forest
+     */
+    public static CompactForest compact(DecisionTreeNode[] forest, int distributionBits, Thresholds thresholds) {
+        return compact(CompiledForest.compile(forest), distributionBits, thresholds);
+    }
+
+    /**
+     * @see #compact(DecisionTreeNode[], int, Thresholds)
+     */
+    public static CompactForest compact(CompiledForest compiled, int distributionBits, Thresholds thresholds) {
+        if (distributionBits != 8 && distributionBits != 16)
+            throw new IllegalArgumentException("expected 8 or 16 bits of leaf distributions, got " + distributionBits);
+        if (compiled.params != null)
+            throw new IllegalArgumentException("only forests split by threshold decisions can be compacted");
+        int nNodes = compiled.nNodes();
+        int nFeatures = 0;
+        char[] feature = new char[nNodes];
+        for (int n = 0; n < nNodes; n++) {
+            if (compiled.feature[n] > Character.MAX_VALUE)
+                throw new IllegalArgumentException("feature " + compiled.feature[n] + " beyond " + Character.MAX_VALUE);
+            feature[n] = (char) compiled.feature[n];
+            nFeatures = Math.max(nFeatures, compiled.feature[n] + 1);
+        }
+
+        short[] threshold16 = null;
+        char[] thresholdIndex = null;
+        float[][] cuts = null;
+        if (thresholds == Thresholds.FLOAT16) {
+            threshold16 = new short[nNodes];
+            for (int n = 0; n < nNodes; n++) {
+                threshold16[n] = toFloat16(compiled.threshold[n]);
+            }
+        } else {
+            cuts = compiled.cuts(nFeatures);
+            for (int f = 0; f < nFeatures; f++) {
+                if (cuts[f].length > Character.MAX_VALUE + 1)
+                    throw new IllegalArgumentException("feature " + f + " has " + cuts[f].length
+                            + " distinct thresholds, more than bin indices can address; store them as FLOAT16");
+            }
+            thresholdIndex = new char[nNodes];
+            for (int n = 0; n < nNodes; n++) {
+                thresholdIndex[n] = (char) Arrays.binarySearch(cuts[feature[n]], compiled.threshold[n] + 0f);
+            }
+        }
+
+        // quantize the leaves, and number their distinct distributions
+        int nClasses = compiled.nClasses;
+        int nLeaves = compiled.nLeaves();
+        int scale = (1 << distributionBits) - 1;
+        Map<CharBuffer, Integer> distinct = new HashMap<>();
+        int[] leafRefs = new int[nLeaves];
+        char[] quantized = new char[nLeaves * nClasses];
+        for (int leaf = 0; leaf < nLeaves; leaf++) {
+            char[] q = new char[nClasses];
+            for (int c = 0; c < nClasses; c++) {
+                q[c] = (char) Math.round(compiled.leafDistributions[leaf * nClasses + c] * scale);
+            }
+            Integer d = distinct.get(CharBuffer.wrap(q));
+            if (d == null) {
+                d = distinct.size();
+                distinct.put(CharBuffer.wrap(q), d);
+                System.arraycopy(q, 0, quantized, d * nClasses, nClasses);
+            }
+            leafRefs[leaf] = ~d;
+        }
+        byte[] distributions8 = null;
+        char[] distributions16 = null;
+        if (distributionBits == 8) {
+            distributions8 = new byte[distinct.size() * nClasses];
+            for (int i = 0; i < distributions8.length; i++) {
+                distributions8[i] = (byte) quantized[i];
+            }
+        } else {
+            distributions16 = Arrays.copyOf(quantized, distinct.size() * nClasses);
+        }
+
+        int[] left = new int[nNodes];
+        int[] right = new int[nNodes];
+        for (int n = 0; n < nNodes; n++) {
+            left[n] = compiled.left[n] >= 0 ? compiled.left[n] : leafRefs[~compiled.left[n]];
+            right[n] = compiled.right[n] >= 0 ? compiled.right[n] : leafRefs[~compiled.right[n]];
+        }
+        int[] roots = new int[compiled.nTrees()];
+        for (int t = 0; t < roots.length; t++) {
+            roots[t] = compiled.roots[t] >= 0 ? compiled.roots[t] : leafRefs[~compiled.roots[t]];
+        }
+        return new CompactForest(nClasses, nLeaves, roots, feature, threshold16, thresholdIndex, cuts, left, right,
+                distributionBits, distributions8, distributions16);
+    }
+
+    public int nClasses() {
+        return nClasses;
+    }
+
+    public int nTrees() {
+        return roots.length;
+    }
+
+    /**
+     * 
+     * @return the number of split (non leaf) nodes of all trees
+     */
+    public int nNodes() {
+        return feature.length;
+    }
+
+    /**
+     * 
+     * @return the number of leaves of all trees
+     */
+    public int nLeaves() {
+        return nLeaves;
+    }
+
+    /**
+     * 
+     * @return the number of distinct quantized leaf distributions
+     */
+    public int nDistributions() {
+        return (distributionBits == 8 ? distributions8.length : distributions16.length) / nClasses;
+    }
+
+    /**
+     * 
+     * @return the bytes of the arrays of the forest, without their headers
+     */
+    public long sizeInBytes() {
+        long bytes = 4L * roots.length + 2L * feature.length + 8L * left.length;
+        if (threshold16 != null) {
+            bytes += 2L * threshold16.length;
+        } else {
+            bytes += 2L * thresholdIndex.length;
+            for (float[] c : cuts) {
+                bytes += 4L * c.length;
+            }
+        }
+        return bytes + (distributionBits == 8 ? distributions8.length : 2L * distributions16.length);
+    }
+
+    /**
+     * 
+     * @param features
+     *            the features of the data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(float[] features, float[] p) {
+        Arrays.fill(p, 0, nClasses, 0f);
+        for (int t = 0; t < roots.length; t++) {
+            int n = roots[t];
+            while (n >= 0) {
+                n = features[feature[n]] < threshold(n) ? left[n] : right[n];
+            }
+            addDistribution(~n, p);
+        }
+        normalize(p);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the data to test
+     * @param row
+     *            the row of data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(FeatureMatrix data, int row, float[] p) {
+        Arrays.fill(p, 0, nClasses, 0f);
+        for (int t = 0; t < roots.length; t++) {
+            addDistribution(~leaf(t, data, row), p);
+        }
+        normalize(p);
+    }
+
+    /**
+     * Classifies many rows at once, in blocks scored in parallel, @see
+     * CompiledForest#classifyBatch(FeatureMatrix, float[][])
+     * 
+     * @param data
+     *            the data to test
+     * @param p
+     *            receives the distribution mass function of each row,
+     *            p[row][class]
+     */
+    public void classifyBatch(FeatureMatrix data, float[][] p) {
+        int blockSize = CompiledForest.BLOCK_SIZE;
+        IntStream.range(0, (data.nRows() + blockSize - 1) / blockSize).parallel().forEach(b -> {
+            int lowInclusive = b * blockSize, hiExclusive = Math.min(data.nRows(), lowInclusive + blockSize);
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                Arrays.fill(p[i], 0, nClasses, 0f);
+            }
+            for (int t = 0; t < roots.length; t++) {
+                for (int i = lowInclusive; i < hiExclusive; i++) {
+                    addDistribution(~leaf(t, data, i), p[i]);
+                }
+            }
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                normalize(p[i]);
+            }
+        });
+    }
+
+    // the reference to the distribution of the leaf of tree t row ends up in
+    private int leaf(int t, FeatureMatrix data, int row) {
+        int n = roots[t];
+        while (n >= 0) {
+            n = data.getFeature(row, feature[n]) < threshold(n) ? left[n] : right[n];
+        }
+        return n;
+    }
+
+    private float threshold(int n) {
+        return threshold16 != null ? toFloat(threshold16[n]) : cuts[feature[n]][thresholdIndex[n]];
+    }
+
+    // adds the fixed point distribution d, scaled to whole steps
+    private void addDistribution(int d, float[] p) {
+        int offset = d * nClasses;
+        if (distributionBits == 8) {
+            for (int c = 0; c < nClasses; c++) {
+                p[c] += distributions8[offset + c] & 0xff;
+            }
+        } else {
+            for (int c = 0; c < nClasses; c++) {
+                p[c] += distributions16[offset + c];
+            }
+        }
+    }
+
+    private void normalize(float[] p) {
+        float scale = 1f / ((float) ((1 << distributionBits) - 1) * roots.length);
+        for (int c = 0; c < nClasses; c++) {
+            p[c] = p[c] * scale;
+        }
+    }
+
+    /**
+     * 
+     * @return the half precision float nearest to f, ties to even, as its bits
+     */
+    static short toFloat16(float f) {
+        int sign = Float.floatToRawIntBits(f) >>> 16 & 0x8000;
+        float abs = Math.abs(f);
+        if (Float.isNaN(f))
+            return (short) (sign | 0x7e00);
+        // 65520 and beyond round to infinity
+        if (abs >= 65520f)
+            return (short) (sign | 0x7c00);
+        // zero and the subnormals are multiples of 2^-24, a carry into the
+        // exponent's bits giving the smallest normal
+        if (abs < 0x1p-14f)
+            return (short) (sign | (int) Math.rint(abs * 0x1p24));
+        int exponent = Math.getExponent(abs);
+        int mantissa = (int) Math.rint(abs * Math.scalb(1.0, 10 - exponent));
+        // a mantissa rounded up to 2^11 carries into the exponent
+        return (short) (sign + ((exponent + 15) << 10) + mantissa - (1 << 10));
+    }
+
+    /**
+     * 
+     * @return the float of the half precision float of bits h
+     */
+    static float toFloat(short h) {
+        int bits = h & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = bits >>> 10 & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0) {
+            float subnormal = mantissa * 0x1p-24f;
+            return sign != 0 ? -subnormal : subnormal;
+        }
+        if (exponent == 0x1f)
+            return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+        return Float.intBitsToFloat(sign | (exponent + 127 - 15) << 23 | mantissa << 13);
+    }
+
+    /**
+     * Classifies test data with this and with the forest it was compacted
+     * from.
+     * 
+     * @param forest
+     *            the forest this was compacted from
+     * @param data
+     *            the test data, with their labels
+     * @return how the two compare
+     */
+    public Report compare(DecisionTreeNode[] forest, FeatureMatrix data) {
+        float[][] expected = new float[data.nRows()][nClasses];
+        float[][] p = new float[data.nRows()][nClasses];
+        CompiledForest.compile(forest).classifyBatch(data, expected);
+        classifyBatch(data, p);
+        int nRight = 0, nCompactRight = 0, nChanged = 0;
+        float maxError = 0;
+        for (int i = 0; i < p.length; i++) {
+            int predicted = argMax(expected[i]);
+            int compactPredicted = argMax(p[i]);
+            nRight += predicted == data.getLabel(i) ? 1 : 0;
+            nCompactRight += compactPredicted == data.getLabel(i) ? 1 : 0;
+            nChanged += predicted != compactPredicted ? 1 : 0;
+            for (int c = 0; c < nClasses; c++) {
+                maxError = Math.max(maxError, Math.abs(expected[i][c] - p[i][c]));
+            }
+        }
+        long nodeBytes = 0;
+        for (DecisionTreeNode tree : forest) {
+            nodeBytes += nodeBytes(tree, nClasses);
+        }
+        int n = Math.max(1, p.length);
+        return new Report(nRight * 1f / n, nCompactRight * 1f / n, nChanged * 1f / n, maxError, nodeBytes,
+                sizeInBytes(), nLeaves, nDistributions());
+    }
+
+    // the estimated heap bytes of the nodes under node on a 64 bit JVM of
+    // compressed references: a node of 32, its histogram of 16 + 4 per
+    // class, rounded up to 8, and a threshold decision of 24
+    private static long nodeBytes(DecisionTreeNode node, int nClasses) {
+        long bytes = 32 + (16 + 4 * nClasses + 7) / 8 * 8;
+        if (node.getParam() == null)
+            return bytes;
+        return bytes + 24 + nodeBytes(node.getLeft(), nClasses) + nodeBytes(node.getRight(), nClasses);
+    }
+
+    private static int argMax(float[] p) {
+        int best = 0;
+        for (int c = 1; c < p.length; c++) {
+            if (p[c] > p[best])
+                best = c;
+        }
+        return best;
+    }
+
+    /**
+     * How a compacted forest compares with the forest it was compacted from on
+     * test data, @see CompactForest#compare(DecisionTreeNode[], FeatureMatrix)
+     */
+    public static final class Report {
+        private final float accuracy;
+        private final float compactAccuracy;
+        private final float changedPredictions;
+        private final float maxProbabilityError;
+        private final long nodeBytes;
+        private final long compactBytes;
+        private final int nLeaves;
+        private final int nDistributions;
+
+        Report(float accuracy, float compactAccuracy, float changedPredictions, float maxProbabilityError,
+                long nodeBytes, long compactBytes, int nLeaves, int nDistributions) {
+            this.accuracy = accuracy;
+            this.compactAccuracy = compactAccuracy;
+            this.changedPredictions = changedPredictions;
+            this.maxProbabilityError = maxProbabilityError;
+            this.nodeBytes = nodeBytes;
+            this.compactBytes = compactBytes;
+            this.nLeaves = nLeaves;
+            this.nDistributions = nDistributions;
+        }
+
+        /**
+         * 
+         * @return the fraction of the test data the forest predicts right
+         */
+        public float getAccuracy() {
+            return accuracy;
+        }
+
+        /**
+         * 
+         * @return the fraction of the test data the compacted forest predicts
+         *         right
+         */
+        public float getCompactAccuracy() {
+            return compactAccuracy;
+        }
+
+        /**
+         * 
+         * @return the compacted forest's accuracy minus the forest's
+         */
+        public float getAccuracyDelta() {
+            return compactAccuracy - accuracy;
+        }
+
+        /**
+         * 
+         * @return the fraction of the test data whose most likely class
+         *         changed
+         */
+        public float getChangedPredictions() {
+            return changedPredictions;
+        }
+
+        /**
+         * 
+         * @return the largest difference of a class probability of a row
+         */
+        public float getMaxProbabilityError() {
+            return maxProbabilityError;
+        }
+
+        /**
+         * 
+         * @return the estimated heap bytes of the forest's nodes, histograms
+         *         and decisions
+         */
+        public long getNodeBytes() {
+            return nodeBytes;
+        }
+
+        /**
+         * @see CompactForest#sizeInBytes()
+         */
+        public long getCompactBytes() {
+            return compactBytes;
+        }
+
+        public int getNLeaves() {
+            return nLeaves;
+        }
+
+        /**
+         * @see CompactForest#nDistributions()
+         */
+        public int getNDistributions() {
+            return nDistributions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "accuracy %.4f -> %.4f (%+.4f), %.4f of predictions changed, max probability error %.5f, "
+                            + "%d -> %d bytes, %d leaves -> %d distributions",
+                    accuracy, compactAccuracy, getAccuracyDelta(), changedPredictions, maxProbabilityError,
+                    nodeBytes, compactBytes, nLeaves, nDistributions);
+        }
+    }
+}
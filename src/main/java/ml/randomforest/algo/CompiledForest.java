@@ -0,0 +1,492 @@
+package ml.randomforest.algo;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.ThresholdDecision;
+
+/**
+ * A trained forest frozen into flat arrays for inference. The split nodes of
+ * all trees are numbered in pre-order and stored as parallel arrays (feature,
+ * threshold, left and right child), and the normalized distributions of all
+ * leaves share one float[]. A child reference c >= 0 is a split node, c < 0 is
+ * the leaf ~c. Classification walks these arrays iteratively and writes into a
+ * caller supplied buffer, so it does not allocate.
+ * 
+ * Decisions implementing {@link ThresholdDecision} are stored as (feature,
+ * threshold); any other parameter set is kept as is and evaluated through
+ * {@link ParameterSet#evaluateDecision(DataPoint)}.
+ */
+public class CompiledForest {
+
+    static final int CUSTOM = -1;
+
+    // rows scored together against one tree before moving to the next tree
+    static final int BLOCK_SIZE = 256;
+
+    final int nClasses;
+    final int[] roots;
+    final int[] feature;
+    final float[] threshold;
+    final int[] left;
+    final int[] right;
+    final ParameterSet[] params;
+    final float[] leafDistributions;
+
+    CompiledForest(int nClasses, int[] roots, int[] feature, float[] threshold, int[] left, int[] right,
+            ParameterSet[] params, float[] leafDistributions) {
+        this.nClasses = nClasses;
+        this.roots = roots;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.left = left;
+        this.right = right;
+        this.params = params;
+        this.leafDistributions = leafDistributions;
+    }
+
+    /**
+     * 
+     * @param forest
+     *            an array of the decision tree root nodes
+     * @return the compiled forest
+     */
+    public static CompiledForest compile(DecisionTreeNode[] forest) {
+        int nClasses = forest[0].getHistogram().length;
+        int nNodes = 0, nLeaves = 0;
+        boolean custom = false;
+        for (DecisionTreeNode tree : forest) {
+            int[] counts = count(tree);
+            nNodes += counts[0];
+            nLeaves += counts[1];
+            custom |= counts[2] > 0;
+        }
+        Compiler compiler = new Compiler(nClasses, nNodes, nLeaves, custom);
+        int[] roots = new int[forest.length];
+        for (int t = 0; t < forest.length; t++) {
+            roots[t] = compiler.add(forest[t]);
+        }
+        return new CompiledForest(nClasses, roots, compiler.feature, compiler.threshold, compiler.left,
+                compiler.right, compiler.params, compiler.leafDistributions);
+    }
+
+    // split nodes, leaves and custom (non threshold) split nodes under node
+    private static int[] count(DecisionTreeNode node) {
+        if (node.getParam() == null)
+            return new int[] { 0, 1, 0 };
+        int[] l = count(node.getLeft());
+        int[] r = count(node.getRight());
+        return new int[] { l[0] + r[0] + 1, l[1] + r[1],
+                l[2] + r[2] + (node.getParam() instanceof ThresholdDecision ? 0 : 1) };
+    }
+
+    private static class Compiler {
+        final int nClasses;
+        final int[] feature;
+        final float[] threshold;
+        final int[] left;
+        final int[] right;
+        final ParameterSet[] params;
+        final float[] leafDistributions;
+        int nNodes, nLeaves;
+
+        Compiler(int nClasses, int nNodes, int nLeaves, boolean custom) {
+            this.nClasses = nClasses;
+            feature = new int[nNodes];
+            threshold = new float[nNodes];
+            left = new int[nNodes];
+            right = new int[nNodes];
+            params = custom ? new ParameterSet[nNodes] : null;
+            leafDistributions = new float[nLeaves * nClasses];
+        }
+
+        int add(DecisionTreeNode node) {
+            ParameterSet param = node.getParam();
+            if (param == null) {
+                float[] dist = node.getDistribution();
+                if (dist != null)
+                    System.arraycopy(dist, 0, leafDistributions, nLeaves * nClasses, nClasses);
+                return ~nLeaves++;
+            }
+            int n = nNodes++;
+            if (param instanceof ThresholdDecision) {
+                feature[n] = ((ThresholdDecision) param).getAxis();
+                threshold[n] = ((ThresholdDecision) param).getThreshold();
+            } else {
+                feature[n] = CUSTOM;
+                params[n] = param;
+            }
+            left[n] = add(node.getLeft());
+            right[n] = add(node.getRight());
+            return n;
+        }
+    }
+
+    public int nClasses() {
+        return nClasses;
+    }
+
+    public int nTrees() {
+        return roots.length;
+    }
+
+    /**
+     * 
+     * @return the number of split (non leaf) nodes of all trees
+     */
+    public int nNodes() {
+        return feature.length;
+    }
+
+    /**
+     * 
+     * @return the number of leaves of all trees
+     */
+    public int nLeaves() {
+        return leafDistributions.length / nClasses;
+    }
+
+    /**
+     * For {@link CompactForest} and {@link TabulatedForest}, which store a
+     * threshold as its index in a table per feature: the sorted distinct
+     * thresholds of each feature, with -0 taken as 0, as the decisions do.
+     * The nodes must all be threshold decisions.
+     * 
+     * @param nFeatures
+     *            one more than the highest feature of the nodes
+     * @return the thresholds of each feature, cuts[feature]
+     */
+    float[][] cuts(int nFeatures) {
+        float[][] cuts = new float[nFeatures][];
+        int[] counts = new int[nFeatures];
+        for (int n = 0; n < nNodes(); n++) {
+            counts[feature[n]]++;
+        }
+        for (int f = 0; f < nFeatures; f++) {
+            cuts[f] = new float[counts[f]];
+            counts[f] = 0;
+        }
+        for (int n = 0; n < nNodes(); n++) {
+            int f = feature[n];
+            cuts[f][counts[f]++] = threshold[n] + 0f;
+        }
+        for (int f = 0; f < nFeatures; f++) {
+            float[] sorted = cuts[f];
+            Arrays.sort(sorted);
+            int nDistinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (nDistinct == 0 || Float.compare(sorted[i], sorted[nDistinct - 1]) != 0)
+                    sorted[nDistinct++] = sorted[i];
+            }
+            cuts[f] = Arrays.copyOf(sorted, nDistinct);
+        }
+        return cuts;
+    }
+
+    /**
+     * 
+     * @param features
+     *            the features of the data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(float[] features, float[] p) {
+        classify(features, null, p);
+    }
+
+    /**
+     * Gives exactly the same result as
+     * {@link RandomForest#classify(DataPoint, DecisionTreeNode[])} on the
+     * forest this was compiled from.
+     * 
+     * @param dataPoint
+     *            the data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(DataPoint dataPoint, float[] p) {
+        classify(dataPoint.getFeatures(), dataPoint, p);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the data to test
+     * @param row
+     *            the row of data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(FeatureMatrix data, int row, float[] p) {
+        Arrays.fill(p, 0, nClasses, 0f);
+        for (int t = 0; t < roots.length; t++) {
+            int offset = leafOffset(t, data, row);
+            for (int c = 0; c < nClasses; c++) {
+                p[c] += leafDistributions[offset + c];
+            }
+        }
+        for (int c = 0; c < nClasses; c++) {
+            p[c] = p[c] / roots.length;
+        }
+    }
+
+    /**
+     * Classifies many rows at once. Rows are split into blocks which are
+     * scored in parallel, and within a block all rows go through one tree
+     * before the next, so each tree stays in cache. The results are exactly
+     * the same as classifying each row on its own.
+     * 
+     * @param rows
+     *            the features of the data to test, one array per row
+     * @param p
+     *            receives the distribution mass function of each row,
+     *            p[row][class]
+     */
+    public void classifyBatch(float[][] rows, float[][] p) {
+        IntStream.range(0, (rows.length + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel().forEach(b -> {
+            int lowInclusive = b * BLOCK_SIZE, hiExclusive = Math.min(rows.length, lowInclusive + BLOCK_SIZE);
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                Arrays.fill(p[i], 0, nClasses, 0f);
+            }
+            for (int t = 0; t < roots.length; t++) {
+                for (int i = lowInclusive; i < hiExclusive; i++) {
+                    int offset = leafOffset(t, rows[i], null);
+                    for (int c = 0; c < nClasses; c++) {
+                        p[i][c] += leafDistributions[offset + c];
+                    }
+                }
+            }
+            normalize(p, lowInclusive, hiExclusive);
+        });
+    }
+
+    /**
+     * @see #classifyBatch(float[][], float[][])
+     * @param data
+     *            the data to test
+     * @param p
+     *            receives the distribution mass function of each row,
+     *            p[row][class]
+     */
+    public void classifyBatch(FeatureMatrix data, float[][] p) {
+        IntStream.range(0, (data.nRows() + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel().forEach(b -> {
+            int lowInclusive = b * BLOCK_SIZE, hiExclusive = Math.min(data.nRows(), lowInclusive + BLOCK_SIZE);
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                Arrays.fill(p[i], 0, nClasses, 0f);
+            }
+            for (int t = 0; t < roots.length; t++) {
+                for (int i = lowInclusive; i < hiExclusive; i++) {
+                    int offset = leafOffset(t, data, i);
+                    for (int c = 0; c < nClasses; c++) {
+                        p[i][c] += leafDistributions[offset + c];
+                    }
+                }
+            }
+            normalize(p, lowInclusive, hiExclusive);
+        });
+    }
+
+    /**
+     * Classifies with as few trees as settle the most likely class, taking
+     * them in order: it stops once the class leading the distribution so far
+     * can no longer be overtaken by the trees left, each of which adds at
+     * most 1 to any class, or, if delta > 0, once it leads by enough for a
+     * Hoeffding bound (for sampling trees without replacement) to tell that
+     * all trees would make it the most likely class but with probability
+     * delta. The bound takes the trees evaluated for a random sample of the
+     * forest, as bootstrap trees in training order are; the first trees of
+     * {@link #treeOrderByAccuracy(FeatureMatrix)} agree more than a random
+     * sample does, so in that order it holds only approximately.
+     * 
+     * @param features
+     *            the features of the data to test
+     * @param p
+     *            receives the distribution mass function of the trees
+     *            evaluated, at least nClasses long
+     * @param delta
+     *            the probability allowed of stopping at another most likely
+     *            class than all trees give, 0 to only stop when it cannot be
+     *            another
+     * @return the number of trees evaluated, the first ones
+     */
+    public int classifyEarlyExit(float[] features, float[] p, float delta) {
+        double bound = bound(delta);
+        Arrays.fill(p, 0, nClasses, 0f);
+        int k = 0;
+        while (k < roots.length) {
+            int offset = leafOffset(k++, features, null);
+            for (int c = 0; c < nClasses; c++) {
+                p[c] += leafDistributions[offset + c];
+            }
+            if (settled(p, k, bound))
+                break;
+        }
+        for (int c = 0; c < nClasses; c++) {
+            p[c] = p[c] / k;
+        }
+        return k;
+    }
+
+    /**
+     * @see #classifyEarlyExit(float[], float[], float)
+     * @param data
+     *            the data to test
+     * @param row
+     *            the row of data to test
+     */
+    public int classifyEarlyExit(FeatureMatrix data, int row, float[] p, float delta) {
+        double bound = bound(delta);
+        Arrays.fill(p, 0, nClasses, 0f);
+        int k = 0;
+        while (k < roots.length) {
+            int offset = leafOffset(k++, data, row);
+            for (int c = 0; c < nClasses; c++) {
+                p[c] += leafDistributions[offset + c];
+            }
+            if (settled(p, k, bound))
+                break;
+        }
+        for (int c = 0; c < nClasses; c++) {
+            p[c] = p[c] / k;
+        }
+        return k;
+    }
+
+    // 2 log(1 / delta) of the Hoeffding bound, infinite for delta 0
+    private static double bound(float delta) {
+        if (!(delta >= 0 && delta < 1))
+            throw new IllegalArgumentException("expected a delta in [0, 1), got " + delta);
+        return 2 * Math.log(1 / (double) delta);
+    }
+
+    /**
+     * 
+     * @return whether the leading class of the sums of the first k trees'
+     *         distributions is settled: when the runner-up's sum is behind by
+     *         more than the trees left, or the mean of the k trees' margins,
+     *         each in [-1, 1], is above the Hoeffding-Serfling bound
+     *         sqrt(2 log(1 / delta) (1 - (k - 1) / nTrees) / k)
+     */
+    private boolean settled(float[] sums, int k, double bound) {
+        float first = Float.NEGATIVE_INFINITY, second = 0;
+        for (int c = 0; c < nClasses; c++) {
+            if (sums[c] > first) {
+                second = first;
+                first = sums[c];
+            } else if (sums[c] > second) {
+                second = sums[c];
+            }
+        }
+        float margin = first - Math.max(second, 0);
+        int nLeft = roots.length - k;
+        if (margin > nLeft)
+            return true;
+        return margin * margin > bound * k * (1 - (k - 1.0) / roots.length);
+    }
+
+    /**
+     * 
+     * @param order
+     *            the numbers of the trees, in the order to evaluate them in
+     * @return this forest with its trees in that order, sharing its nodes
+     */
+    public CompiledForest inTreeOrder(int[] order) {
+        if (order.length != roots.length)
+            throw new IllegalArgumentException("expected an order of " + roots.length + " trees, got " + order.length);
+        int[] ordered = new int[order.length];
+        boolean[] seen = new boolean[order.length];
+        for (int i = 0; i < order.length; i++) {
+            if (seen[order[i]])
+                throw new IllegalArgumentException("tree " + order[i] + " twice in the order");
+            seen[order[i]] = true;
+            ordered[i] = roots[order[i]];
+        }
+        return new CompiledForest(nClasses, ordered, feature, threshold, left, right, params, leafDistributions);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the validation data, with their labels
+     * @return the numbers of the trees, the ones predicting data the best
+     *         first, for {@link #inTreeOrder(int[])}
+     */
+    public int[] treeOrderByAccuracy(FeatureMatrix data) {
+        int[] nRight = new int[roots.length];
+        IntStream.range(0, roots.length).parallel().forEach(t -> {
+            for (int i = 0; i < data.nRows(); i++) {
+                int offset = leafOffset(t, data, i);
+                int predicted = 0;
+                for (int c = 1; c < nClasses; c++) {
+                    if (leafDistributions[offset + c] > leafDistributions[offset + predicted])
+                        predicted = c;
+                }
+                nRight[t] += predicted == data.getLabel(i) ? 1 : 0;
+            }
+        });
+        return IntStream.range(0, roots.length).boxed().sorted((a, b) -> Integer.compare(nRight[b], nRight[a]))
+                .mapToInt(Integer::intValue).toArray();
+    }
+
+    private void normalize(float[][] p, int lowInclusive, int hiExclusive) {
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            for (int c = 0; c < nClasses; c++) {
+                p[i][c] = p[i][c] / roots.length;
+            }
+        }
+    }
+
+    private void classify(float[] features, DataPoint dataPoint, float[] p) {
+        Arrays.fill(p, 0, nClasses, 0f);
+        for (int t = 0; t < roots.length; t++) {
+            int offset = leafOffset(t, features, dataPoint);
+            for (int c = 0; c < nClasses; c++) {
+                p[c] += leafDistributions[offset + c];
+            }
+        }
+        for (int c = 0; c < nClasses; c++) {
+            p[c] = p[c] / roots.length;
+        }
+    }
+
+    /**
+     * 
+     * @return the offset in leafDistributions of the leaf of tree t the data
+     *         ends up in. dataPoint may be null, it is only needed (and
+     *         created from features if missing) for custom split nodes.
+     */
+    int leafOffset(int t, float[] features, DataPoint dataPoint) {
+        int n = roots[t];
+        while (n >= 0) {
+            int f = feature[n];
+            boolean goLeft;
+            if (f != CUSTOM) {
+                goLeft = features[f] < threshold[n];
+            } else {
+                if (dataPoint == null)
+                    dataPoint = new DataPoint(features);
+                goLeft = params[n].evaluateDecision(dataPoint);
+            }
+            n = goLeft ? left[n] : right[n];
+        }
+        return ~n * nClasses;
+    }
+
+    int leafOffset(int t, FeatureMatrix data, int row) {
+        int n = roots[t];
+        while (n >= 0) {
+            int f = feature[n];
+            boolean goLeft = f != CUSTOM ? data.getFeature(row, f) < threshold[n]
+                    : params[n].evaluateDecision(data, row);
+            n = goLeft ? left[n] : right[n];
+        }
+        return ~n * nClasses;
+    }
+}
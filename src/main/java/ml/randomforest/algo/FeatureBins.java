@@ -0,0 +1,211 @@
+package ml.randomforest.algo;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ml.randomforest.model.FeatureMatrix;
+
+/**
+ * Every feature of a data set quantized into at most 256 bins, computed once
+ * per forest and shared read-only by all its trees. The bins of feature f are
+ * separated by the ascending cut points cuts[f]: a value x falls into bin b,
+ * the number of cut points <= x, so that x < cuts[f][b] exactly when its bin
+ * is at most b. Splitting after bin b is therefore the decision
+ * feature < cuts[f][b].
+ */
+final class FeatureBins {
+
+    final float[][] cuts;
+    // bins[f][row], an unsigned byte
+    final byte[][] bins;
+    final int nClasses;
+    // offset of feature f in a per node bin x class count table
+    final int[] tableOffset;
+    final int tableSize;
+
+    private FeatureBins(float[][] cuts, byte[][] bins, int nClasses) {
+        this.cuts = cuts;
+        this.bins = bins;
+        this.nClasses = nClasses;
+        tableOffset = new int[cuts.length];
+        int size = 0;
+        for (int f = 0; f < cuts.length; f++) {
+            tableOffset[f] = size;
+            size += nBins(f) * nClasses;
+        }
+        tableSize = size;
+    }
+
+    /**
+     * 
+     * @param data
+     *            the data set to quantize
+     * @param nClasses
+     *            the number of classes, to lay out the count tables
+     * @param maxBins
+     *            the maximum number of bins per feature, at most 256
+     * @return the binned features
+     */
+    static FeatureBins of(FeatureMatrix data, int nClasses, int maxBins) {
+        float[][] cuts = new float[data.nFeatures()][];
+        byte[][] bins = new byte[data.nFeatures()][];
+        IntStream.range(0, data.nFeatures()).parallel().forEach(f -> {
+            float[] column = new float[data.nRows()];
+            for (int row = 0; row < column.length; row++) {
+                column[row] = data.getFeature(row, f);
+            }
+            bins[f] = new byte[column.length];
+            float[] sorted = column.clone();
+            Arrays.sort(sorted);
+            cuts[f] = cuts(sorted, maxBins);
+            for (int row = 0; row < column.length; row++) {
+                bins[f][row] = (byte) bin(cuts[f], column[row]);
+            }
+        });
+        return new FeatureBins(cuts, bins, nClasses);
+    }
+
+    int nFeatures() {
+        return cuts.length;
+    }
+
+    int nBins(int f) {
+        return cuts[f].length + 1;
+    }
+
+    int bin(int f, int row) {
+        return bins[f][row] & 0xFF;
+    }
+
+    /**
+     * Adds the rows of the tree's index[lowInclusive, hiExclusive) to a
+     * feature x bin x class count table, in one pass over the rows.
+     */
+    void count(int[] table, TrainingContext context, int lowInclusive, int hiExclusive) {
+        context.rowsScanned += hiExclusive - lowInclusive;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            int row = context.index[i];
+            int label = context.data.getLabel(row);
+            int weight = context.weight(row);
+            for (int f = 0; f < bins.length; f++) {
+                table[tableOffset[f] + (bins[f][row] & 0xFF) * nClasses + label] += weight;
+            }
+        }
+    }
+
+    /**
+     * Adds every row of the tree's index whose open node nodeOf[i] is in
+     * [fromNode, toNode) to that node's count table tables[nodeOf[i]], if it
+     * has one, in one pass over the rows, @see LevelWiseTree
+     */
+    void count(int[][] tables, TrainingContext context, int[] nodeOf, int fromNode, int toNode) {
+        int[] index = context.index;
+        long rowsScanned = 0;
+        for (int i = 0; i < index.length; i++) {
+            int node = nodeOf[i];
+            if (node < fromNode || node >= toNode || tables[node] == null)
+                continue;
+            int[] table = tables[node];
+            int row = index[i];
+            int label = context.data.getLabel(row);
+            int weight = context.weight(row);
+            for (int f = 0; f < bins.length; f++) {
+                table[tableOffset[f] + (bins[f][row] & 0xFF) * nClasses + label] += weight;
+            }
+            rowsScanned++;
+        }
+        context.rowsScanned += rowsScanned;
+    }
+
+    /**
+     * Adds up the class counts of a count table, which every feature holds.
+     */
+    void classCounts(int[] table, int[] hist) {
+        for (int offset = 0, end = nBins(0) * nClasses; offset < end; offset += nClasses) {
+            for (int c = 0; c < nClasses; c++) {
+                hist[c] += table[offset + c];
+            }
+        }
+    }
+
+    /**
+     * Moves the rows of index[lowInclusive, hiExclusive) with feature f in
+     * bin b or lower to the front.
+     * 
+     * @return the first position of the rows after bin b
+     */
+    int partition(int[] index, int lowInclusive, int hiExclusive, int f, int b) {
+        byte[] column = bins[f];
+        int p = lowInclusive;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            if ((column[index[i]] & 0xFF) <= b) {
+                int tmp = index[p];
+                index[p] = index[i];
+                index[i] = tmp;
+                p++;
+            }
+        }
+        return p;
+    }
+
+    // The number of cuts <= x; NaN, which never goes left, is in the last bin
+    static int bin(float[] cuts, float x) {
+        if (Float.isNaN(x))
+            return cuts.length;
+        int lo = 0, hi = cuts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cuts[mid] <= x)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Cut points half way between distinct values, at equal frequency
+    // quantiles when there are more distinct values than bins
+    static float[] cuts(float[] sorted, int maxBins) {
+        int n = sorted.length;
+        while (n > 0 && Float.isNaN(sorted[n - 1]))
+            n--;
+        float[] cuts = new float[maxBins - 1];
+        int nCuts = 0;
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                distinct++;
+        }
+        if (distinct <= maxBins) {
+            for (int i = 1; i < n; i++) {
+                if (sorted[i] != sorted[i - 1])
+                    cuts[nCuts++] = between(sorted[i - 1], sorted[i]);
+            }
+        } else {
+            for (int k = 1; k < maxBins; k++) {
+                float upper = sorted[(int) ((long) k * n / maxBins)];
+                // the largest value below upper
+                int lo = 0, hi = n;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (sorted[mid] < upper)
+                        lo = mid + 1;
+                    else
+                        hi = mid;
+                }
+                if (lo == 0)
+                    continue;
+                float cut = between(sorted[lo - 1], upper);
+                if (nCuts == 0 || cut > cuts[nCuts - 1])
+                    cuts[nCuts++] = cut;
+            }
+        }
+        return Arrays.copyOf(cuts, nCuts);
+    }
+
+    // A cut c with a < c <= b
+    static float between(float a, float b) {
+        float c = a + (b - a) / 2;
+        return c > a && c <= b ? c : b;
+    }
+}
@@ -0,0 +1,116 @@
+package ml.randomforest.algo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.ParameterSetCodec;
+
+/**
+ * The binary file format of a trained forest, laid out like a
+ * {@link CompiledForest} so that {@link MappedForest} can classify straight
+ * from the mapped file. All numbers are big endian (Java's DataOutput order):
+ * 
+ * <pre>
+ * int magic, int version
+ * int nClasses, int nTrees, int nNodes, int nLeaves, int nCodecs, int nCustom
+ * int root[nTrees]
+ * nNodes node records of 16 bytes, in pre-order of each tree:
+ *     int feature, float threshold, int left, int right
+ * float leafDistributions[nLeaves * nClasses]
+ * nCodecs codec names: UTF (DataOutput.writeUTF)
+ * nCustom custom nodes: int node, int codec, int length, byte[length]
+ * </pre>
+ * 
+ * A child c >= 0 is a node record, c < 0 the leaf ~c. A node with feature -1
+ * holds a parameter set other than a ThresholdDecision, written by the codec
+ * of that index in the custom section.
+ */
+public final class ForestFile {
+
+    static final int MAGIC = 0x52464F52; // "RFOR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8 * 4;
+    static final int NODE_BYTES = 16;
+
+    private ForestFile() {
+    }
+
+    /**
+     * 
+     * @param forest
+     *            an array of the decision tree root nodes
+     * @param file
+     *            the file to write
+     * @param codecs
+     *            the codecs of the parameter sets in forest which are not a
+     *            ThresholdDecision, if any
+     * @throws IllegalArgumentException
+     *             if no codec can encode one of them
+     */
+    public static void write(DecisionTreeNode[] forest, File file, ParameterSetCodec... codecs)
+            throws IOException {
+        CompiledForest compiled = CompiledForest.compile(forest);
+        int nCustom = 0;
+        int[] codec = new int[compiled.nNodes()];
+        for (int n = 0; n < compiled.nNodes(); n++) {
+            if (compiled.feature[n] == CompiledForest.CUSTOM) {
+                codec[n] = codecOf(compiled.params[n], codecs);
+                nCustom++;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(compiled.nClasses());
+            out.writeInt(compiled.nTrees());
+            out.writeInt(compiled.nNodes());
+            out.writeInt(compiled.nLeaves());
+            out.writeInt(codecs.length);
+            out.writeInt(nCustom);
+            for (int root : compiled.roots) {
+                out.writeInt(root);
+            }
+            for (int n = 0; n < compiled.nNodes(); n++) {
+                out.writeInt(compiled.feature[n]);
+                out.writeFloat(compiled.threshold[n]);
+                out.writeInt(compiled.left[n]);
+                out.writeInt(compiled.right[n]);
+            }
+            for (float p : compiled.leafDistributions) {
+                out.writeFloat(p);
+            }
+            for (ParameterSetCodec c : codecs) {
+                out.writeUTF(c.getName());
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int n = 0; n < compiled.nNodes() && nCustom > 0; n++) {
+                if (compiled.feature[n] != CompiledForest.CUSTOM)
+                    continue;
+                bytes.reset();
+                DataOutputStream param = new DataOutputStream(bytes);
+                codecs[codec[n]].encode(compiled.params[n], param);
+                param.flush();
+                out.writeInt(n);
+                out.writeInt(codec[n]);
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+        }
+    }
+
+    private static int codecOf(ParameterSet param, ParameterSetCodec[] codecs) {
+        for (int i = 0; i < codecs.length; i++) {
+            if (codecs[i].canEncode(param))
+                return i;
+        }
+        throw new IllegalArgumentException("no codec for " + param.getClass().getName());
+    }
+}
@@ -0,0 +1,70 @@
+package ml.randomforest.algo;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The count tables of one tree in SplitMode.HISTOGRAM. A node's table is
+ * handed down to one child after subtracting the other child's counts, and
+ * the sibling waiting to be trained keeps its table meanwhile. The pool bounds
+ * how many tables are kept for children; once it is full, children count
+ * their rows from scratch instead. The bound is soft: acquire never fails,
+ * as a node needs a table to search in, so the nodes being searched at once
+ * can take the live tables beyond it. Released tables are reused.
+ */
+final class HistogramPool {
+
+    private final int tableSize;
+    private final int maxTables;
+    private final ArrayDeque<int[]> free = new ArrayDeque<>();
+    private int live;
+
+    /**
+     * 
+     * @param tableSize
+     *            the number of counts per table
+     * @param maxBytes
+     *            the memory the live tables may take, at least two tables are
+     *            always allowed
+     */
+    HistogramPool(int tableSize, long maxBytes) {
+        this.tableSize = tableSize;
+        this.maxTables = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytes / (4L * Math.max(1, tableSize))));
+    }
+
+    /**
+     * 
+     * @return a table of zero counts
+     */
+    synchronized int[] acquire() {
+        live++;
+        int[] table = free.poll();
+        if (table == null)
+            return new int[tableSize];
+        Arrays.fill(table, 0);
+        return table;
+    }
+
+    synchronized void release(int[] table) {
+        live--;
+        if (live + free.size() < maxTables)
+            free.push(table);
+    }
+
+    /**
+     * 
+     * @return whether one more table can be kept alive
+     */
+    synchronized boolean canRetain() {
+        return live < maxTables;
+    }
+
+    /**
+     * parent -= child
+     */
+    static void subtract(int[] parent, int[] child) {
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] -= child[i];
+        }
+    }
+}
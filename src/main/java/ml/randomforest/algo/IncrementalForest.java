@@ -0,0 +1,422 @@
+package ml.randomforest.algo;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * A trained forest that keeps learning from labeled data as it arrives,
+ * instead of being retrained on all of it. Each update routes the new data
+ * points down every tree and adds them to the class counts of the nodes they
+ * reach, after scaling the counts seen before by TrainingOptions#decay(). The
+ * leaves' counts are rounded up or down at random, in proportion to the
+ * fraction, so that counts of data no longer seen reach 0, and the nodes above
+ * take the sums of their children's. Each leaf keeps a uniform sample of the
+ * data points reaching it, of TrainingOptions#reservoirSize(), and is grown
+ * into a subtree trained on that sample once it has seen as many new ones and
+ * is no longer a leaf by TrainingOptions#minDataSizePerNode() or
+ * treeMaxDepth(). The subtree's counts are scaled from the sample's to the
+ * leaf's, so that a node's counts remain the sum of its children's. Trees
+ * predicting the data they are updated with the worst can be replaced by trees
+ * trained in the background on a sample of all data seen,
+ * {@link #replaceWorstTrees(int, Executor)}.
+ * 
+ * Readers classify with the forest of the last update while the next one is
+ * applied: an update never modifies a node readers can reach. It copies the
+ * nodes the new data reaches, and with decay all nodes, updates the copies
+ * and publishes the new roots at once: with decay, an update takes time and
+ * garbage in the size of the forest however few data points it adds, so the
+ * data had better come in batches. Updates and replacements of trees are
+ * applied one at a time.
+ */
+public class IncrementalForest {
+
+    private final Learner learner;
+    private final TrainingOptions trainingOption;
+    private final int nClasses;
+    // the forest readers classify with, never modified once published
+    private volatile DecisionTreeNode[] forest;
+
+    // the updates' state, guarded by this: the number of each tree for its
+    // seeds, @see TrainingContext#forTree(int), the number of the next tree
+    // trained, the sample of the data reaching each leaf reached so far and
+    // of all data, and the (decayed) counts of the data each tree was
+    // updated with and predicted right
+    private final int[] treeNumbers;
+    private int nextTree;
+    private final Map<DecisionTreeNode, Reservoir> leaves = new IdentityHashMap<>();
+    private final Reservoir history;
+    private final double[] nSeen;
+    private final double[] nCorrect;
+    private final SplittableRandom random;
+
+    /**
+     * 
+     * @param forest
+     *            the trained trees, which are not modified nor copied
+     * @param learner
+     *            the learner the trees were trained with
+     * @param trainingOption
+     *            the options the trees were trained with, and the decay and
+     *            reservoir size of the updates
+     */
+    public IncrementalForest(DecisionTreeNode[] forest, Learner learner, TrainingOptions trainingOption) {
+        if (forest.length == 0)
+            throw new IllegalArgumentException("no trees to update");
+        this.learner = learner;
+        this.trainingOption = trainingOption;
+        this.nClasses = learner.nClasses();
+        for (DecisionTreeNode tree : forest) {
+            if (tree.getHistogram().length != nClasses)
+                throw new IllegalArgumentException(
+                        "expected trees of " + nClasses + " classes, got " + tree.getHistogram().length);
+        }
+        this.forest = forest.clone();
+        this.treeNumbers = new int[forest.length];
+        for (int t = 0; t < forest.length; t++) {
+            treeNumbers[t] = t;
+        }
+        this.nextTree = forest.length;
+        this.history = new Reservoir(trainingOption.reservoirSize() * forest.length);
+        this.nSeen = new double[forest.length];
+        this.nCorrect = new double[forest.length];
+        this.random = new SplittableRandom(trainingOption.seed());
+    }
+
+    /**
+     * 
+     * @return the trees as of the last update, which are never modified
+     */
+    public DecisionTreeNode[] getForest() {
+        return forest.clone();
+    }
+
+    /**
+     * 
+     * @return the distribution mass function of the forest as of the last
+     *         update, @see RandomForest#classify(DataPoint, DecisionTreeNode[]),
+     *         averaged over the trees whose leaf has counts left after decay,
+     *         all 0 if none has
+     */
+    public float[] classify(DataPoint dataPoint) {
+        DecisionTreeNode[] trees = forest;
+        float[] p = new float[nClasses];
+        int nTrees = 0;
+        for (DecisionTreeNode tree : trees) {
+            float[] pt = RandomDecisionTree.classify(dataPoint, tree);
+            if (pt == null)
+                continue;
+            for (int c = 0; c < nClasses; c++) {
+                p[c] += pt[c];
+            }
+            nTrees++;
+        }
+        for (int c = 0; c < nClasses && nTrees > 0; c++) {
+            p[c] = p[c] / nTrees;
+        }
+        return p;
+    }
+
+    /**
+     * 
+     * @return the (decayed) fraction of the data tree was updated with that it
+     *         predicted right before, NaN if none yet
+     */
+    public synchronized float getAccuracy(int tree) {
+        return nSeen[tree] > 0 ? (float) (nCorrect[tree] / nSeen[tree]) : Float.NaN;
+    }
+
+    /**
+     * Adds labeled data points to the counts of the nodes they reach in every
+     * tree, and grows the leaves which have seen enough new data.
+     * 
+     * @param points
+     *            the new data, with their labels
+     */
+    public synchronized void update(DataPoint[] points) {
+        for (int i = 0; i < points.length; i++) {
+            if (points[i].getLabel() < 0 || points[i].getLabel() >= nClasses)
+                throw new IllegalArgumentException(
+                        "data point " + i + " has label " + points[i].getLabel() + ", expected 0 to " + (nClasses - 1));
+        }
+        DecisionTreeNode[] next = forest.clone();
+        float decay = trainingOption.decay();
+        for (int t = 0; t < next.length; t++) {
+            nSeen[t] *= decay;
+            nCorrect[t] *= decay;
+            int[] which = RandomDecisionTree.identityPermutation(points.length);
+            next[t] = update(t, next[t], 1, TrainingContext.rootSeed(trainingOption.seed(), treeNumbers[t]),
+                    points, which, 0, points.length);
+        }
+        history.decay(decay);
+        for (DataPoint point : points) {
+            history.add(point, random);
+        }
+        forest = next;
+    }
+
+    /**
+     * 
+     * @param seed
+     *            the seed of the node, to grow it from, @see
+     *            TrainingContext#childSeed(long, boolean)
+     * @return the node with points[which[lowInclusive, hiExclusive)] added,
+     *         a copy unless nothing changed
+     */
+    private DecisionTreeNode update(int t, DecisionTreeNode node, int depth, long seed, DataPoint[] points,
+            int[] which, int lowInclusive, int hiExclusive) {
+        float decay = trainingOption.decay();
+        if (lowInclusive == hiExclusive && decay == 1f)
+            return node;
+        DecisionTreeNode copy = new DecisionTreeNode(nClasses);
+        int[] hist = copy.getHistogram();
+        ParameterSet param = node.getParam();
+        if (param != null) {
+            int p = lowInclusive;
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                if (param.evaluateDecision(points[which[i]])) {
+                    int tmp = which[p];
+                    which[p] = which[i];
+                    which[i] = tmp;
+                    p++;
+                }
+            }
+            copy.setParam(param);
+            copy.setLeft(update(t, node.getLeft(), depth + 1, TrainingContext.childSeed(seed, true), points, which,
+                    lowInclusive, p));
+            copy.setRight(update(t, node.getRight(), depth + 1, TrainingContext.childSeed(seed, false), points,
+                    which, p, hiExclusive));
+            for (int c = 0; c < nClasses; c++) {
+                hist[c] = copy.getLeft().getHistogram()[c] + copy.getRight().getHistogram()[c];
+            }
+            copy.setNTotal(RandomDecisionTree.sum(hist));
+            return copy;
+        }
+
+        for (int c = 0; c < nClasses; c++) {
+            hist[c] = decay(node.getHistogram()[c], decay);
+        }
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            hist[points[which[i]].getLabel()]++;
+        }
+        copy.setNTotal(RandomDecisionTree.sum(hist));
+
+        // score the tree's prediction of the new data, then sample it
+        int predicted = node.getNTotal() > 0 ? argMax(node.getHistogram()) : -1;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            nSeen[t]++;
+            if (points[which[i]].getLabel() == predicted)
+                nCorrect[t]++;
+        }
+        Reservoir reservoir = leaves.remove(node);
+        if (reservoir == null && lowInclusive == hiExclusive)
+            return copy;
+        if (reservoir == null)
+            reservoir = new Reservoir(trainingOption.reservoirSize());
+        reservoir.decay(decay);
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            reservoir.add(points[which[i]], random);
+        }
+        if (reservoir.nNew >= reservoir.capacity
+                && RandomDecisionTree.stopReason(trainingOption, depth, copy.getNTotal()) == null) {
+            reservoir.nNew = 0;
+            DecisionTreeNode grown = grow(t, depth, seed, reservoir);
+            if (grown.getParam() != null && rescale(grown, grown.getHistogram().clone(), hist)) {
+                copy.setParam(grown.getParam());
+                copy.setLeft(grown.getLeft());
+                copy.setRight(grown.getRight());
+                return copy;
+            }
+        }
+        leaves.put(copy, reservoir);
+        return copy;
+    }
+
+    // count scaled by decay, rounded up with a probability of the fraction
+    private int decay(int count, float decay) {
+        double decayed = count * (double) decay;
+        int rounded = (int) decayed;
+        if (rounded == decayed)
+            return rounded;
+        return random.nextDouble() < decayed - rounded ? rounded + 1 : rounded;
+    }
+
+    // a subtree trained on the sample of a leaf at depth, as the leaf's own
+    // subtree would have been
+    private DecisionTreeNode grow(int t, int depth, long seed, Reservoir reservoir) {
+        FeatureMatrix data = TrainingContext.matrix(Arrays.copyOf(reservoir.points, reservoir.size), learner);
+        TrainingContext context = TrainingContext.prepare(data, learner, trainingOption, false)
+                .forTree(treeNumbers[t]);
+        return RandomDecisionTree.trainClassifier(context, depth, seed, 0, context.index.length, null, null);
+    }
+
+    /**
+     * Scales the counts of a subtree grown on a sample to those of the leaf it
+     * grows from, so that each node's counts stay the sum of its children's:
+     * each class count of a node is shared out between its children in the
+     * proportion of their sample counts of the class, or of all their sample
+     * counts if the sample has none of it.
+     * 
+     * @param sampleHist
+     *            the node's counts of the sample
+     * @param hist
+     *            the node's counts to scale to
+     * @return false if a node would be left without counts
+     */
+    private static boolean rescale(DecisionTreeNode node, int[] sampleHist, int[] hist) {
+        System.arraycopy(hist, 0, node.getHistogram(), 0, hist.length);
+        node.setNTotal(RandomDecisionTree.sum(hist));
+        if (node.getNTotal() == 0)
+            return false;
+        if (node.getParam() == null)
+            return true;
+        int[] leftSample = node.getLeft().getHistogram().clone();
+        int[] rightSample = node.getRight().getHistogram().clone();
+        int sampleTotal = RandomDecisionTree.sum(sampleHist);
+        int leftSampleTotal = RandomDecisionTree.sum(leftSample);
+        int[] left = new int[hist.length];
+        int[] right = new int[hist.length];
+        for (int c = 0; c < hist.length; c++) {
+            double share = sampleHist[c] > 0 ? (double) leftSample[c] / sampleHist[c]
+                    : (double) leftSampleTotal / sampleTotal;
+            left[c] = (int) Math.round(hist[c] * share);
+            right[c] = hist[c] - left[c];
+        }
+        return rescale(node.getLeft(), leftSample, left) && rescale(node.getRight(), rightSample, right);
+    }
+
+    /**
+     * Trains new trees, on the sample of all data seen so far, in place of the
+     * n trees which predicted the data they were updated with the worst.
+     * Readers and updates go on with the old trees until the new ones are
+     * trained; data coming in meanwhile only updates the old trees.
+     * 
+     * @param executor
+     *            the executor to train the trees on
+     * @return a future completing once the trees are replaced, at once if no
+     *         data was seen yet
+     */
+    public CompletableFuture<Void> replaceWorstTrees(int n, Executor executor) {
+        int[] worst;
+        int[] numbers;
+        DataPoint[] sample;
+        synchronized (this) {
+            if (history.size == 0)
+                return CompletableFuture.completedFuture(null);
+            worst = worstTrees(Math.min(n, forest.length));
+            numbers = new int[worst.length];
+            for (int i = 0; i < worst.length; i++) {
+                numbers[i] = nextTree++;
+            }
+            sample = Arrays.copyOf(history.points, history.size);
+        }
+        return CompletableFuture.runAsync(() -> {
+            TrainingContext context = TrainingContext.prepare(TrainingContext.matrix(sample, learner), learner,
+                    trainingOption, false);
+            DecisionTreeNode[] trees = new DecisionTreeNode[worst.length];
+            for (int i = 0; i < trees.length; i++) {
+                trees[i] = RandomDecisionTree.trainClassifier(context.forTree(numbers[i]));
+            }
+            replace(worst, numbers, trees);
+        }, executor);
+    }
+
+    // the n trees of the lowest accuracy, of those updated at all
+    private int[] worstTrees(int n) {
+        Integer[] trees = new Integer[forest.length];
+        for (int t = 0; t < trees.length; t++) {
+            trees[t] = t;
+        }
+        Arrays.sort(trees, (a, b) -> Double.compare(accuracy(a), accuracy(b)));
+        int[] worst = new int[n];
+        int nWorst = 0;
+        for (int i = 0; i < n && nSeen[trees[i]] > 0; i++) {
+            worst[nWorst++] = trees[i];
+        }
+        return Arrays.copyOf(worst, nWorst);
+    }
+
+    private double accuracy(int tree) {
+        return nSeen[tree] > 0 ? nCorrect[tree] / nSeen[tree] : Double.POSITIVE_INFINITY;
+    }
+
+    private synchronized void replace(int[] worst, int[] numbers, DecisionTreeNode[] trees) {
+        DecisionTreeNode[] next = forest.clone();
+        for (int i = 0; i < worst.length; i++) {
+            int t = worst[i];
+            forget(next[t]);
+            next[t] = trees[i];
+            treeNumbers[t] = numbers[i];
+            nSeen[t] = 0;
+            nCorrect[t] = 0;
+        }
+        forest = next;
+    }
+
+    // drops the samples of the leaves of a tree no longer updated
+    private void forget(DecisionTreeNode node) {
+        if (node.getParam() == null) {
+            leaves.remove(node);
+            return;
+        }
+        forget(node.getLeft());
+        forget(node.getRight());
+    }
+
+    private static int argMax(int[] hist) {
+        int best = 0;
+        for (int c = 1; c < hist.length; c++) {
+            if (hist[c] > hist[best])
+                best = c;
+        }
+        return best;
+    }
+
+    /**
+     * A uniform sample of the data points added, of a fixed size (reservoir
+     * sampling). With decay the count of the points added decays as well, so
+     * that newer points are more likely kept.
+     */
+    private static final class Reservoir {
+        final int capacity;
+        // grown as points are added, up to capacity
+        DataPoint[] points = new DataPoint[0];
+        int size;
+        // the (decayed) number of points added, and those added since the
+        // last attempt to grow the leaf
+        double nAdded;
+        int nNew;
+
+        Reservoir(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(DataPoint point, SplittableRandom random) {
+            nAdded++;
+            nNew++;
+            if (size < capacity) {
+                if (size == points.length)
+                    points = Arrays.copyOf(points, Math.min(capacity, Math.max(16, 2 * size)));
+                points[size++] = point;
+                return;
+            }
+            double j = random.nextDouble() * nAdded;
+            if (j < capacity)
+                points[(int) j] = point;
+        }
+
+        void decay(float decay) {
+            nAdded = Math.max(size, nAdded * decay);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package ml.randomforest.algo;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import ml.randomforest.algo.RandomDecisionTree.Split;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.SplitCriterion;
+import ml.randomforest.model.TrainingListener;
+import ml.randomforest.model.TrainingListener.StopReason;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * Grows a tree breadth-first, one depth at a time, @see
+ * TrainingOptions#levelWise(). Every row of the tree's sample is assigned to
+ * the open node it has reached, and the split search of all open nodes of a
+ * depth shares one sequential pass over the rows: in SplitMode.HISTOGRAM each
+ * row adds itself to its node's bin x class table, in SplitMode.RANDOM the
+ * pass groups the rows by node, still in ascending order, for each sampled
+ * decision to count its node's rows in one batch, @see
+ * ParameterSet#countDecisions. A second pass sends the rows on to the
+ * children. The tree's index is read in ascending row order and never
+ * reordered, so the data is streamed instead of gathered node by node. When
+ * the counts of all
+ * open nodes take more than TrainingOptions#histogramPoolBytes(), the nodes
+ * are searched in batches of one pass each.
+ */
+final class LevelWiseTree {
+
+    private LevelWiseTree() {
+    }
+
+    /**
+     * 
+     * @param context
+     *            the data, index and options to train with
+     * @return the decision tree root node
+     */
+    static DecisionTreeNode trainClassifier(TrainingContext context) {
+        FeatureMatrix data = context.data;
+        int[] index = context.index;
+        TrainingOptions trainingOption = context.trainingOption;
+        TrainingListener listener = context.listener;
+        int nClasses = context.learner.nClasses();
+
+        DecisionTreeNode root = new DecisionTreeNode(nClasses);
+        for (int row : index) {
+            root.getHistogram()[data.getLabel(row)] += context.weight(row);
+        }
+        root.setNTotal(RandomDecisionTree.sum(root.getHistogram()));
+        StopReason stop = RandomDecisionTree.stopReason(trainingOption, 1, root.getNTotal());
+        if (stop != null) {
+            if (listener != null)
+                listener.leaf(context.tree, 1, index.length, stop, 0, 0, 0);
+            return root;
+        }
+
+        // the open node of the row at each position of the index, -1 once
+        // the row has reached a leaf
+        int[] nodeOf = new int[index.length];
+        DecisionTreeNode[] open = { root };
+        int[] nRows = { index.length };
+        // the seed of each open node, the same as growing depth-first
+        long[] seeds = { context.rootSeed };
+        // in SplitMode.HISTOGRAM, the parent's table of the larger of two
+        // open siblings, to subtract the smaller sibling's counts from
+        int[][] tables = { null };
+        int[] sibling = { -1 };
+        for (int depth = 1; open.length > 0; depth++) {
+            long start = listener != null ? System.nanoTime() : 0;
+            int nLevelRows = RandomDecisionTree.sum(nRows);
+            long[] rowsScanned = new long[open.length];
+            long[] nCandidates = new long[open.length];
+            Split[] splits = context.bins != null
+                    ? histogramSplits(context, depth, open, seeds, tables, sibling, nodeOf, nRows, rowsScanned,
+                            nCandidates)
+                    : sampleSplits(context, open, seeds, nodeOf, nRows, rowsScanned, nCandidates);
+
+            long searched = listener != null ? System.nanoTime() : 0;
+            // the open node of the left and right child of node s at 2s and
+            // 2s + 1, -1 if the child is a leaf
+            int[] childSlot = new int[2 * open.length];
+            int nOpen = 0;
+            for (int s = 0; s < open.length; s++) {
+                Split split = splits[s];
+                if (split == null || split.gain <= trainingOption.minInformationGain()) {
+                    if (listener != null)
+                        listener.leaf(context.tree, depth, nRows[s],
+                                split == null ? StopReason.NO_SPLIT : StopReason.MIN_INFORMATION_GAIN,
+                                rowsScanned[s], nCandidates[s], share(searched - start, nRows[s], nLevelRows));
+                    splits[s] = null;
+                    continue;
+                }
+                DecisionTreeNode left = child(nClasses, split.leftHist);
+                DecisionTreeNode right = child(nClasses, split.rightHist);
+                open[s].setParam(split.param);
+                open[s].setLeft(left);
+                open[s].setRight(right);
+                childSlot[2 * s] = RandomDecisionTree.stopReason(trainingOption, depth + 1, left.getNTotal()) == null
+                        ? nOpen++ : -1;
+                childSlot[2 * s + 1] = RandomDecisionTree.stopReason(trainingOption, depth + 1,
+                        right.getNTotal()) == null ? nOpen++ : -1;
+            }
+
+            int[] childRows = new int[2 * open.length];
+            for (int i = 0; i < index.length; i++) {
+                int s = nodeOf[i];
+                if (s < 0)
+                    continue;
+                Split split = splits[s];
+                if (split == null) {
+                    nodeOf[i] = -1;
+                    continue;
+                }
+                int child = goesLeft(context, split, index[i]) ? 2 * s : 2 * s + 1;
+                childRows[child]++;
+                nodeOf[i] = childSlot[child];
+            }
+
+            long partitioned = listener != null ? System.nanoTime() : 0;
+            DecisionTreeNode[] next = new DecisionTreeNode[nOpen];
+            int[] nextRows = new int[nOpen];
+            long[] nextSeeds = new long[nOpen];
+            int[][] nextTables = new int[nOpen][];
+            int[] nextSibling = new int[nOpen];
+            Arrays.fill(nextSibling, -1);
+            for (int s = 0; s < open.length; s++) {
+                if (splits[s] == null)
+                    continue;
+                if (context.bins != null && tables[s] != null) {
+                    // count the smaller child's rows, derive the larger's
+                    boolean leftSmaller = childRows[2 * s] <= childRows[2 * s + 1];
+                    int smaller = childSlot[leftSmaller ? 2 * s : 2 * s + 1];
+                    int larger = childSlot[leftSmaller ? 2 * s + 1 : 2 * s];
+                    nextTables[larger] = tables[s];
+                    nextSibling[larger] = smaller;
+                }
+                if (listener != null)
+                    listener.nodeSplit(context.tree, depth, nRows[s], rowsScanned[s], nCandidates[s],
+                            share(searched - start, nRows[s], nLevelRows),
+                            share(partitioned - searched, nRows[s], nLevelRows));
+                for (int child = 2 * s; child <= 2 * s + 1; child++) {
+                    DecisionTreeNode node = child == 2 * s ? open[s].getLeft() : open[s].getRight();
+                    if (childSlot[child] >= 0) {
+                        next[childSlot[child]] = node;
+                        nextRows[childSlot[child]] = childRows[child];
+                        nextSeeds[childSlot[child]] = TrainingContext.childSeed(seeds[s], child == 2 * s);
+                    } else if (listener != null) {
+                        listener.leaf(context.tree, depth + 1, childRows[child],
+                                RandomDecisionTree.stopReason(trainingOption, depth + 1, node.getNTotal()), 0, 0, 0);
+                    }
+                }
+            }
+            open = next;
+            nRows = nextRows;
+            seeds = nextSeeds;
+            tables = nextTables;
+            sibling = nextSibling;
+        }
+        return root;
+    }
+
+    /**
+     * Groups the rows of the open nodes [fromNode, toNode) by node, in
+     * ascending order within each node, for the batch calls of the nodes'
+     * decisions.
+     * 
+     * @param index
+     *            the rows, null for the rows 0 to nodeOf.length - 1
+     * @param nodeOf
+     *            the open node of each row of index, -1 if none
+     * @param start
+     *            receives the start of the rows of node s at start[s -
+     *            fromNode], their end at start[s - fromNode + 1]
+     * @return the rows, grouped
+     */
+    static int[] groupByNode(int[] index, int[] nodeOf, int fromNode, int toNode, int[] start) {
+        Arrays.fill(start, 0);
+        for (int s : nodeOf) {
+            if (s >= fromNode && s < toNode)
+                start[s - fromNode + 1]++;
+        }
+        for (int s = 1; s < start.length; s++) {
+            start[s] += start[s - 1];
+        }
+        int[] rows = new int[start[start.length - 1]];
+        int[] next = Arrays.copyOf(start, start.length - 1);
+        for (int i = 0; i < nodeOf.length; i++) {
+            int s = nodeOf[i];
+            if (s >= fromNode && s < toNode)
+                rows[next[s - fromNode]++] = index != null ? index[i] : i;
+        }
+        return rows;
+    }
+
+    private static DecisionTreeNode child(int nClasses, int[] hist) {
+        DecisionTreeNode node = new DecisionTreeNode(nClasses);
+        System.arraycopy(hist, 0, node.getHistogram(), 0, nClasses);
+        node.setNTotal(RandomDecisionTree.sum(hist));
+        return node;
+    }
+
+    private static boolean goesLeft(TrainingContext context, Split split, int row) {
+        if (context.bins != null)
+            return context.bins.bin(split.axis, row) <= split.position;
+        return split.param.evaluateDecision(context.data, row);
+    }
+
+    // the nodes of a depth share its passes, each takes the part of their
+    // time matching its rows
+    private static long share(long nanos, int nRows, int nTotalRows) {
+        return (long) ((double) nanos * nRows / nTotalRows);
+    }
+
+    /**
+     * Counts the rows of as many open nodes into their bin x class tables in
+     * one pass as the tree's HistogramPool holds tables for, and scores them,
+     * @see RandomDecisionTree#histogramSplit(TrainingContext,
+     * SplittableRandom, DecisionTreeNode, float, int[]). A node given its parent's table
+     * instead, tables[s], subtracts its sibling's counts from it rather than
+     * counting its own rows. The table of a node that splits into two open
+     * children is kept in tables[s] as long as the pool has room, for the
+     * larger child, otherwise released.
+     * 
+     * @param sibling
+     *            the sibling to subtract from tables[s], -1 if s counts its
+     *            rows
+     */
+    private static Split[] histogramSplits(TrainingContext context, int depth, DecisionTreeNode[] open, long[] seeds,
+            int[][] tables, int[] sibling, int[] nodeOf, int[] nRows, long[] rowsScanned, long[] nCandidates) {
+        TrainingOptions trainingOption = context.trainingOption;
+        Split[] splits = new Split[open.length];
+        // the tables to count rows into, null for the derived ones
+        int[][] counted = new int[open.length][];
+        for (int from = 0, to; from < open.length; from = to) {
+            // derived nodes join the batch of the sibling they need
+            to = from;
+            do {
+                if (sibling[to] < 0)
+                    tables[to] = counted[to] = context.histograms.acquire();
+                to++;
+            } while (to < open.length && (sibling[to] >= 0 || sibling[to - 1] == to || context.histograms.canRetain()));
+            context.bins.count(counted, context, nodeOf, from, to);
+            for (int s = from; s < to; s++) {
+                if (sibling[s] >= 0)
+                    HistogramPool.subtract(tables[s], tables[sibling[s]]);
+            }
+            for (int s = from; s < to; s++) {
+                DecisionTreeNode node = open[s];
+                long candidates = context.nCandidates;
+                Split split = RandomDecisionTree.histogramSplit(context, new SplittableRandom(seeds[s]), node,
+                        trainingOption.splitCriterion().impurity(node.getHistogram(), node.getNTotal()), tables[s]);
+                splits[s] = split;
+                rowsScanned[s] = sibling[s] < 0 ? nRows[s] : 0;
+                nCandidates[s] = context.nCandidates - candidates;
+            }
+            for (int s = from; s < to; s++) {
+                Split split = splits[s];
+                boolean retain = split != null && split.gain > trainingOption.minInformationGain()
+                        && RandomDecisionTree.stopReason(trainingOption, depth + 1,
+                                RandomDecisionTree.sum(split.leftHist)) == null
+                        && RandomDecisionTree.stopReason(trainingOption, depth + 1,
+                                RandomDecisionTree.sum(split.rightHist)) == null
+                        && context.histograms.canRetain();
+                if (!retain) {
+                    context.release(tables[s]);
+                    tables[s] = null;
+                }
+                counted[s] = null;
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Draws nSample parameter sets for every open node and counts the classes
+     * of the rows each sends left, for as many nodes in one pass as their
+     * counts fit in TrainingOptions#histogramPoolBytes(). When the depth's rows
+     * are worth it, @see TrainingOptions#minParallelSearchCost(), the samples
+     * are split into stripes, each counted in its own pass on its own thread.
+     */
+    private static Split[] sampleSplits(TrainingContext context, DecisionTreeNode[] open, long[] seeds, int[] nodeOf,
+            int[] nRows, long[] rowsScanned, long[] nCandidates) {
+        FeatureMatrix data = context.data;
+        int[] index = context.index;
+        Learner learner = context.learner;
+        int nSample = context.trainingOption.nSample();
+        int nClasses = learner.nClasses();
+        SplitCriterion criterion = context.trainingOption.splitCriterion();
+        int nodeSize = nSample * nClasses;
+        int batch = (int) Math.max(1,
+                Math.min(open.length, context.trainingOption.histogramPoolBytes() / (4L * nodeSize)));
+        boolean parallel = context.parallelTree && RandomDecisionTree.searchCost(context,
+                RandomDecisionTree.sum(nRows)) >= context.trainingOption.minParallelSearchCost();
+        int nStripes = parallel ? Math.max(1, Math.min(nSample, ForkJoinPool.getCommonPoolParallelism())) : 1;
+        Split[] splits = new Split[open.length];
+        int[] leftHist = new int[nClasses];
+        int[] rightHist = new int[nClasses];
+        for (int from = 0; from < open.length; from += batch) {
+            int fromNode = from, toNode = Math.min(open.length, from + batch);
+            ParameterSet[][] params = new ParameterSet[toNode - fromNode][nSample];
+            for (int s = fromNode; s < toNode; s++) {
+                SplittableRandom random = new SplittableRandom(seeds[s]);
+                for (int k = 0; k < nSample; k++) {
+                    params[s - fromNode][k] = learner.sample(random);
+                }
+            }
+            // the class counts of the rows going left, [node - fromNode][k][c]
+            int[] leftCounts = new int[(toNode - fromNode) * nodeSize];
+            IntStream stripes = IntStream.range(0, nStripes);
+            if (nStripes > 1)
+                stripes = stripes.parallel();
+            int[] start = new int[toNode - fromNode + 1];
+            int[] rows = groupByNode(index, nodeOf, fromNode, toNode, start);
+            stripes.forEach(stripe -> {
+                int lo = stripe * nSample / nStripes, hi = (stripe + 1) * nSample / nStripes;
+                int[] stripeLeft = new int[nClasses];
+                int[] stripeRight = new int[nClasses];
+                for (int s = fromNode; s < toNode; s++) {
+                    for (int k = lo; k < hi; k++) {
+                        Arrays.fill(stripeLeft, 0);
+                        params[s - fromNode][k].countDecisions(data, rows, start[s - fromNode],
+                                start[s - fromNode + 1], context.weights, stripeLeft, stripeRight);
+                        System.arraycopy(stripeLeft, 0, leftCounts, (s - fromNode) * nodeSize + k * nClasses,
+                                nClasses);
+                    }
+                }
+            });
+
+            for (int s = fromNode; s < toNode; s++) {
+                DecisionTreeNode node = open[s];
+                int[] hist = node.getHistogram();
+                float nodeImpurity = criterion.impurity(hist, node.getNTotal());
+                float maxGain = 0f;
+                int best = -1;
+                for (int k = 0, offset = (s - fromNode) * nodeSize; k < nSample; k++, offset += nClasses) {
+                    int left = 0;
+                    for (int c = 0; c < nClasses; c++) {
+                        leftHist[c] = leftCounts[offset + c];
+                        rightHist[c] = hist[c] - leftHist[c];
+                        left += leftHist[c];
+                    }
+                    float gain = criterion.gain(nodeImpurity, leftHist, left, rightHist, node.getNTotal() - left);
+                    if (gain > maxGain) {
+                        maxGain = gain;
+                        best = k;
+                    }
+                }
+                rowsScanned[s] = (long) nSample * nRows[s];
+                nCandidates[s] = nSample;
+                context.rowsScanned += rowsScanned[s];
+                context.nCandidates += nSample;
+                if (best < 0)
+                    continue;
+                int[] bestLeftHist = new int[nClasses];
+                int[] bestRightHist = new int[nClasses];
+                for (int c = 0; c < nClasses; c++) {
+                    bestLeftHist[c] = leftCounts[(s - fromNode) * nodeSize + best * nClasses + c];
+                    bestRightHist[c] = hist[c] - bestLeftHist[c];
+                }
+                splits[s] = new Split(params[s - fromNode][best], maxGain, -1, -1, bestLeftHist,
+                        bestRightHist);
+            }
+        }
+        return splits;
+    }
+}
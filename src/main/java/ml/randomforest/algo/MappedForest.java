@@ -0,0 +1,321 @@
+package ml.randomforest.algo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.ParameterSetCodec;
+
+/**
+ * A forest classifying straight from a memory-mapped {@link ForestFile}.
+ * Opening it reads the header and decodes the custom parameter sets, if any;
+ * the nodes and leaves are read from the mapping as the trees are walked, so
+ * loading does not depend on the size of the forest and the pages are shared
+ * by all processes mapping the same file. Results are exactly the same as
+ * those of the {@link CompiledForest} of the written forest. The records are
+ * checked as they are read: a walk that would leave the file's nodes or
+ * leaves, or go back up its tree, or a custom node without its parameter set
+ * throws an IllegalStateException.
+ */
+public class MappedForest {
+
+    private final ByteBuffer buffer;
+    private final int nClasses;
+    private final int nTrees;
+    private final int nNodes;
+    private final int nLeaves;
+    private final int rootsOffset;
+    private final int nodesOffset;
+    private final int leavesOffset;
+    // only if there are custom split nodes, indexed by node
+    private final ParameterSet[] params;
+
+    private MappedForest(ByteBuffer buffer, ParameterSetCodec[] codecs) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < ForestFile.HEADER_BYTES || buffer.getInt(0) != ForestFile.MAGIC)
+            throw new IOException("not a forest file");
+        int version = buffer.getInt(4);
+        if (version != ForestFile.VERSION)
+            throw new IOException("unsupported forest file version " + version);
+        nClasses = buffer.getInt(8);
+        nTrees = buffer.getInt(12);
+        nNodes = buffer.getInt(16);
+        nLeaves = buffer.getInt(20);
+        int nCodecs = buffer.getInt(24);
+        int nCustom = buffer.getInt(28);
+        if (nClasses <= 0 || nTrees < 0 || nNodes < 0 || nLeaves < 0 || nCodecs < 0 || nCustom < 0
+                || nCustom > nNodes)
+            throw new IOException("corrupt forest file header");
+        // in long, so that a corrupt header can't overflow past the checks
+        rootsOffset = ForestFile.HEADER_BYTES;
+        long nodesOffset = rootsOffset + 4L * nTrees;
+        long leavesOffset = nodesOffset + (long) ForestFile.NODE_BYTES * nNodes;
+        long customOffset = leavesOffset + 4L * nLeaves * nClasses;
+        // a codec name takes at least 2 bytes, a custom node 12
+        if (customOffset + 2L * nCodecs + 12L * nCustom > buffer.capacity())
+            throw new IOException("truncated forest file");
+        this.nodesOffset = (int) nodesOffset;
+        this.leavesOffset = (int) leavesOffset;
+
+        ByteBuffer custom = buffer.duplicate();
+        custom.position((int) customOffset);
+        DataInputStream in = new DataInputStream(new BufferInputStream(custom));
+        String[] names = new String[nCodecs];
+        ParameterSetCodec[] fileCodecs = new ParameterSetCodec[nCodecs];
+        for (int i = 0; i < nCodecs; i++) {
+            names[i] = in.readUTF();
+            for (ParameterSetCodec codec : codecs) {
+                if (codec.getName().equals(names[i]))
+                    fileCodecs[i] = codec;
+            }
+        }
+        params = nCustom > 0 ? new ParameterSet[nNodes] : null;
+        for (int i = 0; i < nCustom; i++) {
+            int node = in.readInt();
+            int codec = in.readInt();
+            int length = in.readInt();
+            if (node < 0 || node >= nNodes || params[node] != null
+                    || buffer.getInt(this.nodesOffset + ForestFile.NODE_BYTES * node) != CompiledForest.CUSTOM)
+                throw new IOException("corrupt forest file: custom node " + node);
+            if (codec < 0 || codec >= nCodecs || length < 0 || length > custom.remaining())
+                throw new IOException("corrupt forest file: custom node " + node + " of codec " + codec
+                        + " and length " + length);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            if (fileCodecs[codec] == null)
+                throw new IOException("no codec named " + names[codec]);
+            params[node] = fileCodecs[codec].decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+        }
+    }
+
+    /**
+     * 
+     * @param file
+     *            a file written by {@link ForestFile}
+     * @param codecs
+     *            the codecs of the custom parameter sets in the file, if any
+     * @return the mapped forest
+     * @throws IOException
+     *             if the file can't be read, is not a forest file, or holds
+     *             a parameter set none of the codecs is named for
+     */
+    public static MappedForest open(File file, ParameterSetCodec... codecs) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to map");
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            return new MappedForest(buffer, codecs);
+        }
+    }
+
+    public int nClasses() {
+        return nClasses;
+    }
+
+    public int nTrees() {
+        return nTrees;
+    }
+
+    /**
+     * 
+     * @return the number of split (non leaf) nodes of all trees
+     */
+    public int nNodes() {
+        return nNodes;
+    }
+
+    /**
+     * 
+     * @return the number of leaves of all trees
+     */
+    public int nLeaves() {
+        return nLeaves;
+    }
+
+    /**
+     * Reads all node records.
+     * 
+     * @return one more than the highest feature the threshold decisions
+     *         split on, the fewest features a row needs; what custom
+     *         parameter sets read is not known
+     */
+    public int nFeatures() {
+        int nFeatures = 0;
+        for (int n = 0; n < nNodes; n++) {
+            nFeatures = Math.max(nFeatures, buffer.getInt(nodesOffset + ForestFile.NODE_BYTES * n) + 1);
+        }
+        return nFeatures;
+    }
+
+    /**
+     * 
+     * @param features
+     *            the features of the data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(float[] features, float[] p) {
+        classify(features, null, p);
+    }
+
+    /**
+     * 
+     * @param dataPoint
+     *            the data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(DataPoint dataPoint, float[] p) {
+        classify(dataPoint.getFeatures(), dataPoint, p);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the data to test
+     * @param row
+     *            the row of data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(FeatureMatrix data, int row, float[] p) {
+        Arrays.fill(p, 0, nClasses, 0f);
+        for (int t = 0; t < nTrees; t++) {
+            addLeaf(leaf(t, data, row), p);
+        }
+        for (int c = 0; c < nClasses; c++) {
+            p[c] = p[c] / nTrees;
+        }
+    }
+
+    /**
+     * Classifies many rows at once, @see
+     * CompiledForest#classifyBatch(float[][], float[][])
+     * 
+     * @param rows
+     *            the features of the data to test, one array per row
+     * @param p
+     *            receives the distribution mass function of each row,
+     *            p[row][class]
+     */
+    public void classifyBatch(float[][] rows, float[][] p) {
+        int blockSize = CompiledForest.BLOCK_SIZE;
+        IntStream.range(0, (rows.length + blockSize - 1) / blockSize).parallel().forEach(b -> {
+            int lowInclusive = b * blockSize, hiExclusive = Math.min(rows.length, lowInclusive + blockSize);
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                Arrays.fill(p[i], 0, nClasses, 0f);
+            }
+            for (int t = 0; t < nTrees; t++) {
+                for (int i = lowInclusive; i < hiExclusive; i++) {
+                    addLeaf(leaf(t, rows[i], null), p[i]);
+                }
+            }
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                for (int c = 0; c < nClasses; c++) {
+                    p[i][c] = p[i][c] / nTrees;
+                }
+            }
+        });
+    }
+
+    private void classify(float[] features, DataPoint dataPoint, float[] p) {
+        Arrays.fill(p, 0, nClasses, 0f);
+        for (int t = 0; t < nTrees; t++) {
+            addLeaf(leaf(t, features, dataPoint), p);
+        }
+        for (int c = 0; c < nClasses; c++) {
+            p[c] = p[c] / nTrees;
+        }
+    }
+
+    private void addLeaf(int leaf, float[] p) {
+        int offset = leavesOffset + 4 * leaf * nClasses;
+        for (int c = 0; c < nClasses; c++) {
+            p[c] += buffer.getFloat(offset + 4 * c);
+        }
+    }
+
+    // the leaf of tree t the data ends up in, @see CompiledForest#leafOffset
+    private int leaf(int t, float[] features, DataPoint dataPoint) {
+        int n = next(-1, buffer.getInt(rootsOffset + 4 * t));
+        while (n >= 0) {
+            int record = nodesOffset + ForestFile.NODE_BYTES * n;
+            int f = buffer.getInt(record);
+            boolean goLeft;
+            if (f >= 0) {
+                goLeft = features[f] < buffer.getFloat(record + 4);
+            } else {
+                if (dataPoint == null)
+                    dataPoint = new DataPoint(features);
+                goLeft = param(n, f).evaluateDecision(dataPoint);
+            }
+            n = next(n, buffer.getInt(goLeft ? record + 8 : record + 12));
+        }
+        return ~n;
+    }
+
+    private int leaf(int t, FeatureMatrix data, int row) {
+        int n = next(-1, buffer.getInt(rootsOffset + 4 * t));
+        while (n >= 0) {
+            int record = nodesOffset + ForestFile.NODE_BYTES * n;
+            int f = buffer.getInt(record);
+            boolean goLeft = f >= 0 ? data.getFeature(row, f) < buffer.getFloat(record + 4)
+                    : param(n, f).evaluateDecision(data, row);
+            n = next(n, buffer.getInt(goLeft ? record + 8 : record + 12));
+        }
+        return ~n;
+    }
+
+    // the child of node parent, -1 for a root, checked to be a later node of
+    // the file, as the nodes are numbered in pre-order, or one of its leaves
+    private int next(int parent, int child) {
+        if (child >= 0 ? child <= parent || child >= nNodes : ~child >= nLeaves)
+            throw new IllegalStateException("corrupt forest file: node " + parent + " has child " + child);
+        return child;
+    }
+
+    // the parameter set of node n of feature f, checked to be a custom node
+    // the file has a parameter set for
+    private ParameterSet param(int n, int f) {
+        if (f != CompiledForest.CUSTOM || params == null || params[n] == null)
+            throw new IllegalStateException("corrupt forest file: node " + n + " of feature " + f);
+        return params[n];
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ml.randomforest.algo;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ml.randomforest.model.FeatureMatrix;
+
+/**
+ * The rows of a data set sorted by each feature, order[f] listing the rows in
+ * ascending order of feature f (NaN last). The orders are sorted once per
+ * forest and shared read-only by all trees. Each tree keeps, per feature, the
+ * rows of its own sample in that order, in which the rows of every node stay
+ * a contiguous, still sorted segment matching the node's range of the tree's
+ * row index; a split keeps them so by partitioning each feature's segment
+ * stably, in linear time. The rows are kept as their slot, their position in
+ * the tree's first index, in a char when the sample has at most 65536 rows,
+ * so a tree takes 2 bytes per feature and sampled row, 4 above.
+ */
+final class PresortedFeatures {
+
+    static final int MAX_SHORT_SLOTS = 1 << 16;
+
+    // shared by all trees
+    private final int[][] order;
+    // per tree only: the row of each slot, the slots of the sample in the
+    // order of each feature, as chars or ints, whether a row of the node
+    // being split goes left, the rows of a node in the order of a feature
+    // and buffers for the stable partitions
+    private final int[] rows;
+    private final char[][] shortSlots;
+    private final int[][] slots;
+    private final boolean[] goesLeft;
+    private final int[] sorted;
+    private final char[] shortScratch;
+    private final int[] scratch;
+
+    private PresortedFeatures(int[][] order) {
+        this.order = order;
+        this.rows = null;
+        this.shortSlots = null;
+        this.slots = null;
+        this.goesLeft = null;
+        this.sorted = null;
+        this.shortScratch = null;
+        this.scratch = null;
+    }
+
+    private PresortedFeatures(int[][] order, int[] rows, char[][] shortSlots, int[][] slots, int nRows) {
+        this.order = order;
+        this.rows = rows;
+        this.shortSlots = shortSlots;
+        this.slots = slots;
+        this.goesLeft = new boolean[nRows];
+        this.sorted = new int[rows.length];
+        this.shortScratch = shortSlots != null ? new char[rows.length] : null;
+        this.scratch = new int[rows.length];
+    }
+
+    /**
+     * 
+     * @param data
+     *            the data set to sort
+     * @return the shared sorted orders
+     */
+    static PresortedFeatures of(FeatureMatrix data) {
+        int[][] order = new int[data.nFeatures()][];
+        IntStream.range(0, data.nFeatures()).parallel().forEach(f -> {
+            // sort (value, row) pairs as longs: the value's bits are made to
+            // compare as signed ints in the same order as the floats
+            long[] keys = new long[data.nRows()];
+            for (int row = 0; row < keys.length; row++) {
+                int bits = Float.floatToIntBits(data.getFeature(row, f));
+                bits ^= (bits >> 31) & 0x7FFFFFFF;
+                keys[row] = ((long) bits << 32) | row;
+            }
+            Arrays.sort(keys);
+            order[f] = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                order[f][i] = (int) keys[i];
+            }
+        });
+        return new PresortedFeatures(order);
+    }
+
+    /**
+     * 
+     * @param index
+     *            the tree's row index, each row once and in ascending order
+     * @return the sorted orders of the rows in index, for one tree to
+     *         partition
+     */
+    PresortedFeatures forTree(int[] index) {
+        return forTree(index, index.length <= MAX_SHORT_SLOTS);
+    }
+
+    // isShort: whether to keep the slots in chars
+    PresortedFeatures forTree(int[] index, boolean isShort) {
+        int nRows = order.length > 0 ? order[0].length : index.length;
+        int[] slotOf = new int[nRows];
+        Arrays.fill(slotOf, -1);
+        for (int i = 0; i < index.length; i++) {
+            slotOf[index[i]] = i;
+        }
+        char[][] shortSlots = isShort ? new char[order.length][index.length] : null;
+        int[][] slots = isShort ? null : new int[order.length][index.length];
+        for (int f = 0; f < order.length; f++) {
+            int p = 0;
+            for (int row : order[f]) {
+                int slot = slotOf[row];
+                if (slot < 0)
+                    continue;
+                if (isShort) {
+                    shortSlots[f][p++] = (char) slot;
+                } else {
+                    slots[f][p++] = slot;
+                }
+            }
+        }
+        return new PresortedFeatures(order, index.clone(), shortSlots, slots, nRows);
+    }
+
+    /**
+     * 
+     * @return a buffer whose range [lowInclusive, hiExclusive) holds the rows
+     *         of the node of that range of the tree's index in ascending
+     *         order of feature f, valid until the next call for the same
+     *         range
+     */
+    int[] sort(int lowInclusive, int hiExclusive, int f) {
+        if (shortSlots != null) {
+            char[] segment = shortSlots[f];
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                sorted[i] = rows[segment[i]];
+            }
+        } else {
+            int[] segment = slots[f];
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                sorted[i] = rows[segment[i]];
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Splits the node at the first nLeft rows of its segment in the order of
+     * feature axis, i.e. between the nLeft smallest values and the rest, and
+     * partitions the index and the segments of the other features
+     * accordingly; the segment of axis is already.
+     * 
+     * @return the first position of the rows going right
+     */
+    int partition(int[] index, int lowInclusive, int hiExclusive, int axis, int nLeft) {
+        int partitionIndex = lowInclusive + nLeft;
+        int[] axisRows = sort(lowInclusive, hiExclusive, axis);
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            goesLeft[axisRows[i]] = i < partitionIndex;
+        }
+        // stable partition of the index by goesLeft
+        int p = lowInclusive, q = lowInclusive;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            int row = index[i];
+            if (goesLeft[row]) {
+                index[p++] = row;
+            } else {
+                scratch[q++] = row;
+            }
+        }
+        System.arraycopy(scratch, lowInclusive, index, p, q - lowInclusive);
+        for (int f = 0; f < order.length; f++) {
+            if (f == axis)
+                continue;
+            if (shortSlots != null) {
+                partition(shortSlots[f], lowInclusive, hiExclusive);
+            } else {
+                partition(slots[f], lowInclusive, hiExclusive);
+            }
+        }
+        return partitionIndex;
+    }
+
+    // stable partitions of the slots [lowInclusive, hiExclusive) by goesLeft
+    private void partition(char[] segment, int lowInclusive, int hiExclusive) {
+        int p = lowInclusive, q = lowInclusive;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            char slot = segment[i];
+            if (goesLeft[rows[slot]]) {
+                segment[p++] = slot;
+            } else {
+                shortScratch[q++] = slot;
+            }
+        }
+        System.arraycopy(shortScratch, lowInclusive, segment, p, q - lowInclusive);
+    }
+
+    private void partition(int[] segment, int lowInclusive, int hiExclusive) {
+        int p = lowInclusive, q = lowInclusive;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            int slot = segment[i];
+            if (goesLeft[rows[slot]]) {
+                segment[p++] = slot;
+            } else {
+                scratch[q++] = slot;
+            }
+        }
+        System.arraycopy(scratch, lowInclusive, segment, p, q - lowInclusive);
+    }
+}
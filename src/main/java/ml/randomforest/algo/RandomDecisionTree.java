@@ -1,12 +1,23 @@
 package ml.randomforest.algo;
 
-import java.util.Optional;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.IntStream;
 
 import ml.randomforest.model.DataPoint;
 import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
 import ml.randomforest.model.ParameterSet;
 import ml.randomforest.model.Learner;
+import ml.randomforest.model.SplitCriterion;
+import ml.randomforest.model.SplitMode;
+import ml.randomforest.model.ThresholdDecision;
+import ml.randomforest.model.ThresholdLearner;
+import ml.randomforest.model.TrainingListener;
+import ml.randomforest.model.TrainingListener.StopReason;
 import ml.randomforest.model.TrainingOptions;
 
 public class RandomDecisionTree {
@@ -22,7 +33,68 @@ public class RandomDecisionTree {
      * @return the decision tree root node
      */
     public static DecisionTreeNode trainClassifier(DataPoint[] data, Learner learner, TrainingOptions trainingOptions) {
-        return trainClassifier(data, learner, trainingOptions, 1, 0, data.length);
+        return trainClassifier(TrainingContext.matrix(data, learner), learner, trainingOptions);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the training data, @see ml.randomforest.model.FeatureMatrix
+     * @param learner
+     *            the learner definition, @see ml.randomforest.model.Learner
+     * @param trainingOptions
+     * @see ml.randomforest.model.TrainingOptions
+     * @return the decision tree root node
+     */
+    public static DecisionTreeNode trainClassifier(FeatureMatrix data, Learner learner,
+            TrainingOptions trainingOptions) {
+        return trainClassifier(TrainingContext.prepare(data, learner, trainingOptions, true).forTree(0));
+    }
+
+    /**
+     * Trains a tree on the rows of the context's data listed in its index.
+     * Only the index is reordered, so several trees can be trained on the
+     * same data at the same time as long as each is given its own index.
+     * Subtrees of the same tree work on disjoint ranges of the index, so
+     * those large enough are forked, @see
+     * TrainingOptions#minParallelSubtreeCost()
+     * 
+     * @param context
+     *            the data, index and options to train with
+     * @return the decision tree root node
+     */
+    static DecisionTreeNode trainClassifier(TrainingContext context) {
+        TrainingListener listener = context.listener;
+        if (listener == null)
+            return grow(context);
+        listener.treeStarted(context.tree);
+        long start = System.nanoTime();
+        DecisionTreeNode root = grow(context);
+        listener.treeFinished(context.tree, countNodes(root), System.nanoTime() - start);
+        return root;
+    }
+
+    private static DecisionTreeNode grow(TrainingContext context) {
+        if (context.trainingOption.levelWise())
+            return LevelWiseTree.trainClassifier(context);
+        // in the pool, the thread waiting for a forked subtree trains others
+        // meanwhile
+        if (context.parallelTree && !ForkJoinTask.inForkJoinPool())
+            return ForkJoinPool.commonPool()
+                    .invoke(new SubtreeTask(context, 1, context.rootSeed, 0, context.index.length, null, null));
+        return trainClassifier(context, 1, context.rootSeed, 0, context.index.length, null, null);
+    }
+
+    private static int countNodes(DecisionTreeNode node) {
+        return node.getParam() == null ? 1 : 1 + countNodes(node.getLeft()) + countNodes(node.getRight());
+    }
+
+    static int[] identityPermutation(int n) {
+        int[] index = new int[n];
+        for (int i = 0; i < n; i++) {
+            index[i] = i;
+        }
+        return index;
     }
 
     /**
@@ -45,90 +117,540 @@ public class RandomDecisionTree {
         }
     }
 
-    static DecisionTreeNode trainClassifier(DataPoint[] data, Learner learner, TrainingOptions trainingOption,
-            int depth, int lowInclusive, int hiExclusive) {
-        DecisionTreeNode node = new DecisionTreeNode(learner.nClasses());
-        node.setNTotal(hiExclusive - lowInclusive);
-        for (int i = lowInclusive; i < hiExclusive; i++) {
-            node.getHistogram()[data[i].getLabel()]++;
+    /**
+     * 
+     * @param seed
+     *            the seed of the node's random choices, @see
+     *            TrainingContext#childSeed(long, boolean)
+     * @param hist
+     *            the class counts of the node's data if already known from
+     *            the parent's split, otherwise null
+     * @param table
+     *            in SplitMode.HISTOGRAM, the node's count table if derived
+     *            from the parent's, otherwise null. It is handed on to a
+     *            child or released to the pool.
+     */
+    static DecisionTreeNode trainClassifier(TrainingContext context, int depth, long seed, int lowInclusive,
+            int hiExclusive, int[] hist, int[] table) {
+        FeatureMatrix data = context.data;
+        int[] index = context.index;
+        TrainingOptions trainingOption = context.trainingOption;
+        TrainingListener listener = context.listener;
+        DecisionTreeNode node = new DecisionTreeNode(context.learner.nClasses());
+        if (hist != null) {
+            System.arraycopy(hist, 0, node.getHistogram(), 0, hist.length);
+        } else if (table != null) {
+            context.bins.classCounts(table, node.getHistogram());
+        } else {
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                int row = index[i];
+                node.getHistogram()[data.getLabel(row)] += context.weight(row);
+            }
         }
-        if (depth == trainingOption.treeMaxDepth() || hiExclusive - lowInclusive < trainingOption.minDataSizePerNode())
+        // with bootstrap, the size of the node's sample rather than its rows
+        node.setNTotal(sum(node.getHistogram()));
+        StopReason stop = stopReason(trainingOption, depth, node.getNTotal());
+        if (stop != null) {
+            context.release(table);
+            if (listener != null)
+                listener.leaf(context.tree, depth, hiExclusive - lowInclusive, stop, 0, 0, 0);
             return node;
+        }
+
+        long start = listener != null ? System.nanoTime() : 0;
+        long rowsScanned = context.rowsScanned, nCandidates = context.nCandidates;
+        if (context.bins != null && table == null) {
+            table = context.histograms.acquire();
+            context.bins.count(table, context, lowInclusive, hiExclusive);
+        }
+
+        float nodeImpurity = trainingOption.splitCriterion().impurity(node.getHistogram(), node.getNTotal());
+        SplittableRandom random = new SplittableRandom(seed);
+        Split split;
+        if (trainingOption.splitMode() == SplitMode.HISTOGRAM) {
+            split = histogramSplit(context, random, node, nodeImpurity, table);
+        } else if (trainingOption.splitMode() == SplitMode.EXACT) {
+            split = exactSplit(context, random, node, nodeImpurity, lowInclusive, hiExclusive);
+        } else {
+            split = sampleSplit(context, random, node.getHistogram(), nodeImpurity, lowInclusive, hiExclusive);
+        }
+
+        long searched = listener != null ? System.nanoTime() : 0;
+        if (split == null || split.gain <= trainingOption.minInformationGain()) {
+            context.release(table);
+            if (listener != null)
+                listener.leaf(context.tree, depth, hiExclusive - lowInclusive,
+                        split == null ? StopReason.NO_SPLIT : StopReason.MIN_INFORMATION_GAIN,
+                        context.rowsScanned - rowsScanned, context.nCandidates - nCandidates, searched - start);
+            return node;
+        }
+
+        int partitionIndex;
+        if (context.bins != null) {
+            partitionIndex = context.bins.partition(index, lowInclusive, hiExclusive, split.axis, split.position);
+        } else if (context.sorted != null) {
+            partitionIndex = context.sorted.partition(index, lowInclusive, hiExclusive, split.axis,
+                    split.position);
+        } else {
+            partitionIndex = partition(data, index, lowInclusive, hiExclusive, split.param);
+        }
+
+        long partitioned = listener != null ? System.nanoTime() : 0;
+        // Count the smaller child's rows and derive the larger child's table
+        // from the parent's
+        int[] leftTable = null, rightTable = null;
+        if (table != null) {
+            boolean leftLeaf = stopReason(trainingOption, depth + 1, sum(split.leftHist)) != null;
+            boolean rightLeaf = stopReason(trainingOption, depth + 1, sum(split.rightHist)) != null;
+            if ((!leftLeaf || !rightLeaf) && context.histograms.canRetain()) {
+                boolean leftSmaller = partitionIndex - lowInclusive <= hiExclusive - partitionIndex;
+                int[] smaller = context.histograms.acquire();
+                context.bins.count(smaller, context, leftSmaller ? lowInclusive : partitionIndex,
+                        leftSmaller ? partitionIndex : hiExclusive);
+                HistogramPool.subtract(table, smaller);
+                leftTable = leftSmaller ? smaller : table;
+                rightTable = leftSmaller ? table : smaller;
+                if (leftLeaf) {
+                    context.release(leftTable);
+                    leftTable = null;
+                }
+                if (rightLeaf) {
+                    context.release(rightTable);
+                    rightTable = null;
+                }
+            } else {
+                context.release(table);
+            }
+        }
+        if (listener != null)
+            listener.nodeSplit(context.tree, depth, hiExclusive - lowInclusive, context.rowsScanned - rowsScanned,
+                    context.nCandidates - nCandidates, searched - start + System.nanoTime() - partitioned,
+                    partitioned - searched);
+        node.setParam(split.param);
+        if (context.parallelTree && searchCost(context, Math.min(partitionIndex - lowInclusive,
+                hiExclusive - partitionIndex)) >= trainingOption.minParallelSubtreeCost()) {
+            // the left subtree can be stolen by an idle thread while this one
+            // trains the right
+            SubtreeTask left = new SubtreeTask(context.forSubtree(), depth + 1,
+                    TrainingContext.childSeed(seed, true), lowInclusive, partitionIndex, split.leftHist, leftTable);
+            if (listener != null)
+                listener.subtreeForked(context.tree, depth + 1, partitionIndex - lowInclusive);
+            left.fork();
+            node.setRight(trainClassifier(context, depth + 1, TrainingContext.childSeed(seed, false),
+                    partitionIndex, hiExclusive, split.rightHist, rightTable));
+            node.setLeft(left.join());
+            return node;
+        }
+        node.setLeft(trainClassifier(context, depth + 1, TrainingContext.childSeed(seed, true), lowInclusive,
+                partitionIndex, split.leftHist, leftTable));
+        node.setRight(trainClassifier(context, depth + 1, TrainingContext.childSeed(seed, false), partitionIndex,
+                hiExclusive, split.rightHist, rightTable));
+        return node;
+    }
+
+    /**
+     * Trains a subtree in a fork-join pool, @see
+     * TrainingOptions#minParallelSubtreeCost()
+     */
+    private static final class SubtreeTask extends RecursiveTask<DecisionTreeNode> {
+        private static final long serialVersionUID = 1L;
+
+        private final TrainingContext context;
+        private final int depth;
+        private final long seed;
+        private final int lowInclusive;
+        private final int hiExclusive;
+        private final int[] hist;
+        private final int[] table;
+
+        SubtreeTask(TrainingContext context, int depth, long seed, int lowInclusive, int hiExclusive, int[] hist,
+                int[] table) {
+            this.context = context;
+            this.depth = depth;
+            this.seed = seed;
+            this.lowInclusive = lowInclusive;
+            this.hiExclusive = hiExclusive;
+            this.hist = hist;
+            this.table = table;
+        }
+
+        @Override
+        protected DecisionTreeNode compute() {
+            return trainClassifier(context, depth, seed, lowInclusive, hiExclusive, hist, table);
+        }
+    }
+
+    /**
+     * 
+     * @return the cost of searching the split of a node of nRows rows, its
+     *         rows times the candidates scored per row, @see
+     *         TrainingOptions#minParallelSearchCost()
+     */
+    static long searchCost(TrainingContext context, long nRows) {
+        TrainingOptions trainingOption = context.trainingOption;
+        if (trainingOption.splitMode() == SplitMode.HISTOGRAM)
+            return nRows * context.data.nFeatures();
+        if (trainingOption.splitMode() == SplitMode.EXACT)
+            return nRows * context.nFeaturesPerNode();
+        return nRows * trainingOption.nSample();
+    }
+
+    // why a node of size data at depth is a leaf without looking for a split,
+    // null if it is not
+    static StopReason stopReason(TrainingOptions trainingOption, int depth, int size) {
+        if (depth == trainingOption.treeMaxDepth())
+            return StopReason.MAX_DEPTH;
+        if (size < trainingOption.minDataSizePerNode())
+            return StopReason.MIN_DATA_SIZE;
+        return null;
+    }
 
-        float nodeEntropy = entropy(node.getNTotal(), node.getHistogram());
-        final ParameterSet[] params = new ParameterSet[trainingOption.nSample()];
-        final float[] infoGains = new float[trainingOption.nSample()];
-        // This parallel-for is typically slower for smaller data set because of
-        // multi-threaded overhead. For larger data set, it's marginally faster
+    /**
+     * The best of nSample parameter sets drawn from the learner, or null if
+     * none has a positive gain.
+     * 
+     * @param random
+     *            the node's generator, @see Learner#sample(SplittableRandom)
+     * @param hist
+     *            the class counts of the node
+     */
+    static Split sampleSplit(TrainingContext context, SplittableRandom random, int[] hist, float nodeImpurity,
+            int lowInclusive, int hiExclusive) {
+        FeatureMatrix data = context.data;
+        int[] index = context.index;
+        Learner learner = context.learner;
+        int nSample = context.trainingOption.nSample();
+        SplitCriterion criterion = context.trainingOption.splitCriterion();
+        final ParameterSet[] params = new ParameterSet[nSample];
+        final float[] gains = new float[nSample];
+        final int[][] leftHists = new int[nSample][];
+        final int[][] rightHists = new int[nSample][];
+        for (int k = 0; k < nSample; k++) {
+            params[k] = learner.sample(random);
+        }
+        // This parallel-for is typically slower for smaller nodes because of
+        // multi-threaded overhead. For larger ones, it's marginally faster
         // because the performance is memory access bound instead of CPU bound
-        // for simple decision nodes
-        IntStream.range(0, trainingOption.nSample()).parallel().forEach(k -> {
-            ParameterSet param = learner.sample();
-            int[] leftHist = new int[learner.nClasses()];
-            int[] rightHist = new int[learner.nClasses()];
-            int left = 0, right = 0;
-            for (int i = lowInclusive; i < hiExclusive; i++) {
-                if (param.evaluateDecision(data[i])) {
-                    leftHist[data[i].getLabel()]++;
-                    left++;
-                } else {
-                    rightHist[data[i].getLabel()]++;
-                    right++;
+        // for simple decision nodes, so only nodes of at least
+        // minParallelSearchCost use it. When whole trees are trained in
+        // parallel the cores are already busy, so the samples are evaluated in
+        // turn. SplitBenchmark.sampleSplit measures both ways.
+        boolean parallel = context.parallelTree
+                && searchCost(context, hiExclusive - lowInclusive) >= context.trainingOption.minParallelSearchCost();
+        if (onHeapColumns(data, params)) {
+            thresholdSplits(context, hist, nodeImpurity, lowInclusive, hiExclusive, params, parallel, gains,
+                    leftHists, rightHists);
+        } else {
+            IntStream samples = IntStream.range(0, nSample);
+            if (parallel)
+                samples = samples.parallel();
+            samples.forEach(k -> {
+                int[] leftHist = new int[learner.nClasses()];
+                int[] rightHist = new int[learner.nClasses()];
+                params[k].countDecisions(data, index, lowInclusive, hiExclusive, context.weights, leftHist,
+                        rightHist);
+                leftHists[k] = leftHist;
+                rightHists[k] = rightHist;
+                gains[k] = criterion.gain(nodeImpurity, leftHist, sum(leftHist), rightHist, sum(rightHist));
+            });
+        }
+        context.rowsScanned += (long) nSample * (hiExclusive - lowInclusive);
+        context.nCandidates += nSample;
+        float maxGain = 0f;
+        int best = -1;
+        for (int k = 0; k < gains.length; k++) {
+            if (gains[k] > maxGain) {
+                maxGain = gains[k];
+                best = k;
+            }
+        }
+        return best < 0 ? null
+                : new Split(params[best], maxGain, -1, -1, leftHists[best], rightHists[best]);
+    }
+
+    // whether all params are threshold decisions on columns kept in heap
+    // arrays, which the threshold kernel scores
+    private static boolean onHeapColumns(FeatureMatrix data, ParameterSet[] params) {
+        if (data.heapLabels() == null)
+            return false;
+        for (ParameterSet param : params) {
+            if (!(param instanceof ThresholdDecision)
+                    || data.heapColumn(((ThresholdDecision) param).getAxis()) == null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scores threshold decisions with the threshold kernel, in one pass over
+     * the node's rows per feature for all the thresholds on it, @see
+     * ThresholdKernel#countLeft
+     */
+    private static void thresholdSplits(TrainingContext context, int[] hist, float nodeImpurity,
+            int lowInclusive, int hiExclusive, ParameterSet[] params, boolean parallel, float[] gains,
+            int[][] leftHists, int[][] rightHists) {
+        FeatureMatrix data = context.data;
+        int nClasses = hist.length;
+        int nTotal = sum(hist);
+        SplitCriterion criterion = context.trainingOption.splitCriterion();
+        // the params grouped by feature: those on feature f are
+        // byFeature[first[f], first[f + 1])
+        int nFeatures = data.nFeatures();
+        int[] first = new int[nFeatures + 1];
+        for (ParameterSet param : params) {
+            first[((ThresholdDecision) param).getAxis() + 1]++;
+        }
+        for (int f = 0; f < nFeatures; f++) {
+            first[f + 1] += first[f];
+        }
+        int[] byFeature = new int[params.length];
+        int[] next = Arrays.copyOf(first, nFeatures);
+        for (int k = 0; k < params.length; k++) {
+            byFeature[next[((ThresholdDecision) params[k]).getAxis()]++] = k;
+        }
+
+        IntStream features = IntStream.range(0, nFeatures).filter(f -> first[f + 1] > first[f]);
+        if (parallel)
+            features = features.parallel();
+        features.forEach(f -> {
+            int n = first[f + 1] - first[f];
+            float[] thresholds = new float[n];
+            for (int j = 0; j < n; j++) {
+                thresholds[j] = ((ThresholdDecision) params[byFeature[first[f] + j]]).getThreshold();
+            }
+            int[] leftCounts = new int[n * nClasses];
+            ThresholdKernels.KERNEL.countLeft(data.heapColumn(f), data.heapLabels(), context.weights,
+                    context.index, lowInclusive, hiExclusive, thresholds, nClasses, leftCounts);
+            for (int j = 0; j < n; j++) {
+                int k = byFeature[first[f] + j];
+                int[] leftHist = Arrays.copyOfRange(leftCounts, j * nClasses, (j + 1) * nClasses);
+                int[] rightHist = new int[nClasses];
+                for (int c = 0; c < nClasses; c++) {
+                    rightHist[c] = hist[c] - leftHist[c];
                 }
+                int left = sum(leftHist);
+                leftHists[k] = leftHist;
+                rightHists[k] = rightHist;
+                gains[k] = criterion.gain(nodeImpurity, leftHist, left, rightHist, nTotal - left);
             }
-            params[k] = param;
-            infoGains[k] = informationGain(nodeEntropy, leftHist, left, rightHist, right);
         });
-        float maxInfoGain = 0f;
-        Optional<ParameterSet> bestParameterSet = Optional.empty();
-        for (int k = 0; k < infoGains.length; k++) {
-            if (infoGains[k] > maxInfoGain) {
-                maxInfoGain = infoGains[k];
-                bestParameterSet = Optional.of(params[k]);
+    }
+
+    /**
+     * Scores every bin boundary of nFeaturesPerNode random features from the
+     * cumulative counts of the node's feature x bin x class count table.
+     * Returns the best one, or null if none has a positive gain.
+     */
+    static Split histogramSplit(TrainingContext context, SplittableRandom random, DecisionTreeNode node,
+            float nodeImpurity, int[] table) {
+        FeatureBins bins = context.bins;
+        SplitCriterion criterion = context.trainingOption.splitCriterion();
+        int nClasses = context.learner.nClasses();
+        int[] hist = node.getHistogram();
+        int[] leftHist = new int[nClasses];
+        int[] rightHist = new int[nClasses];
+        float maxGain = 0f;
+        int bestAxis = -1, bestBin = -1;
+        int nCandidates = 0;
+        for (int f : sampleFeatures(random, bins.nFeatures(), context.nFeaturesPerNode())) {
+            Arrays.fill(leftHist, 0);
+            int left = 0;
+            for (int b = 0, offset = bins.tableOffset[f]; b < bins.nBins(f) - 1; b++, offset += nClasses) {
+                for (int c = 0; c < nClasses; c++) {
+                    leftHist[c] += table[offset + c];
+                    left += table[offset + c];
+                }
+                int right = node.getNTotal() - left;
+                if (left == 0)
+                    continue;
+                if (right == 0)
+                    break;
+                for (int c = 0; c < nClasses; c++) {
+                    rightHist[c] = hist[c] - leftHist[c];
+                }
+                float gain = criterion.gain(nodeImpurity, leftHist, left, rightHist, right);
+                nCandidates++;
+                if (gain > maxGain) {
+                    maxGain = gain;
+                    bestAxis = f;
+                    bestBin = b;
+                }
+            }
+        }
+        context.nCandidates += nCandidates;
+        if (bestAxis < 0)
+            return null;
+        int[] bestLeftHist = new int[nClasses];
+        int[] bestRightHist = new int[nClasses];
+        for (int b = 0, offset = bins.tableOffset[bestAxis]; b <= bestBin; b++, offset += nClasses) {
+            for (int c = 0; c < nClasses; c++) {
+                bestLeftHist[c] += table[offset + c];
             }
         }
+        for (int c = 0; c < nClasses; c++) {
+            bestRightHist[c] = hist[c] - bestLeftHist[c];
+        }
+        ThresholdLearner learner = (ThresholdLearner) context.learner;
+        return new Split(learner.createDecision(bestAxis, bins.cuts[bestAxis][bestBin]), maxGain, bestAxis,
+                bestBin, bestLeftHist, bestRightHist);
+    }
 
-        if (maxInfoGain <= trainingOption.minInformationGain())
-            return node;
+    /**
+     * Sweeps the node's rows in the order of each of nFeaturesPerNode random
+     * features, scoring a threshold half way between every two distinct
+     * successive values. Returns the best one, or null if none has a positive
+     * gain.
+     */
+    static Split exactSplit(TrainingContext context, SplittableRandom random, DecisionTreeNode node,
+            float nodeImpurity, int lowInclusive, int hiExclusive) {
+        FeatureMatrix data = context.data;
+        SplitCriterion criterion = context.trainingOption.splitCriterion();
+        int nClasses = context.learner.nClasses();
+        int[] hist = node.getHistogram();
+        int[] leftHist = new int[nClasses];
+        int[] bestLeftHist = new int[nClasses];
+        // the criterion's term of each class count on either side, updated
+        // for the class of each row moving left
+        double[] leftTerms = new double[nClasses];
+        double[] rightTerms = new double[nClasses];
+        float maxGain = 0f;
+        int bestAxis = -1, bestPosition = -1;
+        float bestThreshold = 0f;
+        int[] features = sampleFeatures(random, data.nFeatures(), context.nFeaturesPerNode());
+        int nCandidates = 0;
+        for (int f : features) {
+            int[] sorted = context.sorted.sort(lowInclusive, hiExclusive, f);
+            Arrays.fill(leftHist, 0);
+            Arrays.fill(leftTerms, criterion.term(0));
+            for (int c = 0; c < nClasses; c++) {
+                rightTerms[c] = criterion.term(hist[c]);
+            }
+            float value = data.getFeature(sorted[lowInclusive], f);
+            int left = 0;
+            for (int i = lowInclusive; i < hiExclusive - 1; i++) {
+                int weight = context.weight(sorted[i]);
+                int label = data.getLabel(sorted[i]);
+                leftHist[label] += weight;
+                leftTerms[label] = criterion.term(leftHist[label]);
+                rightTerms[label] = criterion.term(hist[label] - leftHist[label]);
+                left += weight;
+                float next = data.getFeature(sorted[i + 1], f);
+                if (Float.isNaN(next))
+                    break;
+                if (next != value) {
+                    double leftSum = 0, rightSum = 0;
+                    for (int c = 0; c < nClasses; c++) {
+                        leftSum += leftTerms[c];
+                        rightSum += rightTerms[c];
+                    }
+                    float gain = criterion.gain(nodeImpurity, left, leftSum, node.getNTotal() - left, rightSum);
+                    nCandidates++;
+                    if (gain > maxGain) {
+                        maxGain = gain;
+                        bestAxis = f;
+                        bestPosition = i + 1 - lowInclusive;
+                        bestThreshold = FeatureBins.between(value, next);
+                        System.arraycopy(leftHist, 0, bestLeftHist, 0, nClasses);
+                    }
+                }
+                value = next;
+            }
+        }
+        context.rowsScanned += (long) features.length * (hiExclusive - lowInclusive);
+        context.nCandidates += nCandidates;
+        if (bestAxis < 0)
+            return null;
+        int[] bestRightHist = new int[nClasses];
+        for (int c = 0; c < nClasses; c++) {
+            bestRightHist[c] = hist[c] - bestLeftHist[c];
+        }
+        ThresholdLearner learner = (ThresholdLearner) context.learner;
+        return new Split(learner.createDecision(bestAxis, bestThreshold), maxGain, bestAxis, bestPosition,
+                bestLeftHist, bestRightHist);
+    }
 
-        int partitionIndex = partition(data, lowInclusive, hiExclusive,
-                bestParameterSet.orElseThrow(IllegalStateException::new));
-        node.setParam(bestParameterSet.get());
-        node.setLeft(trainClassifier(data, learner, trainingOption, depth + 1, lowInclusive, partitionIndex));
-        node.setRight(trainClassifier(data, learner, trainingOption, depth + 1, partitionIndex, hiExclusive));
-        return node;
+    static int sum(int[] hist) {
+        int sum = 0;
+        for (int h : hist) {
+            sum += h;
+        }
+        return sum;
     }
 
-    static float entropy(int N, int[] hist) {
-        if (N == 0)
-            return 0f;
-
-        float e = 0f;
-        for (int i = 0; i < hist.length; i++) {
-            if (hist[i] > 0) {
-                float p = hist[i] * 1.0f / N;
-                e -= p * Math.log(p);
-            }
+    /**
+     * 
+     * @return n distinct features drawn at random from [0, nFeatures)
+     */
+    static int[] sampleFeatures(SplittableRandom random, int nFeatures, int n) {
+        int[] features = identityPermutation(nFeatures);
+        for (int i = 0; i < n; i++) {
+            int j = i + random.nextInt(nFeatures - i);
+            int tmp = features[i];
+            features[i] = features[j];
+            features[j] = tmp;
+        }
+        return Arrays.copyOf(features, n);
+    }
+
+    /**
+     * The decision chosen for a node, with the class counts of the data going
+     * left and right. When it was found on binned or sorted features, axis and
+     * position tell the rows going left, those in bin <= position on feature
+     * axis or the first position ones in the order of axis, so that
+     * partitioning does not need to evaluate the decision.
+     */
+    static final class Split {
+        final ParameterSet param;
+        final float gain;
+        final int axis;
+        final int position;
+        final int[] leftHist;
+        final int[] rightHist;
+
+        Split(ParameterSet param, float gain, int axis, int position, int[] leftHist, int[] rightHist) {
+            this.param = param;
+            this.gain = gain;
+            this.axis = axis;
+            this.position = position;
+            this.leftHist = leftHist;
+            this.rightHist = rightHist;
         }
-        return e;
+    }
+
+    static float entropy(int N, int[] hist) {
+        return SplitCriterion.ENTROPY.impurity(hist, N);
     }
 
     static float informationGain(float nodeEntropy, int[] leftHist, int left, int[] rightHist, int right) {
-        float leftEntropy = entropy(left, leftHist);
-        float rightEntropy = entropy(right, rightHist);
-        float leftWeight = left * 1.0f / (left + right);
-        return nodeEntropy - (leftWeight * leftEntropy + (1 - leftWeight) * rightEntropy);
+        return SplitCriterion.ENTROPY.gain(nodeEntropy, leftHist, left, rightHist, right);
     }
 
-    static int partition(DataPoint[] data, int lowInclusive, int hiExclusive, ParameterSet param) {
+    /**
+     * Moves the rows of index[lowInclusive, hiExclusive) going left to the
+     * front of the range, with the decisions evaluated in one batch, @see
+     * ParameterSet#evaluateDecisions. The rows going left keep their order,
+     * the rows going right are swapped out of it.
+     * 
+     * @return the index position of the first row going right
+     */
+    static int partition(FeatureMatrix data, int[] index, int lowInclusive, int hiExclusive, ParameterSet param) {
+        if (param instanceof ThresholdDecision) {
+            ThresholdDecision decision = (ThresholdDecision) param;
+            float[] column = data.heapColumn(decision.getAxis());
+            if (column != null)
+                return ThresholdKernels.KERNEL.partition(column, index, lowInclusive, hiExclusive,
+                        decision.getThreshold());
+        }
+        long[] goesLeft = new long[(hiExclusive - lowInclusive + 63) >>> 6];
+        param.evaluateDecisions(data, index, lowInclusive, hiExclusive, goesLeft);
         int p = lowInclusive;
         for (int i = lowInclusive; i < hiExclusive; i++) {
-            if (param.evaluateDecision(data[i])) {
-                DataPoint tmp = data[p];
-                data[p] = data[i];
-                data[i] = tmp;
-                p++;
-            }
+            int row = index[i];
+            int first = index[p];
+            boolean left = (goesLeft[(i - lowInclusive) >>> 6] & 1L << (i - lowInclusive)) != 0;
+            index[p] = left ? row : first;
+            index[i] = left ? first : row;
+            p += left ? 1 : 0;
         }
         return p;
     }
@@ -1,13 +1,26 @@
 package ml.randomforest.algo;
 
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
 import ml.randomforest.model.DataPoint;
 import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
 import ml.randomforest.model.Learner;
+import ml.randomforest.model.OutOfBagEstimate;
 import ml.randomforest.model.TrainingOptions;
 
 public class RandomForest {
 
     /**
+     * Trains the trees one after another, or concurrently when
+     * {@link TrainingOptions#isParallel()}. Each tree works on its own row
+     * index permutation, so data is shared by all trees and never modified.
      * 
      * @param data
      *            an array of training data
@@ -19,14 +32,203 @@ public class RandomForest {
      */
     public static DecisionTreeNode[] trainClassifier(DataPoint[] data, Learner learner,
             TrainingOptions trainingOption) {
-        DecisionTreeNode[] forest = new DecisionTreeNode[trainingOption.nTrees()];
-        for (int i = 0; i < forest.length; i++) {
-            forest[i] = RandomDecisionTree.trainClassifier(data, learner, trainingOption);
-        }
+        return trainClassifier(TrainingContext.matrix(data, learner), learner, trainingOption);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the training data, @see ml.randomforest.model.FeatureMatrix
+     * @param learner
+     *            the learner definition, @see ml.randomforest.model.Learner
+     * @param trainingOption
+     *            @see ml.randomforest.model.TrainingOption
+     * @return an array of the decision tree root nodes
+     */
+    public static DecisionTreeNode[] trainClassifier(FeatureMatrix data, Learner learner,
+            TrainingOptions trainingOption) {
+        return train(data, learner, trainingOption, null, 0, trainingOption.nTrees());
+    }
+
+    /**
+     * Trains some of the trees of a forest, the same trees
+     * {@link #trainClassifier(FeatureMatrix, Learner, TrainingOptions)}
+     * trains with the same options, seed included, so that the trees of a
+     * forest can be trained apart and put together.
+     * 
+     * @param data
+     *            the training data, @see ml.randomforest.model.FeatureMatrix
+     * @param learner
+     *            the learner definition, @see ml.randomforest.model.Learner
+     * @param trainingOption
+     *            @see ml.randomforest.model.TrainingOption
+     * @return the trees numbered [fromTree, toTree) of the forest
+     */
+    public static DecisionTreeNode[] trainTrees(FeatureMatrix data, Learner learner, TrainingOptions trainingOption,
+            int fromTree, int toTree) {
+        if (fromTree < 0 || toTree > trainingOption.nTrees() || fromTree > toTree)
+            throw new IllegalArgumentException(
+                    "trees [" + fromTree + ", " + toTree + ") of " + trainingOption.nTrees());
+        return train(data, learner, trainingOption, null, fromTree, toTree);
+    }
+
+    /**
+     * Trains a forest on bootstrap samples and classifies every training row
+     * with the trees whose sample did not contain it. Rows are scored in
+     * parallel blocks, tree by tree within a block, @see
+     * CompiledForest#classifyBatch(FeatureMatrix, float[][])
+     * 
+     * @param data
+     *            the training data, @see ml.randomforest.model.FeatureMatrix
+     * @param learner
+     *            the learner definition, @see ml.randomforest.model.Learner
+     * @param trainingOption
+     *            @see ml.randomforest.model.TrainingOption, with bootstrap
+     * @return the forest and its out-of-bag estimate
+     */
+    public static OutOfBagEstimate trainWithOutOfBagEstimate(FeatureMatrix data, Learner learner,
+            TrainingOptions trainingOption) {
+        if (!trainingOption.bootstrap())
+            throw new IllegalArgumentException("out-of-bag estimate needs bootstrap samples");
+        // bit row of inBag[t] is set when row is in the sample of tree t
+        long[][] inBag = new long[trainingOption.nTrees()][];
+        DecisionTreeNode[] forest = train(data, learner, trainingOption, inBag, 0, trainingOption.nTrees());
+
+        CompiledForest compiled = CompiledForest.compile(forest);
+        int nClasses = compiled.nClasses();
+        float[][] p = new float[data.nRows()][nClasses];
+        int[] nTrees = new int[data.nRows()];
+        int blockSize = CompiledForest.BLOCK_SIZE;
+        int nCorrect = IntStream.range(0, (data.nRows() + blockSize - 1) / blockSize).parallel().map(b -> {
+            int lowInclusive = b * blockSize, hiExclusive = Math.min(data.nRows(), lowInclusive + blockSize);
+            for (int t = 0; t < forest.length; t++) {
+                for (int row = lowInclusive; row < hiExclusive; row++) {
+                    if ((inBag[t][row >>> 6] & (1L << row)) != 0)
+                        continue;
+                    int offset = compiled.leafOffset(t, data, row);
+                    for (int c = 0; c < nClasses; c++) {
+                        p[row][c] += compiled.leafDistributions[offset + c];
+                    }
+                    nTrees[row]++;
+                }
+            }
+            int correct = 0;
+            for (int row = lowInclusive; row < hiExclusive; row++) {
+                if (nTrees[row] == 0)
+                    continue;
+                int best = 0;
+                for (int c = 0; c < nClasses; c++) {
+                    p[row][c] = p[row][c] / nTrees[row];
+                    if (p[row][c] > p[row][best])
+                        best = c;
+                }
+                if (best == data.getLabel(row))
+                    correct++;
+            }
+            return correct;
+        }).sum();
+        int nEstimated = (int) Arrays.stream(nTrees).filter(n -> n > 0).count();
+        return new OutOfBagEstimate(forest, p, nTrees, nEstimated == 0 ? 0f : nCorrect * 1.0f / nEstimated);
+    }
+
+    /**
+     * The trees of a forest, trained on data prepared once for all of them.
+     */
+    public interface TreeTrainer {
+        /**
+         * Trains the trees numbered [fromTree, toTree), the same trees
+         * {@link RandomForest#trainTrees(FeatureMatrix, Learner, TrainingOptions, int, int)}
+         * trains, concurrently when {@link TrainingOptions#isParallel()}.
+         * 
+         * @param onTree
+         *            receives each tree and its number as soon as it is
+         *            trained, on the thread which trained it, so in any order
+         *            and concurrently when training is parallel
+         */
+        public void trainTrees(int fromTree, int toTree, ObjIntConsumer<DecisionTreeNode> onTree);
+    }
+
+    /**
+     * Prepares what the split mode of the options needs from the data, the
+     * bins or the sorted features, once for trees trained a few at a time.
+     * 
+     * @param data
+     *            the training data, @see ml.randomforest.model.FeatureMatrix
+     * @param learner
+     *            the learner definition, @see ml.randomforest.model.Learner
+     * @param trainingOption
+     *            @see ml.randomforest.model.TrainingOption
+     * @return a trainer of the trees of the forest
+     */
+    public static TreeTrainer prepare(FeatureMatrix data, Learner learner, TrainingOptions trainingOption) {
+        TrainingContext context = TrainingContext.prepare(data, learner, trainingOption,
+                !trainingOption.isParallel());
+        return (fromTree, toTree, onTree) -> {
+            if (fromTree < 0 || toTree > trainingOption.nTrees() || fromTree > toTree)
+                throw new IllegalArgumentException(
+                        "trees [" + fromTree + ", " + toTree + ") of " + trainingOption.nTrees());
+            train(context, null, fromTree, toTree, onTree);
+        };
+    }
+
+    // the trees [fromTree, toTree); inBag, when not null, receives the rows in
+    // the bootstrap sample of each tree as a bit set
+    private static DecisionTreeNode[] train(FeatureMatrix data, Learner learner, TrainingOptions trainingOption,
+            long[][] inBag, int fromTree, int toTree) {
+        DecisionTreeNode[] forest = new DecisionTreeNode[toTree - fromTree];
+        TrainingContext context = TrainingContext.prepare(data, learner, trainingOption,
+                !trainingOption.isParallel());
+        train(context, inBag, fromTree, toTree, (root, tree) -> forest[tree - fromTree] = root);
         return forest;
     }
 
+    private static void train(TrainingContext context, long[][] inBag, int fromTree, int toTree,
+            ObjIntConsumer<DecisionTreeNode> onTree) {
+        TrainingOptions trainingOption = context.trainingOption;
+        if (!trainingOption.isParallel()) {
+            for (int tree = fromTree; tree < toTree; tree++) {
+                trainTree(context, inBag, fromTree, tree, onTree);
+            }
+            return;
+        }
+
+        ExecutorService pool = null;
+        Executor executor = trainingOption.executor();
+        if (executor == null) {
+            pool = Executors.newFixedThreadPool(trainingOption.nThreads());
+            executor = pool;
+        }
+        try {
+            CompletableFuture<?>[] trees = new CompletableFuture<?>[toTree - fromTree];
+            for (int i = 0; i < trees.length; i++) {
+                final int tree = fromTree + i;
+                trees[i] = CompletableFuture.runAsync(() -> trainTree(context, inBag, fromTree, tree, onTree),
+                        executor);
+            }
+            CompletableFuture.allOf(trees).join();
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+    private static void trainTree(TrainingContext context, long[][] inBag, int fromTree, int tree,
+            ObjIntConsumer<DecisionTreeNode> onTree) {
+        TrainingContext treeContext = context.forTree(tree);
+        DecisionTreeNode root = RandomDecisionTree.trainClassifier(treeContext);
+        if (inBag != null) {
+            long[] bits = new long[(treeContext.data.nRows() + 63) >>> 6];
+            for (int row : treeContext.index) {
+                bits[row >>> 6] |= 1L << row;
+            }
+            inBag[tree - fromTree] = bits;
+        }
+        onTree.accept(root, tree);
+    }
+
     /**
+     * Evaluates every tree, @see CompiledForest#classifyEarlyExit(float[],
+     * float[], float) to stop once the most likely class is settled.
      * 
      * @param dataPoint
      *            the data to test
@@ -49,4 +251,23 @@ public class RandomForest {
 
         return p;
     }
+
+    /**
+     * Classifies many rows at once, @see
+     * ml.randomforest.algo.CompiledForest#classifyBatch(float[][], float[][]).
+     * When the same forest scores many batches, compile it once with
+     * {@link CompiledForest#compile(DecisionTreeNode[])} instead.
+     * 
+     * @param rows
+     *            the features of the data to test, one array per row
+     * @param forest
+     *            an array of the decision tree root nodes
+     * @return the distribution mass function of each row, [row][class]
+     */
+    public static float[][] classifyBatch(float[][] rows, DecisionTreeNode[] forest) {
+        CompiledForest compiled = CompiledForest.compile(forest);
+        float[][] p = new float[rows.length][compiled.nClasses()];
+        compiled.classifyBatch(rows, p);
+        return p;
+    }
 }
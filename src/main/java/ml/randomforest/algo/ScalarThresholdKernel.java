@@ -0,0 +1,40 @@
+package ml.randomforest.algo;
+
+/**
+ * The threshold kernel of any JDK, one row at a time. The loops have no
+ * data-dependent branches: a comparison only selects what is added or
+ * written, which compiles to conditional moves, so unpredictable decisions
+ * cost no mispredictions.
+ */
+public class ScalarThresholdKernel implements ThresholdKernel {
+
+    @Override
+    public void countLeft(float[] column, int[] labels, int[] weights, int[] index, int lowInclusive,
+            int hiExclusive, float[] thresholds, int nClasses, int[] leftCounts) {
+        int nThresholds = thresholds.length;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            int row = index[i];
+            float value = column[row];
+            int weight = weights == null ? 1 : weights[row];
+            for (int k = 0, c = labels[row]; k < nThresholds; k++, c += nClasses) {
+                leftCounts[c] += value < thresholds[k] ? weight : 0;
+            }
+        }
+    }
+
+    @Override
+    public int partition(float[] column, int[] index, int lowInclusive, int hiExclusive, float threshold) {
+        int p = lowInclusive;
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            // index[p] goes right unless p == i, swap it with index[i] only
+            // if that goes left
+            int row = index[i];
+            int first = index[p];
+            boolean left = column[row] < threshold;
+            index[p] = left ? row : first;
+            index[i] = left ? first : row;
+            p += left ? 1 : 0;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,326 @@
+package ml.randomforest.algo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.SplitCriterion;
+import ml.randomforest.model.SplitMode;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * Grows one tree on rows sharded across workers, each holding its rows for
+ * the whole training, @see Shard. The tree grows level-wise, @see
+ * LevelWiseTree: for the open nodes of a depth, every shard draws the same
+ * nSample parameter sets per node from the node's seed and counts the
+ * classes of its rows each sends left. The tables of all shards are summed,
+ * the split of each node picked from the sums, and only the chosen
+ * candidates are sent back to the shards, which move their rows on to the
+ * children. Rows never leave their shard, and the tree is the one
+ * RandomDecisionTree#trainClassifier(FeatureMatrix, Learner, TrainingOptions)
+ * grows level-wise on all the rows.
+ *
+ * Only SplitMode.RANDOM without bootstrap is sharded, as bins and samples
+ * are drawn over all the rows.
+ */
+public final class ShardedTree {
+
+    private ShardedTree() {
+    }
+
+    /**
+     * The rows of one worker, and the open node of the tree each has reached.
+     * The calls of a training come in order: classCounts once, then per
+     * depth countLeft for batches of the open nodes and split once.
+     */
+    public interface Shard {
+        /**
+         *
+         * @return the class counts of the shard's rows
+         */
+        public int[] classCounts();
+
+        /**
+         * Draws the candidates of open nodes [fromNode, fromNode +
+         * seeds.length) and counts the classes of the shard's rows each sends
+         * left.
+         *
+         * @param seeds
+         *            the seeds of the nodes, @see
+         *            Learner#sample(SplittableRandom)
+         * @param nSample
+         *            the number of candidates to draw per node
+         * @return the counts, [node - fromNode][candidate][class]
+         */
+        public int[] countLeft(int fromNode, long[] seeds, int nSample);
+
+        /**
+         * Moves the rows on to the open nodes of the next depth.
+         *
+         * @param chosen
+         *            the candidate each open node splits by, -1 if it is a
+         *            leaf
+         * @param childSlot
+         *            the open node of the left and right child of node s at
+         *            2s and 2s + 1, -1 if the child is a leaf
+         */
+        public void split(int[] chosen, int[] childSlot);
+    }
+
+    /**
+     *
+     * @return a shard of the rows of data, in this process
+     */
+    public static Shard shard(FeatureMatrix data, Learner learner) {
+        TrainingContext.checkLabels(data, learner.nClasses());
+        return new LocalShard(data, learner);
+    }
+
+    /**
+     *
+     * @param shards
+     *            the rows to train on, called at the same time from a thread
+     *            each
+     * @param learner
+     *            the learner definition, the same the shards draw with
+     * @param trainingOption
+     *            the options, with the nSample the shards are asked to draw
+     * @return the decision tree root node
+     */
+    public static DecisionTreeNode trainClassifier(Shard[] shards, Learner learner, TrainingOptions trainingOption) {
+        if (trainingOption.splitMode() != SplitMode.RANDOM || trainingOption.bootstrap())
+            throw new IllegalArgumentException("sharded training needs RANDOM split mode without bootstrap");
+        ExecutorService executor = Executors.newFixedThreadPool(shards.length, runnable -> {
+            Thread thread = new Thread(runnable, "shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return trainClassifier(shards, learner, trainingOption, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static DecisionTreeNode trainClassifier(Shard[] shards, Learner learner, TrainingOptions trainingOption,
+            ExecutorService executor) {
+        int nClasses = learner.nClasses();
+        int nSample = trainingOption.nSample();
+        SplitCriterion criterion = trainingOption.splitCriterion();
+        int nodeSize = nSample * nClasses;
+
+        DecisionTreeNode root = new DecisionTreeNode(nClasses);
+        System.arraycopy(reduce(shards, executor, nClasses, Shard::classCounts), 0, root.getHistogram(), 0,
+                nClasses);
+        root.setNTotal(RandomDecisionTree.sum(root.getHistogram()));
+        if (RandomDecisionTree.stopReason(trainingOption, 1, root.getNTotal()) != null)
+            return root;
+
+        DecisionTreeNode[] open = { root };
+        long[] seeds = { TrainingContext.rootSeed(trainingOption.seed(), 0) };
+        int[] leftHist = new int[nClasses];
+        int[] rightHist = new int[nClasses];
+        for (int depth = 1; open.length > 0; depth++) {
+            // as many nodes' counts at once as fit in histogramPoolBytes
+            int batch = (int) Math.max(1,
+                    Math.min(open.length, trainingOption.histogramPoolBytes() / (4L * nodeSize)));
+            int[] chosen = new int[open.length];
+            int[] childSlot = new int[2 * open.length];
+            int nOpen = 0;
+            for (int from = 0; from < open.length; from += batch) {
+                int fromNode = from;
+                long[] batchSeeds = Arrays.copyOfRange(seeds, fromNode, Math.min(open.length, from + batch));
+                int[] leftCounts = reduce(shards, executor, batchSeeds.length * nodeSize,
+                        shard -> shard.countLeft(fromNode, batchSeeds, nSample));
+                for (int s = fromNode; s < fromNode + batchSeeds.length; s++) {
+                    DecisionTreeNode node = open[s];
+                    int[] hist = node.getHistogram();
+                    float nodeImpurity = criterion.impurity(hist, node.getNTotal());
+                    float maxGain = 0f;
+                    int best = -1;
+                    for (int k = 0, offset = (s - fromNode) * nodeSize; k < nSample; k++, offset += nClasses) {
+                        int left = 0;
+                        for (int c = 0; c < nClasses; c++) {
+                            leftHist[c] = leftCounts[offset + c];
+                            rightHist[c] = hist[c] - leftHist[c];
+                            left += leftHist[c];
+                        }
+                        float gain = criterion.gain(nodeImpurity, leftHist, left, rightHist, node.getNTotal() - left);
+                        if (gain > maxGain) {
+                            maxGain = gain;
+                            best = k;
+                        }
+                    }
+                    chosen[s] = best >= 0 && maxGain > trainingOption.minInformationGain() ? best : -1;
+                    childSlot[2 * s] = childSlot[2 * s + 1] = -1;
+                    if (chosen[s] < 0)
+                        continue;
+                    DecisionTreeNode leftNode = new DecisionTreeNode(nClasses);
+                    DecisionTreeNode rightNode = new DecisionTreeNode(nClasses);
+                    for (int c = 0; c < nClasses; c++) {
+                        leftNode.getHistogram()[c] = leftCounts[(s - fromNode) * nodeSize + best * nClasses + c];
+                        rightNode.getHistogram()[c] = hist[c] - leftNode.getHistogram()[c];
+                    }
+                    leftNode.setNTotal(RandomDecisionTree.sum(leftNode.getHistogram()));
+                    rightNode.setNTotal(RandomDecisionTree.sum(rightNode.getHistogram()));
+                    // the chosen candidate, drawn again from the node's seed
+                    SplittableRandom random = new SplittableRandom(seeds[s]);
+                    ParameterSet param = null;
+                    for (int k = 0; k <= best; k++) {
+                        param = learner.sample(random);
+                    }
+                    node.setParam(param);
+                    node.setLeft(leftNode);
+                    node.setRight(rightNode);
+                }
+            }
+            // children are numbered in node order, the same as LevelWiseTree
+            for (int s = 0; s < open.length; s++) {
+                if (chosen[s] < 0)
+                    continue;
+                if (RandomDecisionTree.stopReason(trainingOption, depth + 1, open[s].getLeft().getNTotal()) == null)
+                    childSlot[2 * s] = nOpen++;
+                if (RandomDecisionTree.stopReason(trainingOption, depth + 1, open[s].getRight().getNTotal()) == null)
+                    childSlot[2 * s + 1] = nOpen++;
+            }
+            int[] shardChildSlot = childSlot;
+            forEach(shards, executor, shard -> {
+                shard.split(chosen, shardChildSlot);
+                return null;
+            });
+
+            DecisionTreeNode[] next = new DecisionTreeNode[nOpen];
+            long[] nextSeeds = new long[nOpen];
+            for (int s = 0; s < open.length; s++) {
+                for (int child = 2 * s; child <= 2 * s + 1; child++) {
+                    if (childSlot[child] < 0)
+                        continue;
+                    next[childSlot[child]] = child == 2 * s ? open[s].getLeft() : open[s].getRight();
+                    nextSeeds[childSlot[child]] = TrainingContext.childSeed(seeds[s], child == 2 * s);
+                }
+            }
+            open = next;
+            seeds = nextSeeds;
+        }
+        return root;
+    }
+
+    // sums the counts of all shards, length of each
+    private static int[] reduce(Shard[] shards, ExecutorService executor, int length,
+            Function<Shard, int[]> counts) {
+        List<int[]> all = forEach(shards, executor, counts);
+        int[] sum = new int[length];
+        for (int i = 0; i < all.size(); i++) {
+            int[] shardCounts = all.get(i);
+            if (shardCounts.length != length)
+                throw new IllegalStateException(
+                        "expected " + length + " counts from shard " + i + ", got " + shardCounts.length);
+            for (int j = 0; j < sum.length; j++) {
+                sum[j] += shardCounts[j];
+            }
+        }
+        return sum;
+    }
+
+    private static <T> List<T> forEach(Shard[] shards, ExecutorService executor, Function<Shard, T> call) {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Shard shard : shards) {
+            futures.add(executor.submit(() -> call.apply(shard)));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    private static final class LocalShard implements Shard {
+        private final FeatureMatrix data;
+        private final Learner learner;
+        // the open node of each row, -1 once it has reached a leaf
+        private int[] nodeOf;
+        // the candidates of the open nodes counted so far, by node
+        private final List<ParameterSet[]> params = new ArrayList<>();
+
+        LocalShard(FeatureMatrix data, Learner learner) {
+            this.data = data;
+            this.learner = learner;
+        }
+
+        @Override
+        public int[] classCounts() {
+            nodeOf = new int[data.nRows()];
+            params.clear();
+            int[] hist = new int[learner.nClasses()];
+            for (int row = 0; row < data.nRows(); row++) {
+                hist[data.getLabel(row)]++;
+            }
+            return hist;
+        }
+
+        @Override
+        public int[] countLeft(int fromNode, long[] seeds, int nSample) {
+            int nClasses = learner.nClasses();
+            int nodeSize = nSample * nClasses;
+            int toNode = fromNode + seeds.length;
+            for (long seed : seeds) {
+                SplittableRandom random = new SplittableRandom(seed);
+                ParameterSet[] nodeParams = new ParameterSet[nSample];
+                for (int k = 0; k < nSample; k++) {
+                    nodeParams[k] = learner.sample(random);
+                }
+                params.add(nodeParams);
+            }
+            int[] leftCounts = new int[seeds.length * nodeSize];
+            int[] start = new int[seeds.length + 1];
+            int[] rows = LevelWiseTree.groupByNode(null, nodeOf, fromNode, toNode, start);
+            int[] leftHist = new int[nClasses];
+            int[] rightHist = new int[nClasses];
+            for (int s = fromNode; s < toNode; s++) {
+                ParameterSet[] nodeParams = params.get(s);
+                for (int k = 0; k < nSample; k++) {
+                    Arrays.fill(leftHist, 0);
+                    nodeParams[k].countDecisions(data, rows, start[s - fromNode], start[s - fromNode + 1], null,
+                            leftHist, rightHist);
+                    System.arraycopy(leftHist, 0, leftCounts, (s - fromNode) * nodeSize + k * nClasses, nClasses);
+                }
+            }
+            return leftCounts;
+        }
+
+        @Override
+        public void split(int[] chosen, int[] childSlot) {
+            for (int row = 0; row < nodeOf.length; row++) {
+                int s = nodeOf[row];
+                if (s < 0)
+                    continue;
+                if (chosen[s] < 0) {
+                    nodeOf[row] = -1;
+                    continue;
+                }
+                nodeOf[row] = params.get(s)[chosen[s]].evaluateDecision(data, row) ? childSlot[2 * s]
+                        : childSlot[2 * s + 1];
+            }
+            params.clear();
+        }
+    }
+}
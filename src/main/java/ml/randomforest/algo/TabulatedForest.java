@@ -0,0 +1,394 @@
+package ml.randomforest.algo;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+
+/**
+ * A forest of threshold decisions over a few features tabulated on the grid
+ * its thresholds make: the forest's distribution is the same for all points
+ * of a cell of the grid, so it is computed once per cell, and classification
+ * looks up the cell of a point with a binary search of the thresholds of each
+ * feature, whatever the number of trees. The results are exactly those of the
+ * compiled forest.
+ * 
+ * The grid has the product over the features of their number of distinct
+ * thresholds plus one cells, a float per class each while tabulating, which
+ * quickly grows with the number of features and the size of the trees;
+ * tabulation fails beyond a memory budget. A compressed table keeps each
+ * distinct distribution once and a 2 or 4 byte reference to it per cell;
+ * compressing takes more memory while tabulating, which the budget counts.
+ */
+public class TabulatedForest {
+
+    final int nClasses;
+    // the sorted distinct thresholds of each feature, and the cells of the
+    // grid are numbered row-major over the features by these strides
+    final float[][] cuts;
+    final int[] strides;
+    // the distributions, one per cell, or the distinct ones with the
+    // reference of each cell in one of cellRefs16 or cellRefs32
+    final float[] distributions;
+    final char[] cellRefs16;
+    final int[] cellRefs32;
+
+    private TabulatedForest(int nClasses, float[][] cuts, int[] strides, float[] distributions, char[] cellRefs16,
+            int[] cellRefs32) {
+        this.nClasses = nClasses;
+        this.cuts = cuts;
+        this.strides = strides;
+        this.distributions = distributions;
+        this.cellRefs16 = cellRefs16;
+        this.cellRefs32 = cellRefs32;
+    }
+
+    /**
+     * 
+     * @param forest
+     *            an array of the decision tree root nodes, split by threshold
+     *            decisions only
+     * @param maxBytes
+     *            the most bytes the table may take while tabulating,
+     *            compressing included
+     * @param compress
+     *            whether to keep each distinct distribution once
+     * @return the tabulated forest
+     * @throws IllegalArgumentException
+     *             if the table would take more than maxBytes
+     */
+    public static TabulatedForest tabulate(DecisionTreeNode[] forest, long maxBytes, boolean compress) {
+        return tabulate(CompiledForest.compile(forest), maxBytes, compress);
+    }
+
+    /**
+     * @see #tabulate(DecisionTreeNode[], long, boolean)
+     */
+    public static TabulatedForest tabulate(CompiledForest compiled, long maxBytes, boolean compress) {
+        if (compiled.params != null)
+            throw new IllegalArgumentException("only forests split by threshold decisions can be tabulated");
+        int nFeatures = 0;
+        for (int n = 0; n < compiled.nNodes(); n++) {
+            nFeatures = Math.max(nFeatures, compiled.feature[n] + 1);
+        }
+        float[][] cuts = compiled.cuts(nFeatures);
+        int nClasses = compiled.nClasses;
+
+        long nCells = 1;
+        int[] strides = new int[nFeatures];
+        long tableBytes;
+        long bytes;
+        try {
+            for (int f = nFeatures - 1; f >= 0; f--) {
+                strides[f] = (int) Math.min(nCells, Integer.MAX_VALUE);
+                nCells = Math.multiplyExact(nCells, cuts[f].length + 1);
+            }
+            tableBytes = Math.multiplyExact(Math.multiplyExact(nCells, nClasses), 4L);
+            bytes = compress ? Math.addExact(tableBytes, compressBytes(nCells, tableBytes)) : tableBytes;
+        } catch (ArithmeticException e) {
+            tableBytes = Long.MAX_VALUE;
+            bytes = Long.MAX_VALUE;
+        }
+        // the table is one array, of at most Integer.MAX_VALUE - 8 floats
+        if (bytes > maxBytes || tableBytes / 4 > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException(String.format(
+                    "a table of %s cells (%s thresholds per feature) of %d classes takes %s bytes%s, "
+                            + "beyond the budget of %d",
+                    bytes == Long.MAX_VALUE ? "too many" : Long.toString(nCells), cellCounts(cuts), nClasses,
+                    bytes == Long.MAX_VALUE ? "too many" : Long.toString(bytes),
+                    compress ? " to compress" : "", maxBytes));
+
+        // the threshold of each node as its index in the cuts of its feature
+        int[] cut = new int[compiled.nNodes()];
+        for (int n = 0; n < cut.length; n++) {
+            cut[n] = Arrays.binarySearch(cuts[compiled.feature[n]], compiled.threshold[n] + 0f);
+        }
+        float[] table = new float[(int) nCells * nClasses];
+        if (nFeatures == 0) {
+            fill(compiled, cut, strides, table, new int[0], new int[0]);
+        } else {
+            // each slice of the cells of the feature of the most cuts adds up
+            // all trees on its own, in tree order, as the compiled forest does
+            int widest = 0;
+            for (int f = 1; f < nFeatures; f++) {
+                if (cuts[f].length > cuts[widest].length)
+                    widest = f;
+            }
+            int sliced = widest;
+            IntStream.range(0, cuts[sliced].length + 1).parallel().forEach(i -> {
+                int[] lowInclusive = new int[cuts.length];
+                int[] hiExclusive = new int[cuts.length];
+                for (int f = 0; f < cuts.length; f++) {
+                    hiExclusive[f] = cuts[f].length + 1;
+                }
+                lowInclusive[sliced] = i;
+                hiExclusive[sliced] = i + 1;
+                fill(compiled, cut, strides, table, lowInclusive, hiExclusive);
+            });
+        }
+        if (!compress)
+            return new TabulatedForest(nClasses, cuts, strides, table, null, null);
+
+        int[] refs = new int[(int) nCells];
+        int nDistinct = dedupe(table, nClasses, refs);
+        float[] distributions = nDistinct == refs.length ? table : Arrays.copyOf(table, nDistinct * nClasses);
+        if (nDistinct > Character.MAX_VALUE + 1)
+            return new TabulatedForest(nClasses, cuts, strides, distributions, null, refs);
+        char[] refs16 = new char[refs.length];
+        for (int cell = 0; cell < refs.length; cell++) {
+            refs16[cell] = (char) refs[cell];
+        }
+        return new TabulatedForest(nClasses, cuts, strides, distributions, refs16, null);
+    }
+
+    // the bytes compressing takes on top of the table: the references as
+    // ints, and the larger of the hash table while deduplicating, below 6
+    // ints per cell as it doubles past half full, and the copy of the
+    // distinct distributions, at most the table; the 2 byte references are
+    // made once the table is dropped, and take less
+    private static long compressBytes(long nCells, long tableBytes) {
+        return Math.addExact(Math.multiplyExact(nCells, 4L),
+                Math.max(Math.multiplyExact(nCells + 4, 24L), tableBytes));
+    }
+
+    // moves the distinct distributions of the table, equal when of the same
+    // float bits, to its front in the order of their first cells, and sets
+    // the reference of each cell; they are looked up by an open addressing
+    // hash table of their numbers plus one
+    private static int dedupe(float[] table, int nClasses, int[] refs) {
+        int[] slots = new int[16];
+        int nDistinct = 0;
+        for (int cell = 0; cell < refs.length; cell++) {
+            int offset = cell * nClasses;
+            int mask = slots.length - 1;
+            int s = hash(table, offset, nClasses) & mask;
+            while (slots[s] != 0 && !sameBits(table, (slots[s] - 1) * nClasses, offset, nClasses)) {
+                s = (s + 1) & mask;
+            }
+            if (slots[s] != 0) {
+                refs[cell] = slots[s] - 1;
+                continue;
+            }
+            // never past the cell, so no distribution not looked at yet is
+            // overwritten
+            System.arraycopy(table, offset, table, nDistinct * nClasses, nClasses);
+            refs[cell] = nDistinct++;
+            slots[s] = nDistinct;
+            if (2 * nDistinct > slots.length)
+                slots = rehash(slots, table, nClasses);
+        }
+        return nDistinct;
+    }
+
+    private static int[] rehash(int[] slots, float[] table, int nClasses) {
+        int[] grown = new int[2 * slots.length];
+        int mask = grown.length - 1;
+        for (int d : slots) {
+            if (d == 0)
+                continue;
+            int s = hash(table, (d - 1) * nClasses, nClasses) & mask;
+            while (grown[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            grown[s] = d;
+        }
+        return grown;
+    }
+
+    private static int hash(float[] table, int offset, int nClasses) {
+        int h = 1;
+        for (int c = 0; c < nClasses; c++) {
+            h = 31 * h + Float.floatToIntBits(table[offset + c]);
+        }
+        // spread the high bits to the low ones the mask keeps
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameBits(float[] table, int offset, int otherOffset, int nClasses) {
+        for (int c = 0; c < nClasses; c++) {
+            if (Float.floatToIntBits(table[offset + c]) != Float.floatToIntBits(table[otherOffset + c]))
+                return false;
+        }
+        return true;
+    }
+
+    private static String cellCounts(float[][] cuts) {
+        StringBuilder counts = new StringBuilder();
+        for (int f = 0; f < cuts.length; f++) {
+            counts.append(f == 0 ? "" : " x ").append(cuts[f].length);
+        }
+        return counts.toString();
+    }
+
+    // adds the distributions of all trees, one after the other, to the cells
+    // of the box [lowInclusive, hiExclusive) of the grid, then averages them
+    private static void fill(CompiledForest compiled, int[] cut, int[] strides, float[] table, int[] lowInclusive,
+            int[] hiExclusive) {
+        for (int t = 0; t < compiled.nTrees(); t++) {
+            fillLeaves(compiled, cut, strides, table, compiled.roots[t], lowInclusive, hiExclusive);
+        }
+        int nClasses = compiled.nClasses;
+        forEachCell(strides, lowInclusive, hiExclusive, cell -> {
+            for (int c = 0; c < nClasses; c++) {
+                table[cell * nClasses + c] = table[cell * nClasses + c] / compiled.nTrees();
+            }
+        });
+    }
+
+    // adds the distributions of the leaves under node n to the cells of the
+    // box they cover, going left at cells up to the node's cut; the box is
+    // narrowed for the children and restored
+    private static void fillLeaves(CompiledForest compiled, int[] cut, int[] strides, float[] table, int n,
+            int[] lowInclusive, int[] hiExclusive) {
+        int nClasses = compiled.nClasses;
+        if (n < 0) {
+            int leafOffset = ~n * nClasses;
+            forEachCell(strides, lowInclusive, hiExclusive, cell -> {
+                for (int c = 0; c < nClasses; c++) {
+                    table[cell * nClasses + c] += compiled.leafDistributions[leafOffset + c];
+                }
+            });
+            return;
+        }
+        int f = compiled.feature[n];
+        int low = lowInclusive[f], hi = hiExclusive[f];
+        if (low <= cut[n]) {
+            hiExclusive[f] = Math.min(hi, cut[n] + 1);
+            fillLeaves(compiled, cut, strides, table, compiled.left[n], lowInclusive, hiExclusive);
+            hiExclusive[f] = hi;
+        }
+        if (hi > cut[n] + 1) {
+            lowInclusive[f] = Math.max(low, cut[n] + 1);
+            fillLeaves(compiled, cut, strides, table, compiled.right[n], lowInclusive, hiExclusive);
+            lowInclusive[f] = low;
+        }
+    }
+
+    private interface CellConsumer {
+        void accept(int cell);
+    }
+
+    // the cells of the box [lowInclusive, hiExclusive), the last feature
+    // varying fastest
+    private static void forEachCell(int[] strides, int[] lowInclusive, int[] hiExclusive, CellConsumer consumer) {
+        int nFeatures = strides.length;
+        if (nFeatures == 0) {
+            consumer.accept(0);
+            return;
+        }
+        int[] at = lowInclusive.clone();
+        int first = 0;
+        for (int f = 0; f < nFeatures; f++) {
+            first += at[f] * strides[f];
+        }
+        int last = nFeatures - 1;
+        while (true) {
+            for (int cell = first; cell < first + (hiExclusive[last] - lowInclusive[last]); cell++) {
+                consumer.accept(cell);
+            }
+            // the next row of the box, carrying over the features before the
+            // last one
+            int f = last - 1;
+            while (f >= 0 && ++at[f] == hiExclusive[f]) {
+                first -= (at[f] - 1 - lowInclusive[f]) * strides[f];
+                at[f] = lowInclusive[f];
+                f--;
+            }
+            if (f < 0)
+                return;
+            first += strides[f];
+        }
+    }
+
+    public int nClasses() {
+        return nClasses;
+    }
+
+    /**
+     * 
+     * @return the number of cells of the grid
+     */
+    public int nCells() {
+        return cellRefs16 != null ? cellRefs16.length
+                : cellRefs32 != null ? cellRefs32.length : distributions.length / nClasses;
+    }
+
+    /**
+     * 
+     * @return the number of distributions stored, distinct ones if
+     *         compressed
+     */
+    public int nDistributions() {
+        return distributions.length / nClasses;
+    }
+
+    /**
+     * 
+     * @return the bytes of the arrays of the table, without their headers
+     */
+    public long sizeInBytes() {
+        long bytes = 4L * distributions.length + 4L * strides.length;
+        for (float[] c : cuts) {
+            bytes += 4L * c.length;
+        }
+        if (cellRefs16 != null)
+            bytes += 2L * cellRefs16.length;
+        if (cellRefs32 != null)
+            bytes += 4L * cellRefs32.length;
+        return bytes;
+    }
+
+    /**
+     * 
+     * @param features
+     *            the features of the data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(float[] features, float[] p) {
+        int cell = 0;
+        for (int f = 0; f < cuts.length; f++) {
+            cell += cellIndex(cuts[f], features[f]) * strides[f];
+        }
+        copyDistribution(cell, p);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the data to test
+     * @param row
+     *            the row of data to test
+     * @param p
+     *            receives the distribution mass function, at least nClasses
+     *            long
+     */
+    public void classify(FeatureMatrix data, int row, float[] p) {
+        int cell = 0;
+        for (int f = 0; f < cuts.length; f++) {
+            cell += cellIndex(cuts[f], data.getFeature(row, f)) * strides[f];
+        }
+        copyDistribution(cell, p);
+    }
+
+    // the number of cuts x is not below, as x < cut decides; NaN is below
+    // none
+    private static int cellIndex(float[] cuts, float x) {
+        int low = 0, hi = cuts.length;
+        while (low < hi) {
+            int mid = (low + hi) >>> 1;
+            if (x < cuts[mid])
+                hi = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    private void copyDistribution(int cell, float[] p) {
+        int d = cellRefs16 != null ? cellRefs16[cell] : cellRefs32 != null ? cellRefs32[cell] : cell;
+        System.arraycopy(distributions, d * nClasses, p, 0, nClasses);
+    }
+}
@@ -0,0 +1,38 @@
+package ml.randomforest.algo;
+
+/**
+ * The inner loops of scoring and applying threshold decisions, value <
+ * threshold goes left, on one heap feature column over the rows listed in a
+ * range of a row index, @see ml.randomforest.model.ThresholdDecision and
+ * ml.randomforest.model.FeatureMatrix#heapColumn(int). SplitMode.RANDOM uses
+ * them for the heap columns when its candidates are threshold decisions.
+ * 
+ * The kernel is found with {@link java.util.ServiceLoader}, so that one built
+ * for a newer JDK, such as the vector subproject's, replaces
+ * {@link ScalarThresholdKernel} when it is on the class path and can run. The
+ * system property ml.randomforest.scalarKernel=true keeps the scalar one.
+ * Implementations must be thread-safe.
+ */
+public interface ThresholdKernel {
+
+    /**
+     * Counts, for each threshold, the rows going left by class: adds the
+     * weight of row = index[i], for i in [lowInclusive, hiExclusive), to
+     * leftCounts[k * nClasses + labels[row]] for each threshold k with
+     * column[row] < thresholds[k].
+     * 
+     * @param weights
+     *            the weight of each row, null if every row counts once
+     */
+    public void countLeft(float[] column, int[] labels, int[] weights, int[] index, int lowInclusive,
+            int hiExclusive, float[] thresholds, int nClasses, int[] leftCounts);
+
+    /**
+     * Moves the rows of index[lowInclusive, hiExclusive) with column[row] <
+     * threshold to the front of the range, keeping the order of those going
+     * left.
+     * 
+     * @return the index position of the first row going right
+     */
+    public int partition(float[] column, int[] index, int lowInclusive, int hiExclusive, float threshold);
+}
@@ -0,0 +1,41 @@
+package ml.randomforest.algo;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The threshold kernel in use, loaded once, @see ThresholdKernel
+ */
+final class ThresholdKernels {
+
+    static final ThresholdKernel SCALAR = new ScalarThresholdKernel();
+
+    static final ThresholdKernel KERNEL = load();
+
+    private ThresholdKernels() {
+    }
+
+    /**
+     * 
+     * @return the first kernel provided that can be instantiated, the scalar
+     *         one if none can, e.g. for want of a JDK module it needs
+     */
+    private static ThresholdKernel load() {
+        if (Boolean.getBoolean("ml.randomforest.scalarKernel"))
+            return SCALAR;
+        Iterator<ThresholdKernel> kernels = ServiceLoader.load(ThresholdKernel.class).iterator();
+        try {
+            while (kernels.hasNext()) {
+                try {
+                    return kernels.next();
+                } catch (ServiceConfigurationError | LinkageError e) {
+                    // try the next one
+                }
+            }
+        } catch (ServiceConfigurationError e) {
+            // an unreadable provider configuration
+        }
+        return SCALAR;
+    }
+}
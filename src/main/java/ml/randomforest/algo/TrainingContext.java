@@ -0,0 +1,235 @@
+package ml.randomforest.algo;
+
+import java.util.SplittableRandom;
+
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.SplitMode;
+import ml.randomforest.model.ThresholdLearner;
+import ml.randomforest.model.TrainingListener;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * What one tree is trained on: the data and what was prepared from it once per
+ * forest, which are shared read-only with the other trees, and the tree's own
+ * row index permutation and working state.
+ */
+final class TrainingContext {
+
+    // the increment of SplitMix64, between the seeds mixed
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    final FeatureMatrix data;
+    final Learner learner;
+    final TrainingOptions trainingOption;
+    final boolean parallelTree;
+    // null when not measuring
+    final TrainingListener listener;
+    // only in SplitMode.HISTOGRAM
+    final FeatureBins bins;
+    // only in SplitMode.EXACT, the shared orders with the tree's own positions
+    final PresortedFeatures sorted;
+
+    // per tree: its number in the forest, the seed of its root node, the
+    // rows to train on, and with bootstrap the number of times each row is in
+    // the tree's sample (null otherwise, every row counts once)
+    final int tree;
+    final long rootSeed;
+    final int[] index;
+    final int[] weights;
+    final HistogramPool histograms;
+    // running totals of the work done, for the listener, per tree or forked
+    // subtree
+    long rowsScanned;
+    long nCandidates;
+
+    private TrainingContext(FeatureMatrix data, Learner learner, TrainingOptions trainingOption,
+            boolean parallelTree, FeatureBins bins, PresortedFeatures sorted, int tree, int[] index,
+            int[] weights) {
+        this(data, learner, trainingOption, parallelTree, bins, sorted, tree, index, weights,
+                bins == null || index == null ? null
+                        : new HistogramPool(bins.tableSize, trainingOption.histogramPoolBytes()));
+    }
+
+    private TrainingContext(FeatureMatrix data, Learner learner, TrainingOptions trainingOption,
+            boolean parallelTree, FeatureBins bins, PresortedFeatures sorted, int tree, int[] index, int[] weights,
+            HistogramPool histograms) {
+        this.data = data;
+        this.learner = learner;
+        this.trainingOption = trainingOption;
+        this.parallelTree = parallelTree;
+        this.listener = trainingOption.listener();
+        this.bins = bins;
+        this.sorted = sorted;
+        this.tree = tree;
+        this.rootSeed = rootSeed(trainingOption.seed(), tree);
+        this.index = index;
+        this.weights = weights;
+        this.histograms = histograms;
+    }
+
+    /**
+     * Prepares what the split mode of trainingOption needs from the data,
+     * once for all trees trained on it.
+     * 
+     * @param parallelTree
+     *            whether a tree may use more than one core, evaluating the
+     *            candidates of large nodes in parallel and forking large
+     *            subtrees, @see TrainingOptions#minParallelSearchCost()
+     * @return the shared part of the trees' contexts, @see #forTree(int)
+     */
+    static TrainingContext prepare(FeatureMatrix data, Learner learner, TrainingOptions trainingOption,
+            boolean parallelTree) {
+        FeatureBins bins = null;
+        PresortedFeatures sorted = null;
+        if (trainingOption.splitMode() != SplitMode.RANDOM && !(learner instanceof ThresholdLearner))
+            throw new IllegalArgumentException(
+                    trainingOption.splitMode() + " split mode needs a " + ThresholdLearner.class.getSimpleName());
+        if (trainingOption.levelWise() && trainingOption.splitMode() == SplitMode.EXACT)
+            throw new IllegalArgumentException("level-wise growth needs RANDOM or HISTOGRAM split mode");
+        if (trainingOption.splitMode() == SplitMode.EXACT && !trainingOption.splitCriterion().isSumOfTerms())
+            throw new IllegalArgumentException(
+                    "EXACT split mode needs a sum of terms, not the " + trainingOption.splitCriterion() + " criterion");
+        checkLabels(data, learner.nClasses());
+        if (trainingOption.splitMode() == SplitMode.HISTOGRAM)
+            bins = FeatureBins.of(data, learner.nClasses(), trainingOption.maxBins());
+        if (trainingOption.splitMode() == SplitMode.EXACT)
+            sorted = PresortedFeatures.of(data);
+        return new TrainingContext(data, learner, trainingOption, parallelTree, bins, sorted, -1, null, null);
+    }
+
+    /**
+     * 
+     * @throws IllegalArgumentException
+     *             if a row's label is not one of the nClasses classes, such as
+     *             -1 for unknown
+     */
+    static void checkLabels(FeatureMatrix data, int nClasses) {
+        for (int row = 0; row < data.nRows(); row++) {
+            int label = data.getLabel(row);
+            if (label < 0 || label >= nClasses)
+                throw new IllegalArgumentException(
+                        "row " + row + " has label " + label + ", expected 0 to " + (nClasses - 1));
+        }
+    }
+
+    /**
+     * Adapts data points to train on. The data points are kept only if the
+     * learner's decisions may evaluate them rather than the matrix's rows,
+     * which would otherwise copy each row per decision, @see
+     * ml.randomforest.model.ParameterSet#evaluateDecision(FeatureMatrix, int);
+     * the decisions of a ThresholdLearner read the matrix.
+     * 
+     * @return the data as a matrix, on the heap
+     */
+    static FeatureMatrix matrix(DataPoint[] data, Learner learner) {
+        return FeatureMatrix.fromDataPoints(data, false, !(learner instanceof ThresholdLearner));
+    }
+
+    /**
+     * 
+     * @param tree
+     *            the tree's number in the forest
+     * @return the context of one tree, with its own row index over all rows,
+     *         or over the rows of a bootstrap sample
+     */
+    TrainingContext forTree(int tree) {
+        if (!trainingOption.bootstrap()) {
+            int[] index = RandomDecisionTree.identityPermutation(data.nRows());
+            return new TrainingContext(data, learner, trainingOption, parallelTree, bins,
+                    sorted == null ? null : sorted.forTree(index), tree, index, null);
+        }
+
+        int nRows = data.nRows();
+        int[] weights = new int[nRows];
+        SplittableRandom random = new SplittableRandom(treeSeed(trainingOption.seed(), tree));
+        for (int i = 0; i < nRows; i++) {
+            weights[random.nextInt(nRows)]++;
+        }
+        int nInBag = 0;
+        for (int row = 0; row < nRows; row++) {
+            if (weights[row] > 0)
+                nInBag++;
+        }
+        int[] index = new int[nInBag];
+        for (int row = 0, i = 0; row < nRows; row++) {
+            if (weights[row] > 0)
+                index[i++] = row;
+        }
+        return new TrainingContext(data, learner, trainingOption, parallelTree, bins,
+                sorted == null ? null : sorted.forTree(index), tree, index, weights);
+    }
+
+    /**
+     * 
+     * @return a context for a forked subtree, sharing everything with this
+     *         one but the running totals of the work done
+     */
+    TrainingContext forSubtree() {
+        return new TrainingContext(data, learner, trainingOption, parallelTree, bins, sorted, tree, index, weights,
+                histograms);
+    }
+
+    /**
+     * 
+     * @return the seed of tree in a forest of the given seed
+     */
+    static long treeSeed(long seed, int tree) {
+        return mix(seed + (tree + 1L) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * 
+     * @return the seed of the root node of tree in a forest of the given seed
+     */
+    static long rootSeed(long seed, int tree) {
+        return mix(treeSeed(seed, tree) + GOLDEN_GAMMA);
+    }
+
+    /**
+     * 
+     * @return the seed of the left or right child of a node of the given
+     *         seed, so that a node's seed only depends on its path from the
+     *         root, whichever thread trains it and in whatever order
+     */
+    static long childSeed(long seed, boolean left) {
+        return mix(seed + (left ? 2 : 3) * GOLDEN_GAMMA);
+    }
+
+    // the output function of SplitMix64, SplittableRandom's generator
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 
+     * @return how many times row is in the tree's sample
+     */
+    int weight(int row) {
+        return weights == null ? 1 : weights[row];
+    }
+
+    /**
+     * Returns a count table no longer needed to the pool, if any.
+     */
+    void release(int[] table) {
+        if (table != null)
+            histograms.release(table);
+    }
+
+    /**
+     * 
+     * @return the number of features to search on each node when not
+     *         sampling parameter sets
+     */
+    int nFeaturesPerNode() {
+        int nFeatures = data.nFeatures();
+        int n = trainingOption.nFeaturesPerNode();
+        if (n <= 0)
+            n = Math.max(1, (int) Math.sqrt(nFeatures));
+        return Math.min(n, nFeatures);
+    }
+}
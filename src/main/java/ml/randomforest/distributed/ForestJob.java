@@ -0,0 +1,27 @@
+package ml.randomforest.distributed;
+
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSetCodec;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * What a forest trained by several processes is trained with, @see
+ * TrainingCoordinator. The coordinator and each worker create their own
+ * instance of the job's class, with its public constructor taking no
+ * argument, so it has to create the same learner and options in every
+ * process; the seed is the coordinator's.
+ */
+public interface ForestJob {
+
+    public Learner learner();
+
+    public TrainingOptions trainingOptions();
+
+    /**
+     * @return the codecs of the parameter sets the trees are split by, other
+     *         than threshold decisions of a ThresholdLearner, which need none
+     */
+    public default ParameterSetCodec[] codecs() {
+        return new ParameterSetCodec[0];
+    }
+}
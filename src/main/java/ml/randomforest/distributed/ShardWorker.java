@@ -0,0 +1,121 @@
+package ml.randomforest.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+
+import ml.randomforest.algo.ShardedTree;
+import ml.randomforest.model.MappedFeatureMatrix;
+
+/**
+ * A process holding one shard of the rows of a tree trained by
+ * {@link ShardedTraining}: it connects to the coordinator, opens the shard
+ * file the coordinator names and answers its calls, @see ShardedTree.Shard,
+ * until told to stop. Only counts and chosen candidates cross the socket.
+ *
+ * <pre>
+ * java ml.randomforest.distributed.ShardWorker coordinator-host coordinator-port shard
+ * </pre>
+ *
+ * with shard the index of the worker's shard file in the coordinator's list.
+ * The job's class must be on the worker's class path.
+ */
+public class ShardWorker {
+
+    static final byte CLASS_COUNTS = 1;
+    static final byte COUNT_LEFT = 2;
+    static final byte SPLIT = 3;
+    static final byte STOP = 4;
+    static final int OK = 0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: ShardWorker coordinator-host coordinator-port shard");
+            System.exit(2);
+        }
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            run(socket, Integer.parseInt(args[2]));
+        }
+    }
+
+    static void run(Socket socket, int shardId) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(TrainingCoordinator.MAGIC);
+        out.writeInt(shardId);
+        out.flush();
+        String jobClass = in.readUTF();
+        File file = new File(in.readUTF());
+
+        ShardedTree.Shard shard;
+        try {
+            ForestJob job = TrainingCoordinator.newJob(jobClass);
+            shard = ShardedTree.shard(MappedFeatureMatrix.open(file), job.learner());
+        } catch (ReflectiveOperationException | RuntimeException | IOException e) {
+            fail(out, e);
+            return;
+        }
+        out.writeInt(OK);
+        out.flush();
+        while (true) {
+            byte call = in.readByte();
+            try {
+                switch (call) {
+                case CLASS_COUNTS:
+                    writeInts(out, shard.classCounts());
+                    break;
+                case COUNT_LEFT: {
+                    int fromNode = in.readInt();
+                    long[] seeds = new long[in.readInt()];
+                    for (int s = 0; s < seeds.length; s++) {
+                        seeds[s] = in.readLong();
+                    }
+                    int nSample = in.readInt();
+                    writeInts(out, shard.countLeft(fromNode, seeds, nSample));
+                    break;
+                }
+                case SPLIT: {
+                    int[] chosen = readInts(in);
+                    int[] childSlot = readInts(in);
+                    shard.split(chosen, childSlot);
+                    out.writeInt(OK);
+                    break;
+                }
+                case STOP:
+                    return;
+                default:
+                    throw new IOException("unknown call " + call);
+                }
+            } catch (RuntimeException e) {
+                fail(out, e);
+                return;
+            }
+            out.flush();
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void fail(DataOutputStream out, Exception e) throws IOException {
+        out.writeInt(TrainingCoordinator.FAILED);
+        out.writeUTF(String.valueOf(e));
+        out.flush();
+    }
+}
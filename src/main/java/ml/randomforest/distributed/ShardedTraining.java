@@ -0,0 +1,216 @@
+package ml.randomforest.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import ml.randomforest.algo.ShardedTree;
+import ml.randomforest.distributed.TrainingCoordinator.WorkerLauncher;
+import ml.randomforest.model.DecisionTreeNode;
+
+/**
+ * Trains one tree on rows sharded across worker processes, a shard file each,
+ * @see ShardedTree and ShardWorker. The coordinator draws nothing from the
+ * rows: it sums the shards' count tables, picks the splits and sends the
+ * chosen candidates back. A shard holds state no other worker has, so a
+ * failed worker fails the training.
+ *
+ * <pre>
+ * worker:      int MAGIC, int shard
+ * coordinator: UTF job class, UTF shard path
+ * worker:      OK, or FAILED, UTF message
+ * then per call:
+ * coordinator: CLASS_COUNTS
+ *              | COUNT_LEFT, int fromNode, int n, long seed * n, int nSample
+ *              | SPLIT, int n, int chosen * n, int 2n, int childSlot * 2n
+ *              | STOP
+ * worker:      int n, int count * n (OK for SPLIT), or FAILED, UTF message
+ * </pre>
+ */
+public class ShardedTraining {
+
+    // how long to wait for the workers to connect
+    private static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+
+    private ShardedTraining() {
+    }
+
+    /**
+     * Trains with a worker process on this machine per shard.
+     *
+     * @param jobClass
+     *            the job, created in every process
+     * @param shards
+     *            the rows, files of ml.randomforest.model.MappedFeatureMatrix
+     * @return the decision tree root node, the same as
+     *         RandomDecisionTree#trainClassifier(FeatureMatrix, Learner,
+     *         TrainingOptions) grows level-wise on all the shards' rows
+     */
+    public static DecisionTreeNode trainClassifier(Class<? extends ForestJob> jobClass, File[] shards)
+            throws IOException {
+        return trainClassifier(jobClass, shards, TrainingCoordinator.localProcesses(ShardWorker.class),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     *
+     * @param shards
+     *            the rows, files of ml.randomforest.model.MappedFeatureMatrix
+     *            at the path the worker of each sees
+     * @param launcher
+     *            starts the worker of each shard, with the shard's index as
+     *            its id, or null if they are started apart and connect on
+     *            their own
+     * @param bindAddress
+     *            the address to listen for workers on, port 0 for any free
+     *            port
+     * @throws IOException
+     *             if a worker failed
+     */
+    public static DecisionTreeNode trainClassifier(Class<? extends ForestJob> jobClass, File[] shards,
+            WorkerLauncher launcher, InetSocketAddress bindAddress) throws IOException {
+        ForestJob job = TrainingCoordinator.newJob(jobClass);
+        List<Process> processes = new ArrayList<>();
+        RemoteShard[] remotes = new RemoteShard[shards.length];
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(bindAddress);
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            InetSocketAddress address = (InetSocketAddress) server.getLocalSocketAddress();
+            if (launcher != null) {
+                for (int i = 0; i < shards.length; i++) {
+                    processes.add(launcher.launch(address, i));
+                }
+            }
+            for (int connected = 0; connected < shards.length; connected++) {
+                Socket socket = server.accept();
+                try {
+                    RemoteShard remote = new RemoteShard(socket);
+                    int shard = remote.hello(jobClass, shards);
+                    if (remotes[shard] != null)
+                        throw new IOException("shard " + shard + " connected twice");
+                    remotes[shard] = remote;
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+            }
+            DecisionTreeNode root = ShardedTree.trainClassifier(remotes, job.learner(), job.trainingOptions());
+            for (RemoteShard remote : remotes) {
+                remote.stop();
+            }
+            return root;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (RemoteShard remote : remotes) {
+                if (remote != null)
+                    remote.socket.close();
+            }
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    // a shard in a worker process, over its connection
+    private static final class RemoteShard implements ShardedTree.Shard {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private int shard = -1;
+
+        RemoteShard(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        // tells the worker its job and shard file, once it is loaded returns
+        // the worker's shard
+        int hello(Class<? extends ForestJob> jobClass, File[] shards) throws IOException {
+            if (in.readInt() != TrainingCoordinator.MAGIC)
+                throw new IOException("not a shard worker: " + socket.getRemoteSocketAddress());
+            shard = in.readInt();
+            if (shard < 0 || shard >= shards.length)
+                throw new IOException("no shard " + shard + " of " + shards.length);
+            out.writeUTF(jobClass.getName());
+            out.writeUTF(shards[shard].getAbsolutePath());
+            out.flush();
+            reply();
+            return shard;
+        }
+
+        @Override
+        public int[] classCounts() {
+            try {
+                out.writeByte(ShardWorker.CLASS_COUNTS);
+                out.flush();
+                return readCounts();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int[] countLeft(int fromNode, long[] seeds, int nSample) {
+            try {
+                out.writeByte(ShardWorker.COUNT_LEFT);
+                out.writeInt(fromNode);
+                out.writeInt(seeds.length);
+                for (long seed : seeds) {
+                    out.writeLong(seed);
+                }
+                out.writeInt(nSample);
+                out.flush();
+                return readCounts();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void split(int[] chosen, int[] childSlot) {
+            try {
+                out.writeByte(ShardWorker.SPLIT);
+                ShardWorker.writeInts(out, chosen);
+                ShardWorker.writeInts(out, childSlot);
+                out.flush();
+                reply();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void stop() throws IOException {
+            out.writeByte(ShardWorker.STOP);
+            out.flush();
+        }
+
+        private int[] readCounts() throws IOException {
+            int n = reply();
+            int[] counts = new int[n];
+            for (int i = 0; i < n; i++) {
+                counts[i] = in.readInt();
+            }
+            return counts;
+        }
+
+        // the first int of the worker's reply, unless it failed
+        private int reply() throws IOException {
+            int n = in.readInt();
+            if (n == TrainingCoordinator.FAILED)
+                throw new IOException("shard " + shard + " failed: " + in.readUTF());
+            return n;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package ml.randomforest.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSetCodec;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * Trains a forest with several worker processes, each training ranges of its
+ * trees on the same data set file, @see TrainingWorker. The coordinator
+ * listens on a socket for the workers, hands each a range of trees at a time
+ * and puts the trees they send back together into the forest. As each tree
+ * is trained from the seed of the job's options and its number, @see
+ * ml.randomforest.algo.RandomForest#trainTrees, the forest is the one a
+ * single process trains, however the trees were shared out.
+ *
+ * A worker whose connection fails or whose process exits before training is
+ * done has its unfinished trees handed to the others, and is replaced by a
+ * new one from the launcher while retries are left; so is a launched worker
+ * which does not connect within a minute, and one which sends nothing for a
+ * minute while training, as it sends a heartbeat every few seconds. Training fails once no worker is
+ * left, when no worker started apart connects within a minute, or when a
+ * worker reports an error, as another worker would fail the same way.
+ *
+ * <pre>
+ * worker:      int MAGIC, int worker id
+ * coordinator: UTF job class, UTF data set path, long seed
+ * then per range:
+ * coordinator: int fromTree, int toTree, or STOP
+ * worker:      (int tree, the tree, @see TreeStream) per tree as it is
+ *              trained, in any order, or HEARTBEAT, then RANGE_DONE
+ *              or FAILED, UTF message
+ * </pre>
+ */
+public class TrainingCoordinator {
+
+    static final int MAGIC = 0x52465457; // "RFTW"
+    static final int STOP = -1;
+    static final int RANGE_DONE = -1;
+    static final int FAILED = -2;
+    static final int HEARTBEAT = -3;
+    static final int HEARTBEAT_MILLIS = 10_000;
+    static final int EXTERNAL_WORKER = -1;
+
+    // how long to wait for a worker to connect
+    private static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+    // how long to wait for a training worker's heartbeat or trees
+    private static final int READ_TIMEOUT_MILLIS = 6 * HEARTBEAT_MILLIS;
+
+    /**
+     * Starts a worker process, to connect to the coordinator.
+     */
+    public interface WorkerLauncher {
+        /**
+         *
+         * @param coordinator
+         *            the address the coordinator listens on
+         * @param workerId
+         *            the id to pass to the worker
+         * @return the worker's process
+         */
+        public Process launch(InetSocketAddress coordinator, int workerId) throws IOException;
+    }
+
+    /**
+     * Starts workers as processes on this machine, with the java command and
+     * class path of this JVM.
+     */
+    public static final WorkerLauncher LOCAL_PROCESSES = localProcesses(TrainingWorker.class);
+
+    /**
+     *
+     * @param main
+     *            the worker's class, whose main takes the coordinator's host
+     *            and port and the worker id
+     * @return a launcher starting workers as processes on this machine
+     */
+    public static WorkerLauncher localProcesses(Class<?> main) {
+        return (coordinator, workerId) -> new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+                System.getProperty("java.class.path"), main.getName(), coordinator.getHostString(),
+                Integer.toString(coordinator.getPort()), Integer.toString(workerId)).inheritIO().start();
+    }
+
+    private final Class<? extends ForestJob> jobClass;
+    private final File dataset;
+    private final int nWorkers;
+    private final int treesPerRange;
+    private final int maxRetries;
+    private final WorkerLauncher launcher;
+    // shorter in tests
+    int readTimeoutMillis = READ_TIMEOUT_MILLIS;
+
+    // the state of a training, guarded by this
+    private DecisionTreeNode[] forest;
+    private int nTreesDone;
+    private final Deque<int[]> ranges = new ArrayDeque<>();
+    private final Map<Integer, Process> processes = new HashMap<>();
+    private final Set<Integer> liveWorkers = new HashSet<>();
+    private final Set<Integer> connectedWorkers = new HashSet<>();
+    private int nextWorkerId;
+    private int retriesLeft;
+    private IOException failure;
+    private InetSocketAddress address;
+
+    /**
+     *
+     * @param jobClass
+     *            the job, created in every process
+     * @param dataset
+     *            the data set, a file of
+     *            ml.randomforest.model.MappedFeatureMatrix at the same path
+     *            for all workers
+     * @param nWorkers
+     *            the number of workers to launch
+     * @param treesPerRange
+     *            the most trees handed to a worker at once
+     * @param maxRetries
+     *            the most workers launched in place of failed ones
+     * @param launcher
+     *            starts the workers, or null if they are started apart and
+     *            connect on their own
+     */
+    public TrainingCoordinator(Class<? extends ForestJob> jobClass, File dataset, int nWorkers, int treesPerRange,
+            int maxRetries, WorkerLauncher launcher) {
+        if (treesPerRange <= 0)
+            throw new IllegalArgumentException("treesPerRange should be positive, got " + treesPerRange);
+        this.jobClass = jobClass;
+        this.dataset = dataset.getAbsoluteFile();
+        this.nWorkers = nWorkers;
+        this.treesPerRange = treesPerRange;
+        this.maxRetries = maxRetries;
+        this.launcher = launcher;
+    }
+
+    /**
+     * Trains with workers launched as processes on this machine, a range of
+     * trees for each about four times.
+     *
+     * @return an array of the decision tree root nodes, the same as
+     *         RandomForest#trainClassifier(FeatureMatrix, Learner,
+     *         TrainingOptions) gives with the job's learner and options on
+     *         the data set
+     */
+    public static DecisionTreeNode[] trainClassifier(Class<? extends ForestJob> jobClass, File dataset, int nWorkers)
+            throws IOException {
+        ForestJob job = newJob(jobClass);
+        int treesPerRange = Math.max(1, job.trainingOptions().nTrees() / (4 * nWorkers));
+        return new TrainingCoordinator(jobClass, dataset, nWorkers, treesPerRange, nWorkers, LOCAL_PROCESSES)
+                .train(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     *
+     * @param bindAddress
+     *            the address to listen for workers on, port 0 for any free
+     *            port
+     * @return an array of the decision tree root nodes
+     * @throws IOException
+     *             if the workers failed
+     */
+    public DecisionTreeNode[] train(InetSocketAddress bindAddress) throws IOException {
+        ForestJob job = newJob(jobClass);
+        Learner learner = job.learner();
+        TrainingOptions trainingOption = job.trainingOptions();
+        ParameterSetCodec[] codecs = job.codecs();
+        int nTrees = trainingOption.nTrees();
+        synchronized (this) {
+            forest = new DecisionTreeNode[nTrees];
+            nTreesDone = 0;
+            ranges.clear();
+            for (int from = 0; from < nTrees; from += treesPerRange) {
+                ranges.add(new int[] { from, Math.min(nTrees, from + treesPerRange) });
+            }
+            retriesLeft = maxRetries;
+            nextWorkerId = 0;
+            failure = null;
+        }
+
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(bindAddress);
+            synchronized (this) {
+                address = (InetSocketAddress) server.getLocalSocketAddress();
+            }
+            Thread acceptor = new Thread(() -> accept(server, learner, codecs, trainingOption.seed()),
+                    "coordinator-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            if (launcher != null) {
+                for (int i = 0; i < nWorkers; i++) {
+                    launch();
+                }
+            }
+            synchronized (this) {
+                // workers started apart are live once connected
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+                while (nTreesDone < nTrees && failure == null) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (nextWorkerId > 0) {
+                        wait();
+                    } else if (remaining > 0) {
+                        wait(remaining);
+                    } else {
+                        fail(new IOException("no worker connected within " + CONNECT_TIMEOUT_MILLIS + " ms"));
+                    }
+                }
+                if (failure != null)
+                    throw failure;
+                return forest;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } finally {
+            stopWorkers();
+        }
+    }
+
+    static ForestJob newJob(String jobClass) throws ReflectiveOperationException {
+        return Class.forName(jobClass).asSubclass(ForestJob.class).getConstructor().newInstance();
+    }
+
+    static ForestJob newJob(Class<? extends ForestJob> jobClass) {
+        try {
+            return jobClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(jobClass + " needs a public constructor without arguments", e);
+        }
+    }
+
+    // launches a worker, and fails it if its process exits before training
+    // is done or does not connect in time
+    private synchronized void launch() {
+        int workerId = nextWorkerId++;
+        Process process;
+        try {
+            process = launcher.launch(address, workerId);
+        } catch (IOException e) {
+            failure = new IOException("could not launch a worker", e);
+            notifyAll();
+            return;
+        }
+        processes.put(workerId, process);
+        liveWorkers.add(workerId);
+        Thread watcher = new Thread(() -> {
+            try {
+                if (!process.waitFor(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    synchronized (this) {
+                        if (!connectedWorkers.contains(workerId))
+                            workerFailed(workerId);
+                    }
+                    process.waitFor();
+                }
+                workerFailed(workerId);
+            } catch (InterruptedException e) {
+                // training is done
+            }
+        }, "coordinator-watcher-" + workerId);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void accept(ServerSocket server, Learner learner, ParameterSetCodec[] codecs, long seed) {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread handler = new Thread(() -> serve(socket, learner, codecs, seed), "coordinator-worker");
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    // hands ranges to one worker until all are done
+    private void serve(Socket socket, Learner learner, ParameterSetCodec[] codecs, long seed) {
+        int workerId = EXTERNAL_WORKER;
+        int[] range = null;
+        try (Socket connection = socket) {
+            connection.setSoTimeout(readTimeoutMillis);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            if (in.readInt() != MAGIC)
+                return;
+            workerId = in.readInt();
+            synchronized (this) {
+                if (workerId == EXTERNAL_WORKER) {
+                    workerId = nextWorkerId++;
+                    liveWorkers.add(workerId);
+                } else if (!liveWorkers.contains(workerId)) {
+                    // given up on, and replaced
+                    return;
+                }
+                connectedWorkers.add(workerId);
+            }
+            out.writeUTF(jobClass.getName());
+            out.writeUTF(dataset.getPath());
+            out.writeLong(seed);
+            while ((range = nextRange()) != null) {
+                out.writeInt(range[0]);
+                out.writeInt(range[1]);
+                out.flush();
+                int tree;
+                while ((tree = in.readInt()) != RANGE_DONE) {
+                    if (tree == HEARTBEAT)
+                        continue;
+                    if (tree == FAILED) {
+                        fail(new IOException("worker " + workerId + " failed: " + in.readUTF()));
+                        return;
+                    }
+                    if (tree < range[0] || tree >= range[1])
+                        throw new IOException("expected a tree of [" + range[0] + ", " + range[1] + "), got " + tree);
+                    DecisionTreeNode root = TreeStream.read(learner, codecs, in);
+                    treeDone(tree, root);
+                }
+                range = null;
+            }
+            out.writeInt(STOP);
+            out.flush();
+        } catch (IOException e) {
+            // the worker is gone or hung, its trees go to the others
+        } finally {
+            if (range != null)
+                requeue(range);
+            workerFailed(workerId);
+        }
+    }
+
+    // hands the trees of range not trained yet to the other workers, in
+    // ranges of consecutive trees
+    private synchronized void requeue(int[] range) {
+        int to = range[1];
+        for (int tree = range[1] - 1; tree >= range[0] - 1; tree--) {
+            if (tree >= range[0] && forest[tree] == null)
+                continue;
+            if (tree + 1 < to)
+                ranges.addFirst(new int[] { tree + 1, to });
+            to = tree;
+        }
+        notifyAll();
+    }
+
+    // the next range to train, waiting for one while trees are being
+    // trained, null once all are or training failed
+    private synchronized int[] nextRange() throws IOException {
+        try {
+            while (ranges.isEmpty() && nTreesDone < forest.length && failure == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted", e);
+        }
+        return failure == null ? ranges.poll() : null;
+    }
+
+    private synchronized void treeDone(int tree, DecisionTreeNode root) {
+        if (forest[tree] == null)
+            nTreesDone++;
+        forest[tree] = root;
+        notifyAll();
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null)
+            failure = e;
+        notifyAll();
+    }
+
+    // a worker left, or its process exited or did not connect: launches
+    // another while trees are left and retries too, and fails training once
+    // none is left
+    private synchronized void workerFailed(int workerId) {
+        if (!liveWorkers.remove(workerId))
+            return;
+        connectedWorkers.remove(workerId);
+        Process process = processes.remove(workerId);
+        if (process != null)
+            process.destroy();
+        if (nTreesDone == forest.length || failure != null)
+            return;
+        if (launcher != null && retriesLeft > 0) {
+            retriesLeft--;
+            launch();
+        } else if (liveWorkers.isEmpty()) {
+            fail(new IOException("all workers failed, with " + (forest.length - nTreesDone) + " trees left"));
+        }
+    }
+
+    private synchronized void stopWorkers() {
+        for (Process process : processes.values()) {
+            process.destroy();
+        }
+        processes.clear();
+        liveWorkers.clear();
+        connectedWorkers.clear();
+        notifyAll();
+    }
+}
@@ -0,0 +1,154 @@
+package ml.randomforest.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.concurrent.CompletionException;
+
+import ml.randomforest.algo.RandomForest;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.MappedFeatureMatrix;
+import ml.randomforest.model.ParameterSetCodec;
+import ml.randomforest.model.TrainingOptions;
+
+/**
+ * A process training trees for a {@link TrainingCoordinator}: it connects to
+ * the coordinator, opens the data set file the coordinator names, the same
+ * path on every machine, and trains the ranges of trees it is handed until
+ * told to stop. What the split mode needs from the data is prepared once for
+ * all ranges, @see RandomForest#prepare; the trees of a range are trained on
+ * the threads of the job's options, concurrently when it has more than one,
+ * and each is sent back as soon as it is trained, so that a crash loses the
+ * trees being trained only. While it trains, the worker tells the coordinator
+ * it is alive every few seconds.
+ *
+ * <pre>
+ * java ml.randomforest.distributed.TrainingWorker coordinator-host coordinator-port [worker-id]
+ * </pre>
+ *
+ * The job's class must be on the worker's class path. Workers started by
+ * hand, rather than by the coordinator's launcher, leave out the worker id.
+ */
+public class TrainingWorker {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: TrainingWorker coordinator-host coordinator-port [worker-id]");
+            System.exit(2);
+        }
+        int workerId = args.length > 2 ? Integer.parseInt(args[2]) : TrainingCoordinator.EXTERNAL_WORKER;
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            run(socket, workerId);
+        }
+    }
+
+    static void run(Socket socket, int workerId) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(TrainingCoordinator.MAGIC);
+        out.writeInt(workerId);
+        out.flush();
+        String jobClass = in.readUTF();
+        File dataset = new File(in.readUTF());
+        long seed = in.readLong();
+
+        // guarded by out, which the heartbeat thread writes too
+        boolean[] busy = { true };
+        Thread heartbeat = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(TrainingCoordinator.HEARTBEAT_MILLIS);
+                    synchronized (out) {
+                        if (busy[0]) {
+                            out.writeInt(TrainingCoordinator.HEARTBEAT);
+                            out.flush();
+                        }
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                // done, or the coordinator is gone
+            }
+        }, "worker-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        try {
+            serve(in, out, jobClass, dataset, seed, busy);
+        } finally {
+            heartbeat.interrupt();
+        }
+    }
+
+    private static void serve(DataInputStream in, DataOutputStream out, String jobClass, File dataset, long seed,
+            boolean[] busy) throws IOException {
+        Learner learner;
+        ParameterSetCodec[] codecs;
+        RandomForest.TreeTrainer trainer;
+        try {
+            ForestJob job = TrainingCoordinator.newJob(jobClass);
+            learner = job.learner();
+            TrainingOptions trainingOption = new TrainingOptions.Builder(job.trainingOptions()).seed(seed).build();
+            codecs = job.codecs();
+            trainer = RandomForest.prepare(MappedFeatureMatrix.open(dataset), learner, trainingOption);
+        } catch (ReflectiveOperationException | RuntimeException | IOException e) {
+            fail(out, busy, e);
+            return;
+        }
+        synchronized (out) {
+            busy[0] = false;
+        }
+        while (true) {
+            int fromTree = in.readInt();
+            if (fromTree == TrainingCoordinator.STOP)
+                return;
+            int toTree = in.readInt();
+            synchronized (out) {
+                busy[0] = true;
+            }
+            try {
+                trainer.trainTrees(fromTree, toTree, (root, tree) -> {
+                    // written apart first, so that a tree without a codec
+                    // for its parameter sets fails before any of it is sent
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try {
+                        TreeStream.write(root, learner, codecs, new DataOutputStream(bytes));
+                        synchronized (out) {
+                            out.writeInt(tree);
+                            bytes.writeTo(out);
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) cause).getCause();
+                fail(out, busy, cause);
+                return;
+            }
+            synchronized (out) {
+                busy[0] = false;
+                out.writeInt(TrainingCoordinator.RANGE_DONE);
+                out.flush();
+            }
+        }
+    }
+
+    // tells the coordinator training can't go on, which retrying won't change
+    private static void fail(DataOutputStream out, boolean[] busy, Throwable e) throws IOException {
+        synchronized (out) {
+            busy[0] = false;
+            out.writeInt(TrainingCoordinator.FAILED);
+            out.writeUTF(String.valueOf(e));
+            out.flush();
+        }
+    }
+}
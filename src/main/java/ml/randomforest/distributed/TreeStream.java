@@ -0,0 +1,101 @@
+package ml.randomforest.distributed;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.ParameterSetCodec;
+import ml.randomforest.model.ThresholdDecision;
+import ml.randomforest.model.ThresholdLearner;
+
+/**
+ * Writes and reads a whole tree, class counts included, in pre-order: per
+ * node its count, its class counts and the kind of its decision, then the
+ * decision and its children for split nodes.
+ * 
+ * <pre>
+ * int nTotal, int histogram[nClasses], byte kind
+ * kind LEAF:      nothing more
+ * kind THRESHOLD: int axis, float threshold, left, right
+ * kind CUSTOM:    byte codec, the codec's encoding, left, right
+ * </pre>
+ * 
+ * Threshold decisions are created again by the learner, which must be a
+ * ThresholdLearner; other parameter sets are written by the first codec
+ * which can encode them.
+ */
+final class TreeStream {
+
+    static final byte LEAF = 0;
+    static final byte THRESHOLD = 1;
+    static final byte CUSTOM = 2;
+
+    private TreeStream() {
+    }
+
+    static void write(DecisionTreeNode node, Learner learner, ParameterSetCodec[] codecs, DataOutput out)
+            throws IOException {
+        out.writeInt(node.getNTotal());
+        for (int count : node.getHistogram()) {
+            out.writeInt(count);
+        }
+        ParameterSet param = node.getParam();
+        if (param == null) {
+            out.writeByte(LEAF);
+            return;
+        }
+        if (param instanceof ThresholdDecision && learner instanceof ThresholdLearner) {
+            out.writeByte(THRESHOLD);
+            out.writeInt(((ThresholdDecision) param).getAxis());
+            out.writeFloat(((ThresholdDecision) param).getThreshold());
+        } else {
+            int codec = codecOf(param, codecs);
+            out.writeByte(CUSTOM);
+            out.writeByte(codec);
+            codecs[codec].encode(param, out);
+        }
+        write(node.getLeft(), learner, codecs, out);
+        write(node.getRight(), learner, codecs, out);
+    }
+
+    static DecisionTreeNode read(Learner learner, ParameterSetCodec[] codecs, DataInput in) throws IOException {
+        DecisionTreeNode node = new DecisionTreeNode(learner.nClasses());
+        node.setNTotal(in.readInt());
+        int[] hist = node.getHistogram();
+        for (int c = 0; c < hist.length; c++) {
+            hist[c] = in.readInt();
+        }
+        byte kind = in.readByte();
+        switch (kind) {
+        case LEAF:
+            return node;
+        case THRESHOLD:
+            if (!(learner instanceof ThresholdLearner))
+                throw new IOException("threshold decisions need a ThresholdLearner");
+            node.setParam(((ThresholdLearner) learner).createDecision(in.readInt(), in.readFloat()));
+            break;
+        case CUSTOM:
+            int codec = in.readByte();
+            if (codec >= codecs.length)
+                throw new IOException("no codec " + codec + " of " + codecs.length);
+            node.setParam(codecs[codec].decode(in));
+            break;
+        default:
+            throw new IOException("not a node kind: " + kind);
+        }
+        node.setLeft(read(learner, codecs, in));
+        node.setRight(read(learner, codecs, in));
+        return node;
+    }
+
+    private static int codecOf(ParameterSet param, ParameterSetCodec[] codecs) {
+        for (int i = 0; i < codecs.length; i++) {
+            if (codecs[i].canEncode(param))
+                return i;
+        }
+        throw new IllegalArgumentException("no codec for " + param.getClass().getName());
+    }
+}
@@ -1,24 +1,40 @@
 package ml.randomforest.example;
 
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.FeatureMatrix;
 import ml.randomforest.model.ParameterSet;
 import ml.randomforest.model.Learner;
+import ml.randomforest.model.ThresholdDecision;
+import ml.randomforest.model.ThresholdLearner;
 
 /**
  * Learner where each decision node is a threshold for a single feature (i.e.
  * along a single axis)
  */
-public class AxisAlignedLearner implements Learner {
+public class AxisAlignedLearner implements ThresholdLearner {
 
     private final int nClasses;
     private final float[][] rangeToSampleThreshold;
-    private final Random random = new Random(System.currentTimeMillis());
+    private final Random random;
 
     public AxisAlignedLearner(int nClasses, float[][] rangeToSampleThreshold) {
+        this(nClasses, rangeToSampleThreshold, System.currentTimeMillis());
+    }
+
+    /**
+     * 
+     * @param seed
+     *            the seed of the thresholds drawn by {@link #sample()}.
+     *            Training draws them with its own generators instead, @see
+     *            ml.randomforest.model.TrainingOptions#seed()
+     */
+    public AxisAlignedLearner(int nClasses, float[][] rangeToSampleThreshold, long seed) {
         this.nClasses = nClasses;
         this.rangeToSampleThreshold = rangeToSampleThreshold;
+        this.random = new Random(seed);
     }
 
     @Override
@@ -33,7 +49,19 @@ public class AxisAlignedLearner implements Learner {
                 + random.nextFloat() * (rangeToSampleThreshold[axis][1] - rangeToSampleThreshold[axis][0]));
     }
 
-    public static class AxisAlignedParameterSet implements ParameterSet {
+    @Override
+    public ParameterSet sample(SplittableRandom random) {
+        int axis = random.nextInt(rangeToSampleThreshold.length);
+        return new AxisAlignedParameterSet(axis, rangeToSampleThreshold[axis][0]
+                + (float) random.nextDouble() * (rangeToSampleThreshold[axis][1] - rangeToSampleThreshold[axis][0]));
+    }
+
+    @Override
+    public ThresholdDecision createDecision(int axis, float threshold) {
+        return new AxisAlignedParameterSet(axis, threshold);
+    }
+
+    public static class AxisAlignedParameterSet implements ThresholdDecision {
         private final int axis;
         private final float threshold;
 
@@ -47,10 +75,17 @@ public class AxisAlignedLearner implements Learner {
             return dataPoint.getFeatures()[axis] < threshold;
         }
 
+        @Override
+        public boolean evaluateDecision(FeatureMatrix data, int row) {
+            return data.getFeature(row, axis) < threshold;
+        }
+
+        @Override
         public int getAxis() {
             return axis;
         }
 
+        @Override
         public float getThreshold() {
             return threshold;
         }
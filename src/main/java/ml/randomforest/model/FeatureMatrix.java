@@ -0,0 +1,244 @@
+package ml.randomforest.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A data set stored column by column: each feature is one contiguous
+ * primitive column, either on the heap or off-heap in a direct buffer, and the
+ * class labels are an int[]; or both in a memory-mapped file,
+ * {@link MappedFeatureMatrix}. Rows are addressed by index, so training works
+ * on a row index permutation rather than on objects.
+ */
+public abstract class FeatureMatrix {
+
+    private final int nRows;
+    private final int nFeatures;
+    private final int[] labels;
+    private final DataPoint[] dataPoints;
+
+    // for a matrix which reads its labels itself, overriding getLabel
+    FeatureMatrix(int nRows, int nFeatures) {
+        this.nRows = nRows;
+        this.nFeatures = nFeatures;
+        this.labels = null;
+        this.dataPoints = null;
+    }
+
+    FeatureMatrix(int nRows, int nFeatures, int[] labels, DataPoint[] dataPoints) {
+        if (labels.length != nRows)
+            throw new IllegalArgumentException("expected " + nRows + " labels, got " + labels.length);
+        this.nRows = nRows;
+        this.nFeatures = nFeatures;
+        this.labels = labels;
+        this.dataPoints = dataPoints;
+    }
+
+    /**
+     * 
+     * @param columns
+     *            the feature columns, columns[feature][row]; used as is, not
+     *            copied
+     * @param labels
+     *            the class label of each row, -1 if unknown, which training
+     *            rejects
+     * @return a matrix backed by the given heap arrays
+     */
+    public static FeatureMatrix of(float[][] columns, int[] labels) {
+        return new HeapFeatureMatrix(columns, labels, null);
+    }
+
+    /**
+     * 
+     * @param columns
+     *            the feature columns, columns[feature][row]
+     * @param labels
+     *            the class label of each row, -1 if unknown, which training
+     *            rejects
+     * @return a matrix whose columns are copied into direct (off-heap) buffers
+     */
+    public static FeatureMatrix offHeap(float[][] columns, int[] labels) {
+        return offHeap(columns, labels, null);
+    }
+
+    /**
+     * Adapts an array of data points.
+     * 
+     * @param data
+     *            an array of data points, all with the same number of features
+     * @return a matrix with the features copied into heap columns
+     */
+    public static FeatureMatrix fromDataPoints(DataPoint[] data) {
+        return fromDataPoints(data, false, false);
+    }
+
+    /**
+     * 
+     * @param data
+     *            an array of data points, all with the same number of features
+     * @param offHeap
+     *            whether to copy the features into direct buffers instead of
+     *            heap columns
+     * @return a matrix holding a copy of the features
+     */
+    public static FeatureMatrix fromDataPoints(DataPoint[] data, boolean offHeap) {
+        return fromDataPoints(data, offHeap, false);
+    }
+
+    /**
+     * 
+     * @param data
+     *            an array of data points, all with the same number of features
+     * @param offHeap
+     *            whether to copy the features into direct buffers instead of
+     *            heap columns
+     * @param keepDataPoints
+     *            whether to keep the data points too, so that
+     *            {@link #getDataPoint(int)} returns them as is instead of a
+     *            copy of the row; for decisions which only evaluate data
+     *            points, @see ParameterSet#evaluateDecision(FeatureMatrix, int)
+     * @return a matrix holding a copy of the features
+     */
+    public static FeatureMatrix fromDataPoints(DataPoint[] data, boolean offHeap, boolean keepDataPoints) {
+        int nFeatures = data.length > 0 ? data[0].getFeatures().length : 0;
+        float[][] columns = new float[nFeatures][data.length];
+        int[] labels = new int[data.length];
+        for (int i = 0; i < data.length; i++) {
+            float[] features = data[i].getFeatures();
+            if (features.length != nFeatures)
+                throw new IllegalArgumentException(
+                        "data point " + i + " has " + features.length + " features, expected " + nFeatures);
+            for (int f = 0; f < nFeatures; f++) {
+                columns[f][i] = features[f];
+            }
+            labels[i] = data[i].getLabel();
+        }
+        DataPoint[] dataPoints = keepDataPoints ? data : null;
+        return offHeap ? offHeap(columns, labels, dataPoints) : new HeapFeatureMatrix(columns, labels, dataPoints);
+    }
+
+    private static FeatureMatrix offHeap(float[][] columns, int[] labels, DataPoint[] dataPoints) {
+        FloatBuffer[] buffers = new FloatBuffer[columns.length];
+        for (int f = 0; f < columns.length; f++) {
+            buffers[f] = ByteBuffer.allocateDirect(Math.multiplyExact(columns[f].length, Float.BYTES))
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            buffers[f].put(columns[f]);
+        }
+        return new BufferFeatureMatrix(buffers, labels, dataPoints);
+    }
+
+    public int nRows() {
+        return nRows;
+    }
+
+    public int nFeatures() {
+        return nFeatures;
+    }
+
+    /**
+     * 
+     * @param row
+     *            the row index
+     * @param feature
+     *            the feature (column) index
+     * @return the feature value
+     */
+    public abstract float getFeature(int row, int feature);
+
+    /**
+     * 
+     * @param row
+     *            the row index
+     * @return the class label, -1 if unknown
+     */
+    public int getLabel(int row) {
+        return labels[row];
+    }
+
+    /**
+     * For code scanning whole columns, such as the kernels of
+     * ml.randomforest.algo.ThresholdKernel: the array holding a feature's
+     * column, read only.
+     * 
+     * @param feature
+     *            the feature (column) index
+     * @return the column's values, column[row], or null if the matrix does not
+     *         keep its columns in heap arrays
+     */
+    public float[] heapColumn(int feature) {
+        return null;
+    }
+
+    /**
+     * 
+     * @return the class label of each row, read only, or null if the matrix
+     *         does not keep its labels in a heap array
+     */
+    public int[] heapLabels() {
+        return labels;
+    }
+
+    /**
+     * Adapts a row for code written against data points, such as
+     * {@link ParameterSet#evaluateDecision(DataPoint)}. A matrix created from
+     * data points it keeps returns the original object, otherwise the row is
+     * copied into a new data point.
+     * 
+     * @param row
+     *            the row index
+     * @return the row as a data point
+     */
+    public DataPoint getDataPoint(int row) {
+        if (dataPoints != null)
+            return dataPoints[row];
+        float[] features = new float[nFeatures];
+        for (int f = 0; f < nFeatures; f++) {
+            features[f] = getFeature(row, f);
+        }
+        return new DataPoint(getLabel(row), features);
+    }
+
+    private static final class HeapFeatureMatrix extends FeatureMatrix {
+        private final float[][] columns;
+
+        HeapFeatureMatrix(float[][] columns, int[] labels, DataPoint[] dataPoints) {
+            super(labels.length, columns.length, labels, dataPoints);
+            for (int f = 0; f < columns.length; f++) {
+                if (columns[f].length != labels.length)
+                    throw new IllegalArgumentException("column " + f + " has " + columns[f].length
+                            + " rows, expected " + labels.length);
+            }
+            this.columns = columns;
+        }
+
+        @Override
+        public float getFeature(int row, int feature) {
+            return columns[feature][row];
+        }
+
+        @Override
+        public float[] heapColumn(int feature) {
+            return columns[feature];
+        }
+    }
+
+    private static final class BufferFeatureMatrix extends FeatureMatrix {
+        private final FloatBuffer[] columns;
+
+        BufferFeatureMatrix(FloatBuffer[] columns, int[] labels, DataPoint[] dataPoints) {
+            super(labels.length, columns.length, labels, dataPoints);
+            for (int f = 0; f < columns.length; f++) {
+                if (columns[f].capacity() != labels.length)
+                    throw new IllegalArgumentException("column " + f + " has " + columns[f].capacity()
+                            + " rows, expected " + labels.length);
+            }
+            this.columns = columns;
+        }
+
+        @Override
+        public float getFeature(int row, int feature) {
+            return columns[feature].get(row);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ml.randomforest.model;
 
+import java.util.SplittableRandom;
+
 /**
  * The learner is responsible for defining the parameter set format and the way
  * to randomly sampling the parameters.
@@ -17,4 +19,19 @@ public interface Learner {
      * @return a parameter set, @see package ml.randomforest.model.ParameterSet
      */
     public ParameterSet sample();
+
+    /**
+     * returns a parameter set from randomly sampling the parameter space with
+     * the given generator. Training calls this, with a generator of the node's
+     * own derived from TrainingOptions#seed(), so that a learner drawing only
+     * from it trains reproducibly and without contention between threads. The
+     * default ignores the generator and calls {@link #sample()}.
+     * 
+     * @param random
+     *            the generator of the node being trained, used by one thread
+     * @return a parameter set, @see package ml.randomforest.model.ParameterSet
+     */
+    public default ParameterSet sample(SplittableRandom random) {
+        return sample();
+    }
 }
@@ -0,0 +1,195 @@
+package ml.randomforest.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A data set in a memory-mapped columnar file, so that it may be larger than
+ * the heap, up to the size of the disk. The file holds a header, the labels
+ * and then each feature column, all little endian:
+ * 
+ * <pre>
+ * int magic, int version, int nRows, int nFeatures
+ * int labels[nRows]
+ * float column[nFeatures][nRows]
+ * </pre>
+ * 
+ * Columns are mapped in chunks of 2^28 rows, as one mapping can't exceed 2 GB.
+ * Trees train on an in-memory row index and read the features through the
+ * mapping, letting the OS page the columns in and out. In SplitMode.RANDOM
+ * that index is all the heap training needs per row; the binned features of
+ * SplitMode.HISTOGRAM (a byte per value) and the sorted orders of
+ * SplitMode.EXACT (an int per value) are held on the heap.
+ */
+public final class MappedFeatureMatrix extends FeatureMatrix {
+
+    static final int MAGIC = 0x52464453; // "RFDS"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 * 4;
+    static final int CHUNK_SHIFT = 28;
+
+    private final int chunkShift;
+    private final int chunkMask;
+    private final MappedByteBuffer[] mappings;
+    private final IntBuffer[] labels;
+    // columns[feature][chunk]
+    private final FloatBuffer[][] columns;
+    // labels[0] and columns[feature][0] when there is a single chunk, to
+    // skip the indirection
+    private final IntBuffer wholeLabels;
+    private final FloatBuffer[] wholeColumns;
+
+    private MappedFeatureMatrix(FileChannel channel, MapMode mode, int nRows, int nFeatures, int chunkShift)
+            throws IOException {
+        super(nRows, nFeatures);
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1 << chunkShift) - 1;
+        int nChunks = (int) (((long) nRows + chunkMask) >>> chunkShift);
+        mappings = new MappedByteBuffer[(nFeatures + 1) * nChunks];
+        labels = new IntBuffer[nChunks];
+        columns = new FloatBuffer[nFeatures][nChunks];
+        for (int k = 0; k < nChunks; k++) {
+            labels[k] = map(channel, mode, 0, nRows, k).asIntBuffer();
+            for (int f = 0; f < nFeatures; f++) {
+                columns[f][k] = map(channel, mode, f + 1, nRows, k).asFloatBuffer();
+            }
+        }
+        wholeLabels = nChunks == 1 ? labels[0] : null;
+        wholeColumns = nChunks == 1 ? new FloatBuffer[nFeatures] : null;
+        for (int f = 0; wholeColumns != null && f < nFeatures; f++) {
+            wholeColumns[f] = columns[f][0];
+        }
+    }
+
+    // chunk k of the column-th int or float column
+    private ByteBuffer map(FileChannel channel, MapMode mode, int column, int nRows, int k) throws IOException {
+        long row = (long) k << chunkShift;
+        long offset = HEADER_BYTES + 4L * ((long) column * nRows + row);
+        long size = 4L * Math.min(1 << chunkShift, nRows - row);
+        MappedByteBuffer mapping = channel.map(mode, offset, size);
+        mappings[column * labels.length + k] = mapping;
+        return mapping.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 
+     * @param file
+     *            a file written by {@link #create(File, int, int)} or
+     *            {@link #write(FeatureMatrix, File)}
+     * @return the read-only matrix mapped from file
+     */
+    public static MappedFeatureMatrix open(File file) throws IOException {
+        return open(file, false, CHUNK_SHIFT);
+    }
+
+    static MappedFeatureMatrix open(File file, boolean writable, int chunkShift) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0)
+                ;
+            if (header.hasRemaining() || header.getInt(0) != MAGIC)
+                throw new IOException(file + " is not a data set file");
+            if (header.getInt(4) != VERSION)
+                throw new IOException("unsupported data set file version " + header.getInt(4));
+            int nRows = header.getInt(8);
+            int nFeatures = header.getInt(12);
+            if (channel.size() < HEADER_BYTES + 4L * nRows * (nFeatures + 1))
+                throw new IOException(file + " is truncated");
+            return new MappedFeatureMatrix(channel, writable ? MapMode.READ_WRITE : MapMode.READ_ONLY, nRows,
+                    nFeatures, chunkShift);
+        }
+    }
+
+    /**
+     * Creates a data set file of the given size, all zero, to be filled
+     * through {@link #setFeature(int, int, float)} and
+     * {@link #setLabel(int, int)}, e.g. by streaming in data which does not
+     * fit in the heap.
+     * 
+     * @return the writable matrix mapped from file
+     */
+    public static MappedFeatureMatrix create(File file, int nRows, int nFeatures) throws IOException {
+        return create(file, nRows, nFeatures, CHUNK_SHIFT);
+    }
+
+    static MappedFeatureMatrix create(File file, int nRows, int nFeatures, int chunkShift) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER_BYTES + 4L * nRows * (nFeatures + 1));
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(nRows).putInt(nFeatures).flip();
+            raf.getChannel().write(header, 0);
+        }
+        return open(file, true, chunkShift);
+    }
+
+    /**
+     * 
+     * @param data
+     *            the data set to copy
+     * @param file
+     *            the file to write
+     * @return the read-only matrix mapped from the written file
+     */
+    public static MappedFeatureMatrix write(FeatureMatrix data, File file) throws IOException {
+        MappedFeatureMatrix mapped = create(file, data.nRows(), data.nFeatures());
+        for (int row = 0; row < data.nRows(); row++) {
+            mapped.setLabel(row, data.getLabel(row));
+        }
+        for (int f = 0; f < data.nFeatures(); f++) {
+            for (int row = 0; row < data.nRows(); row++) {
+                mapped.setFeature(row, f, data.getFeature(row, f));
+            }
+        }
+        mapped.force();
+        return open(file);
+    }
+
+    @Override
+    public float getFeature(int row, int feature) {
+        if (wholeColumns != null)
+            return wholeColumns[feature].get(row);
+        return columns[feature][row >>> chunkShift].get(row & chunkMask);
+    }
+
+    @Override
+    public int getLabel(int row) {
+        if (wholeLabels != null)
+            return wholeLabels.get(row);
+        return labels[row >>> chunkShift].get(row & chunkMask);
+    }
+
+    /**
+     * @throws java.nio.ReadOnlyBufferException
+     *             if the matrix was opened read-only
+     */
+    public void setFeature(int row, int feature, float value) {
+        columns[feature][row >>> chunkShift].put(row & chunkMask, value);
+    }
+
+    /**
+     * @throws java.nio.ReadOnlyBufferException
+     *             if the matrix was opened read-only
+     */
+    public void setLabel(int row, int label) {
+        labels[row >>> chunkShift].put(row & chunkMask, label);
+    }
+
+    /**
+     * Writes the changes made through the setters to the file.
+     */
+    public void force() {
+        for (MappedByteBuffer mapping : mappings) {
+            mapping.force();
+        }
+    }
+}
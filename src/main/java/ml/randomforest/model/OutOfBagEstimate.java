@@ -0,0 +1,60 @@
+package ml.randomforest.model;
+
+/**
+ * A forest trained on bootstrap samples, with the out-of-bag prediction of
+ * every training row: the average distribution of the trees whose sample did
+ * not contain the row. It estimates the forest's generalization without a
+ * separate validation set.
+ */
+public class OutOfBagEstimate {
+
+    private final DecisionTreeNode[] forest;
+    private final float[][] distributions;
+    private final int[] nTrees;
+    private final float accuracy;
+
+    public OutOfBagEstimate(DecisionTreeNode[] forest, float[][] distributions, int[] nTrees, float accuracy) {
+        this.forest = forest;
+        this.distributions = distributions;
+        this.nTrees = nTrees;
+        this.accuracy = accuracy;
+    }
+
+    /**
+     * 
+     * @return an array of the decision tree root nodes
+     */
+    public DecisionTreeNode[] getForest() {
+        return forest;
+    }
+
+    /**
+     * 
+     * @param row
+     *            the training row
+     * @return the out-of-bag distribution mass function, null if the row was
+     *         in the sample of every tree
+     */
+    public float[] getDistribution(int row) {
+        return nTrees[row] > 0 ? distributions[row] : null;
+    }
+
+    /**
+     * 
+     * @param row
+     *            the training row
+     * @return the number of trees the row was out of bag for
+     */
+    public int getNTrees(int row) {
+        return nTrees[row];
+    }
+
+    /**
+     * 
+     * @return the fraction of rows with an out-of-bag prediction whose most
+     *         likely class is their label
+     */
+    public float getAccuracy() {
+        return accuracy;
+    }
+}
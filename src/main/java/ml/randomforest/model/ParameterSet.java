@@ -11,4 +11,66 @@ public interface ParameterSet {
      * @return a boolean to indicate to go to the left or right child node
      */
     public boolean evaluateDecision(DataPoint dataPoint);
+
+    /**
+     * returns the decision for a row of a feature matrix. The default adapts
+     * the row to a data point; implementations should read the features
+     * directly from the matrix instead.
+     * 
+     * @param data
+     *            the feature matrix
+     * @param row
+     *            the row to evaluate
+     * @return a boolean to indicate to go to the left or right child node
+     */
+    public default boolean evaluateDecision(FeatureMatrix data, int row) {
+        return evaluateDecision(data.getDataPoint(row));
+    }
+
+    /**
+     * Evaluates the decision for the rows index[lowInclusive, hiExclusive) of
+     * a feature matrix at once, e.g. when partitioning a node's rows. The
+     * default calls {@link #evaluateDecision(FeatureMatrix, int)} per row;
+     * implementations can read the columns in a tight loop instead, @see
+     * FeatureMatrix#heapColumn(int).
+     * 
+     * @param goesLeft
+     *            receives the decisions, bit i - lowInclusive set if row
+     *            index[i] goes to the left child, in goesLeft[(i -
+     *            lowInclusive) / 64] at bit (i - lowInclusive) % 64; has at
+     *            least (hiExclusive - lowInclusive + 63) / 64 elements, all 0
+     */
+    public default void evaluateDecisions(FeatureMatrix data, int[] index, int lowInclusive, int hiExclusive,
+            long[] goesLeft) {
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            if (evaluateDecision(data, index[i]))
+                goesLeft[(i - lowInclusive) >>> 6] |= 1L << (i - lowInclusive);
+        }
+    }
+
+    /**
+     * Scores the decision on the rows index[lowInclusive, hiExclusive) of a
+     * feature matrix: adds the weight of each row to the count of its label
+     * on the side it goes to. The default calls
+     * {@link #evaluateDecision(FeatureMatrix, int)} per row.
+     * 
+     * @param weights
+     *            the weight of each row, null if every row counts once
+     * @param leftHist
+     *            the class counts of the rows going left
+     * @param rightHist
+     *            the class counts of the rows going right
+     */
+    public default void countDecisions(FeatureMatrix data, int[] index, int lowInclusive, int hiExclusive,
+            int[] weights, int[] leftHist, int[] rightHist) {
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            int row = index[i];
+            int weight = weights == null ? 1 : weights[row];
+            if (evaluateDecision(data, row)) {
+                leftHist[data.getLabel(row)] += weight;
+            } else {
+                rightHist[data.getLabel(row)] += weight;
+            }
+        }
+    }
 }
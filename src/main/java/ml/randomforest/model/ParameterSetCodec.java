@@ -0,0 +1,30 @@
+package ml.randomforest.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads a kind of parameter set to and from a forest file, @see
+ * ml.randomforest.algo.ForestFile. Parameter sets implementing
+ * {@link ThresholdDecision}, like
+ * ml.randomforest.example.AxisAlignedLearner.AxisAlignedParameterSet, are
+ * stored by the file format itself and need no codec.
+ */
+public interface ParameterSetCodec {
+
+    /**
+     * @return the name stored in the file, by which the codec is found again
+     *         when loading it
+     */
+    public String getName();
+
+    /**
+     * @return whether this codec writes param
+     */
+    public boolean canEncode(ParameterSet param);
+
+    public void encode(ParameterSet param, DataOutput out) throws IOException;
+
+    public ParameterSet decode(DataInput in) throws IOException;
+}
@@ -0,0 +1,153 @@
+package ml.randomforest.model;
+
+/**
+ * How impure the class counts of a node are, and so how good a split is: the
+ * gain of a split is its node's impurity minus the impurity of its children,
+ * weighted by their size, @see TrainingOptions#splitCriterion().
+ * 
+ * The impurity of class counts h adding up to n is computed from the sum of a
+ * term per class, S = term(h[0]) + ... + term(h[nClasses - 1]), so that a
+ * split search moving rows from one child to the other only updates the terms
+ * of the classes moved. Both built-in criteria score a split without a
+ * transcendental function: {@link #ENTROPY} looks n log n up in a table,
+ * {@link #GINI} needs none. A criterion that is no sum of terms returns false
+ * from {@link #isSumOfTerms()} and overrides {@link #impurity(int[], int)} and
+ * {@link #gain(float, int[], int, int[], int)} instead of the terms; it cannot
+ * be used with SplitMode.EXACT, which scores its candidates from the terms.
+ */
+public interface SplitCriterion {
+
+    /**
+     * the information entropy, -sum p log p over the classes' proportions p,
+     * as n log n - S / n with term(h) = h log h
+     */
+    public static final SplitCriterion ENTROPY = new Entropy();
+
+    /**
+     * the Gini impurity, 1 - sum p^2 over the classes' proportions p, as n -
+     * S / n with term(h) = h^2
+     */
+    public static final SplitCriterion GINI = new Gini();
+
+    /**
+     * @return whether the impurity is computed from {@link #term(int)} and
+     *         {@link #weightedImpurity(int, double)}, as SplitMode.EXACT
+     *         needs
+     */
+    public default boolean isSumOfTerms() {
+        return true;
+    }
+
+    /**
+     * @return the term of a class with count data of a node
+     * @throws UnsupportedOperationException
+     *             if the criterion is no sum of terms
+     */
+    public default double term(int count) {
+        throw new UnsupportedOperationException(this + " is no sum of terms");
+    }
+
+    /**
+     * @return n times the impurity of class counts adding up to n whose terms
+     *         sum up to sumOfTerms, 0 if n is 0
+     * @throws UnsupportedOperationException
+     *             if the criterion is no sum of terms
+     */
+    public default double weightedImpurity(int n, double sumOfTerms) {
+        throw new UnsupportedOperationException(this + " is no sum of terms");
+    }
+
+    /**
+     * @return the impurity of class counts hist adding up to n
+     */
+    public default float impurity(int[] hist, int n) {
+        if (n == 0)
+            return 0f;
+        double sumOfTerms = 0;
+        for (int c = 0; c < hist.length; c++) {
+            sumOfTerms += term(hist[c]);
+        }
+        return (float) (weightedImpurity(n, sumOfTerms) / n);
+    }
+
+    /**
+     * @return the gain of splitting a node of impurity nodeImpurity into
+     *         children of class counts leftHist and rightHist, adding up to
+     *         left and right
+     */
+    public default float gain(float nodeImpurity, int[] leftHist, int left, int[] rightHist, int right) {
+        double leftTerms = 0, rightTerms = 0;
+        for (int c = 0; c < leftHist.length; c++) {
+            leftTerms += term(leftHist[c]);
+            rightTerms += term(rightHist[c]);
+        }
+        return gain(nodeImpurity, left, leftTerms, right, rightTerms);
+    }
+
+    /**
+     * @return the gain of splitting a node of impurity nodeImpurity into
+     *         children of left and right data whose terms sum up to leftTerms
+     *         and rightTerms
+     */
+    public default float gain(float nodeImpurity, int left, double leftTerms, int right, double rightTerms) {
+        return nodeImpurity - (float) ((weightedImpurity(left, leftTerms) + weightedImpurity(right, rightTerms))
+                / (left + right));
+    }
+
+    /**
+     * @see SplitCriterion#ENTROPY
+     */
+    static final class Entropy implements SplitCriterion {
+
+        // n log n of the counts up to 2^16, the larger ones are computed
+        private static final double[] N_LOG_N = new double[1 << 16];
+
+        static {
+            for (int n = 1; n < N_LOG_N.length; n++) {
+                N_LOG_N[n] = n * Math.log(n);
+            }
+        }
+
+        private Entropy() {
+        }
+
+        @Override
+        public double term(int count) {
+            return count < N_LOG_N.length ? N_LOG_N[count] : count * Math.log(count);
+        }
+
+        @Override
+        public double weightedImpurity(int n, double sumOfTerms) {
+            return term(n) - sumOfTerms;
+        }
+
+        @Override
+        public String toString() {
+            return "entropy";
+        }
+    }
+
+    /**
+     * @see SplitCriterion#GINI
+     */
+    static final class Gini implements SplitCriterion {
+
+        private Gini() {
+        }
+
+        @Override
+        public double term(int count) {
+            return (double) count * count;
+        }
+
+        @Override
+        public double weightedImpurity(int n, double sumOfTerms) {
+            return n == 0 ? 0 : n - sumOfTerms / n;
+        }
+
+        @Override
+        public String toString() {
+            return "gini";
+        }
+    }
+}
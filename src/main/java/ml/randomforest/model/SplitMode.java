@@ -0,0 +1,29 @@
+package ml.randomforest.model;
+
+/**
+ * How a decision tree node searches for its split
+ */
+public enum SplitMode {
+
+    /**
+     * evaluate {@link TrainingOptions#nSample()} parameter sets drawn from
+     * {@link Learner#sample(java.util.SplittableRandom)}, one pass over the
+     * node's data each
+     */
+    RANDOM,
+
+    /**
+     * quantize every feature into at most {@link TrainingOptions#maxBins()}
+     * bins once, count bin x class occurrences of the node's data in one pass
+     * and take the best threshold of the candidate features from the
+     * cumulative counts. Needs a {@link ThresholdLearner}.
+     */
+    HISTOGRAM,
+
+    /**
+     * sort the rows by every feature once per forest and find the best
+     * threshold of the candidate features in one sweep over the node's sorted
+     * rows. Needs a {@link ThresholdLearner}.
+     */
+    EXACT
+}
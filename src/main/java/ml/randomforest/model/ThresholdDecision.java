@@ -0,0 +1,54 @@
+package ml.randomforest.model;
+
+/**
+ * A parameter set that sends the data to the left child when a single feature
+ * is below a threshold, i.e. features[getAxis()] < getThreshold(). Decisions
+ * of this shape can be stored as plain (feature, threshold) pairs, @see
+ * ml.randomforest.algo.CompiledForest. Its batch decisions read the axis's
+ * column directly.
+ */
+public interface ThresholdDecision extends ParameterSet {
+
+    /**
+     * @return the index of the feature to compare
+     */
+    public int getAxis();
+
+    /**
+     * @return the threshold, features below it go to the left child
+     */
+    public float getThreshold();
+
+    @Override
+    public default boolean evaluateDecision(FeatureMatrix data, int row) {
+        return data.getFeature(row, getAxis()) < getThreshold();
+    }
+
+    @Override
+    public default void evaluateDecisions(FeatureMatrix data, int[] index, int lowInclusive, int hiExclusive,
+            long[] goesLeft) {
+        int axis = getAxis();
+        float threshold = getThreshold();
+        float[] column = data.heapColumn(axis);
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            float value = column != null ? column[index[i]] : data.getFeature(index[i], axis);
+            goesLeft[(i - lowInclusive) >>> 6] |= (value < threshold ? 1L : 0L) << (i - lowInclusive);
+        }
+    }
+
+    @Override
+    public default void countDecisions(FeatureMatrix data, int[] index, int lowInclusive, int hiExclusive,
+            int[] weights, int[] leftHist, int[] rightHist) {
+        int axis = getAxis();
+        float threshold = getThreshold();
+        float[] column = data.heapColumn(axis);
+        for (int i = lowInclusive; i < hiExclusive; i++) {
+            int row = index[i];
+            float value = column != null ? column[row] : data.getFeature(row, axis);
+            int weight = weights == null ? 1 : weights[row];
+            int label = data.getLabel(row);
+            leftHist[label] += value < threshold ? weight : 0;
+            rightHist[label] += value < threshold ? 0 : weight;
+        }
+    }
+}
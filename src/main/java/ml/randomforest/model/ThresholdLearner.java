@@ -0,0 +1,19 @@
+package ml.randomforest.model;
+
+/**
+ * A learner whose decisions are single feature thresholds. Instead of sampling
+ * parameter sets, the tree can then search the best threshold of a feature
+ * directly, @see ml.randomforest.model.SplitMode
+ */
+public interface ThresholdLearner extends Learner {
+
+    /**
+     * 
+     * @param axis
+     *            the index of the feature to compare
+     * @param threshold
+     *            features below it go to the left child
+     * @return the decision for the given feature and threshold
+     */
+    public ThresholdDecision createDecision(int axis, float threshold);
+}
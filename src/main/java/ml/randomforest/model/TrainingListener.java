@@ -0,0 +1,84 @@
+package ml.randomforest.model;
+
+/**
+ * Receives what happens while trees are trained, @see
+ * TrainingOptions#listener(). Events of one tree come from the thread
+ * training it, or from the fork-join threads training its subtrees; trees
+ * trained in parallel report concurrently. Without a listener nothing is
+ * measured.
+ * 
+ * Node events tell the work done on the node: rowsScanned, the rows read to
+ * score decisions (nSample times the node's rows in SplitMode.RANDOM, the rows
+ * counted into bin tables in SplitMode.HISTOGRAM, nFeaturesPerNode times the
+ * node's rows in SplitMode.EXACT), and nCandidates, the decisions scored.
+ * When trees grow level-wise, the nodes of a depth share their passes over the
+ * rows, and each node reports the part of the passes' time matching its rows.
+ */
+public interface TrainingListener {
+
+    /**
+     * Why a node became a leaf
+     */
+    public enum StopReason {
+        /** the node is at treeMaxDepth */
+        MAX_DEPTH,
+        /** the node has fewer than minDataSizePerNode data */
+        MIN_DATA_SIZE,
+        /** no decision separates the node's data with a positive gain */
+        NO_SPLIT,
+        /** the best decision's gain is at most minInformationGain */
+        MIN_INFORMATION_GAIN
+    }
+
+    public default void treeStarted(int tree) {
+    }
+
+    /**
+     * 
+     * @param nNodes
+     *            the number of split nodes and leaves of the tree
+     * @param nanos
+     *            the time taken to train the tree
+     */
+    public default void treeFinished(int tree, int nNodes, long nanos) {
+    }
+
+    /**
+     * A subtree was forked to the fork-join pool, @see
+     * TrainingOptions#minParallelSubtreeCost()
+     * 
+     * @param depth
+     *            the depth of the subtree's root
+     * @param nRows
+     *            the number of rows in the subtree
+     */
+    public default void subtreeForked(int tree, int depth, int nRows) {
+    }
+
+    /**
+     * 
+     * @param depth
+     *            the node's depth, 1 for the root
+     * @param nRows
+     *            the number of rows in the node
+     * @param searchNanos
+     *            the time taken to find the split, and in SplitMode.HISTOGRAM
+     *            to count and derive the children's bin tables, which their
+     *            own searches then skip
+     * @param partitionNanos
+     *            the time taken to partition the rows
+     */
+    public default void nodeSplit(int tree, int depth, int nRows, long rowsScanned, long nCandidates,
+            long searchNanos, long partitionNanos) {
+    }
+
+    /**
+     * 
+     * @param searchNanos
+     *            the time spent looking for a split, 0 if the node stopped
+     *            before
+     */
+    public default void leaf(int tree, int depth, int nRows, StopReason reason, long rowsScanned, long nCandidates,
+            long searchNanos) {
+    }
+}
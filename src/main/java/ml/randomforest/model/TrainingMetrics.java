@@ -0,0 +1,169 @@
+package ml.randomforest.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link TrainingListener} adding up counters, overall, per depth and per
+ * tree. Updates are a few atomic adds per node, so it can stay enabled in
+ * production. Depths beyond MAX_DEPTH are counted at MAX_DEPTH.
+ */
+public class TrainingMetrics implements TrainingListener {
+
+    public static final int MAX_DEPTH = 64;
+
+    private final LongAdder nSplits = new LongAdder();
+    private final LongAdder[] nLeaves = new LongAdder[StopReason.values().length];
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder nCandidates = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder partitionNanos = new LongAdder();
+    private final LongAdder nForkedSubtrees = new LongAdder();
+    // indexed by depth
+    private final AtomicLongArray splitsAtDepth = new AtomicLongArray(MAX_DEPTH + 1);
+    private final AtomicLongArray leavesAtDepth = new AtomicLongArray(MAX_DEPTH + 1);
+    private final AtomicLongArray rowsAtDepth = new AtomicLongArray(MAX_DEPTH + 1);
+    private final AtomicLongArray searchNanosAtDepth = new AtomicLongArray(MAX_DEPTH + 1);
+    // { nodes, nanos } of each finished tree
+    private final Map<Integer, long[]> trees = new ConcurrentHashMap<>();
+
+    public TrainingMetrics() {
+        for (int i = 0; i < nLeaves.length; i++) {
+            nLeaves[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void treeFinished(int tree, int nNodes, long nanos) {
+        trees.put(tree, new long[] { nNodes, nanos });
+    }
+
+    @Override
+    public void subtreeForked(int tree, int depth, int nRows) {
+        nForkedSubtrees.increment();
+    }
+
+    @Override
+    public void nodeSplit(int tree, int depth, int nRows, long rowsScanned, long nCandidates, long searchNanos,
+            long partitionNanos) {
+        nSplits.increment();
+        this.rowsScanned.add(rowsScanned);
+        this.nCandidates.add(nCandidates);
+        this.searchNanos.add(searchNanos);
+        this.partitionNanos.add(partitionNanos);
+        int d = Math.min(depth, MAX_DEPTH);
+        splitsAtDepth.incrementAndGet(d);
+        rowsAtDepth.addAndGet(d, nRows);
+        searchNanosAtDepth.addAndGet(d, searchNanos);
+    }
+
+    @Override
+    public void leaf(int tree, int depth, int nRows, StopReason reason, long rowsScanned, long nCandidates,
+            long searchNanos) {
+        nLeaves[reason.ordinal()].increment();
+        this.rowsScanned.add(rowsScanned);
+        this.nCandidates.add(nCandidates);
+        this.searchNanos.add(searchNanos);
+        int d = Math.min(depth, MAX_DEPTH);
+        leavesAtDepth.incrementAndGet(d);
+        rowsAtDepth.addAndGet(d, nRows);
+        searchNanosAtDepth.addAndGet(d, searchNanos);
+    }
+
+    public long getNSplits() {
+        return nSplits.sum();
+    }
+
+    public long getNLeaves() {
+        long sum = 0;
+        for (LongAdder n : nLeaves) {
+            sum += n.sum();
+        }
+        return sum;
+    }
+
+    public long getNLeaves(StopReason reason) {
+        return nLeaves[reason.ordinal()].sum();
+    }
+
+    public long getRowsScanned() {
+        return rowsScanned.sum();
+    }
+
+    public long getNCandidates() {
+        return nCandidates.sum();
+    }
+
+    public long getSearchNanos() {
+        return searchNanos.sum();
+    }
+
+    public long getPartitionNanos() {
+        return partitionNanos.sum();
+    }
+
+    public long getNForkedSubtrees() {
+        return nForkedSubtrees.sum();
+    }
+
+    public long getNSplitsAtDepth(int depth) {
+        return splitsAtDepth.get(depth);
+    }
+
+    public long getNLeavesAtDepth(int depth) {
+        return leavesAtDepth.get(depth);
+    }
+
+    /**
+     * 
+     * @return the rows in all nodes at depth
+     */
+    public long getRowsAtDepth(int depth) {
+        return rowsAtDepth.get(depth);
+    }
+
+    public long getSearchNanosAtDepth(int depth) {
+        return searchNanosAtDepth.get(depth);
+    }
+
+    /**
+     * 
+     * @return the number of nodes of a finished tree, -1 if unknown
+     */
+    public int getTreeNodes(int tree) {
+        long[] t = trees.get(tree);
+        return t == null ? -1 : (int) t[0];
+    }
+
+    /**
+     * 
+     * @return the training time of a finished tree, -1 if unknown
+     */
+    public long getTreeNanos(int tree) {
+        long[] t = trees.get(tree);
+        return t == null ? -1 : t[1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append(String.format("%d trees, %d splits, %d leaves (", trees.size(), getNSplits(), getNLeaves()));
+        for (StopReason reason : StopReason.values()) {
+            str.append(reason).append(' ').append(getNLeaves(reason))
+                    .append(reason.ordinal() < nLeaves.length - 1 ? ", " : ")\n");
+        }
+        str.append(String.format(
+                "%d rows scanned, %d candidates, search %d ms, partition %d ms, %d forked subtrees%n",
+                getRowsScanned(), getNCandidates(), getSearchNanos() / 1000000, getPartitionNanos() / 1000000,
+                getNForkedSubtrees()));
+        str.append("depth splits leaves rows search_ms\n");
+        for (int d = 0; d <= MAX_DEPTH; d++) {
+            if (splitsAtDepth.get(d) + leavesAtDepth.get(d) > 0)
+                str.append(String.format("%5d %6d %6d %4d %9d%n", d, splitsAtDepth.get(d), leavesAtDepth.get(d),
+                        rowsAtDepth.get(d), searchNanosAtDepth.get(d) / 1000000));
+        }
+        return str.toString();
+    }
+}
@@ -1,5 +1,8 @@
 package ml.randomforest.model;
 
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+
 public class TrainingOptions {
 
     private final int nTrees;
@@ -7,18 +10,53 @@ public class TrainingOptions {
     private final int treeMaxDepth;
     private final float minInformationGain;
     private final int minDataSizePerNode;
+    private final int nThreads;
+    private final Executor executor;
+    private final SplitMode splitMode;
+    private final int maxBins;
+    private final int nFeaturesPerNode;
+    private final long histogramPoolBytes;
+    private final boolean bootstrap;
+    private final TrainingListener listener;
+    private final boolean levelWise;
+    private final long minParallelSearchCost;
+    private final long minParallelSubtreeCost;
+    private final SplitCriterion splitCriterion;
+    private final long seed;
+    private final float decay;
+    private final int reservoirSize;
 
     public TrainingOptions(int nTrees, int nSample, int treeMaxDepth, float minInformationGain,
             int minDataSizePerNode) {
-        this.nTrees = nTrees;
-        this.nSample = nSample;
-        this.treeMaxDepth = treeMaxDepth;
-        this.minInformationGain = minInformationGain;
-        this.minDataSizePerNode = minDataSizePerNode;
+        this(new Builder().nTrees(nTrees).nSample(nSample).treeMaxDepth(treeMaxDepth)
+                .minInformationGain(minInformationGain).minDataSizePerNode(minDataSizePerNode));
+    }
+
+    private TrainingOptions(Builder builder) {
+        this.nTrees = builder.nTrees;
+        this.nSample = builder.nSample;
+        this.treeMaxDepth = builder.treeMaxDepth;
+        this.minInformationGain = builder.minInformationGain;
+        this.minDataSizePerNode = builder.minDataSizePerNode;
+        this.nThreads = builder.nThreads;
+        this.executor = builder.executor;
+        this.splitMode = builder.splitMode;
+        this.maxBins = builder.maxBins;
+        this.nFeaturesPerNode = builder.nFeaturesPerNode;
+        this.histogramPoolBytes = builder.histogramPoolBytes;
+        this.bootstrap = builder.bootstrap;
+        this.listener = builder.listener;
+        this.levelWise = builder.levelWise;
+        this.minParallelSearchCost = builder.minParallelSearchCost;
+        this.minParallelSubtreeCost = builder.minParallelSubtreeCost;
+        this.splitCriterion = builder.splitCriterion;
+        this.seed = builder.seed != null ? builder.seed : new SplittableRandom().nextLong();
+        this.decay = builder.decay;
+        this.reservoirSize = builder.reservoirSize;
     }
 
     /**
-     *
+     * 
      * @return the number of trees, default is 5
      */
     public int nTrees() {
@@ -44,8 +82,9 @@ public class TrainingOptions {
 
     /**
      * 
-     * @return information gain, equal or smaller than which the tree will stop
-     *         growing, default is 0
+     * @return information gain, or gain of the {@link #splitCriterion()},
+     *         equal or smaller than which the tree will stop growing, default
+     *         is 0
      */
     public float minInformationGain() {
         return minInformationGain;
@@ -59,12 +98,232 @@ public class TrainingOptions {
         return minDataSizePerNode;
     }
 
+    /**
+     * 
+     * @return the number of threads to train the trees of a forest on when no
+     *         executor is given, default is 1 (trees are trained one after
+     *         another)
+     */
+    public int nThreads() {
+        return nThreads;
+    }
+
+    /**
+     * 
+     * @return the executor to train the trees of a forest on, default is null
+     *         (a pool of {@link #nThreads()} threads is used)
+     */
+    public Executor executor() {
+        return executor;
+    }
+
+    /**
+     * 
+     * @return true if the trees of a forest are trained concurrently
+     */
+    public boolean isParallel() {
+        return executor != null || nThreads > 1;
+    }
+
+    /**
+     * 
+     * @return how nodes search for their split, default is
+     *         {@link SplitMode#RANDOM}
+     */
+    public SplitMode splitMode() {
+        return splitMode;
+    }
+
+    /**
+     * 
+     * @return the maximum number of bins per feature in
+     *         {@link SplitMode#HISTOGRAM} mode, at most 256, default is 256
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * 
+     * @return the number of features drawn at random on each node to search
+     *         for the best threshold on, in {@link SplitMode#HISTOGRAM} and
+     *         {@link SplitMode#EXACT} mode. Default is 0, the square root of
+     *         the number of features.
+     */
+    public int nFeaturesPerNode() {
+        return nFeaturesPerNode;
+    }
+
+    /**
+     * 
+     * @return the memory each tree may keep in count tables in
+     *         {@link SplitMode#HISTOGRAM} mode, so that a child's counts are
+     *         derived as its parent's minus its sibling's instead of counted.
+     *         With {@link #levelWise()}, the memory the counts of the nodes
+     *         searched in one pass may take. Default is 64 MB. The bound is
+     *         soft: it stops tables from being kept for children, but a node
+     *         being searched always gets a table, so at least two tables,
+     *         and one more per forked subtree searching at the same time, can
+     *         be alive beyond it.
+     */
+    public long histogramPoolBytes() {
+        return histogramPoolBytes;
+    }
+
+    /**
+     * 
+     * @return whether each tree is trained on a bootstrap sample of the data
+     *         (bagging), default is false. The sample is kept as a count per
+     *         row, the data is not copied.
+     */
+    public boolean bootstrap() {
+        return bootstrap;
+    }
+
+    /**
+     * 
+     * @return the listener told about the trees and nodes trained, default is
+     *         null (nothing is measured), @see TrainingMetrics
+     */
+    public TrainingListener listener() {
+        return listener;
+    }
+
+    /**
+     * 
+     * @return whether trees grow breadth-first, all nodes of a depth searching
+     *         for their split in one sequential pass over the rows, instead of
+     *         depth-first, each node on its own rows. Default is false. Only in
+     *         {@link SplitMode#RANDOM} and {@link SplitMode#HISTOGRAM} mode.
+     */
+    public boolean levelWise() {
+        return levelWise;
+    }
+
+    /**
+     * 
+     * @return the cost from which a node scores its candidates in parallel,
+     *         when a tree is trained alone or the trees of a forest one after
+     *         another. The cost of a node is its rows times the candidates
+     *         scored per row: nSample in {@link SplitMode#RANDOM},
+     *         nFeaturesPerNode in {@link SplitMode#EXACT}, the number of
+     *         features in {@link SplitMode#HISTOGRAM}. Only
+     *         {@link SplitMode#RANDOM} searches in parallel, a node or, growing
+     *         level-wise, a whole depth at a time. Default is 2^20, from
+     *         SplitBenchmark.sampleSplit.
+     */
+    public long minParallelSearchCost() {
+        return minParallelSearchCost;
+    }
+
+    /**
+     * 
+     * @return the cost, @see #minParallelSearchCost(), from which the smaller
+     *         child of a node is trained as a fork-join task that idle threads
+     *         can steal while the larger child is trained, under the same
+     *         conditions. Smaller subtrees are trained by the thread that
+     *         reached them. Default is 2^14.
+     */
+    public long minParallelSubtreeCost() {
+        return minParallelSubtreeCost;
+    }
+
+    /**
+     * 
+     * @return how splits are scored, default is {@link SplitCriterion#ENTROPY}
+     *         (information gain)
+     */
+    public SplitCriterion splitCriterion() {
+        return splitCriterion;
+    }
+
+    /**
+     * 
+     * @return the seed of the forest's random choices: every tree and node
+     *         draws from its own generator, derived from the seed and the
+     *         tree's number and the node's position in the tree, @see
+     *         Learner#sample(SplittableRandom). The same seed trains the same
+     *         forest whatever the number of threads. Default is a seed drawn
+     *         at random when the options are built.
+     */
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * 
+     * @return the factor by which an ml.randomforest.algo.IncrementalForest
+     *         scales the counts it has seen before each update, in (0, 1], so
+     *         that older data weighs less. Default is 1 (no decay).
+     */
+    public float decay() {
+        return decay;
+    }
+
+    /**
+     * 
+     * @return the number of data points an
+     *         ml.randomforest.algo.IncrementalForest keeps as a uniform sample
+     *         of those reaching each leaf, to grow the leaf from once it has
+     *         seen as many new ones, and times {@link #nTrees()} of all data,
+     *         to train replacement trees from. Default is 256.
+     */
+    public int reservoirSize() {
+        return reservoirSize;
+    }
+
     public static class Builder {
         private int nTrees = 5;
         private int nSample = 100;
         private int treeMaxDepth = 2;
         private float minInformationGain = 0f;
         private int minDataSizePerNode = 1;
+        private int nThreads = 1;
+        private Executor executor;
+        private SplitMode splitMode = SplitMode.RANDOM;
+        private int maxBins = 256;
+        private int nFeaturesPerNode = 0;
+        private long histogramPoolBytes = 64L << 20;
+        private boolean bootstrap = false;
+        private TrainingListener listener;
+        private boolean levelWise = false;
+        private long minParallelSearchCost = 1L << 20;
+        private long minParallelSubtreeCost = 1L << 14;
+        private SplitCriterion splitCriterion = SplitCriterion.ENTROPY;
+        private Long seed;
+        private float decay = 1f;
+        private int reservoirSize = 256;
+
+        public Builder() {
+        }
+
+        /**
+         * 
+         * @param trainingOption
+         *            the options to start from, seed included
+         */
+        public Builder(TrainingOptions trainingOption) {
+            this.nTrees = trainingOption.nTrees;
+            this.nSample = trainingOption.nSample;
+            this.treeMaxDepth = trainingOption.treeMaxDepth;
+            this.minInformationGain = trainingOption.minInformationGain;
+            this.minDataSizePerNode = trainingOption.minDataSizePerNode;
+            this.nThreads = trainingOption.nThreads;
+            this.executor = trainingOption.executor;
+            this.splitMode = trainingOption.splitMode;
+            this.maxBins = trainingOption.maxBins;
+            this.nFeaturesPerNode = trainingOption.nFeaturesPerNode;
+            this.histogramPoolBytes = trainingOption.histogramPoolBytes;
+            this.bootstrap = trainingOption.bootstrap;
+            this.listener = trainingOption.listener;
+            this.levelWise = trainingOption.levelWise;
+            this.minParallelSearchCost = trainingOption.minParallelSearchCost;
+            this.minParallelSubtreeCost = trainingOption.minParallelSubtreeCost;
+            this.splitCriterion = trainingOption.splitCriterion;
+            this.seed = trainingOption.seed;
+            this.decay = trainingOption.decay;
+            this.reservoirSize = trainingOption.reservoirSize;
+        }
 
         public Builder nTrees(int nTrees) {
             this.nTrees = nTrees;
@@ -91,8 +350,89 @@ public class TrainingOptions {
             return this;
         }
 
+        public Builder nThreads(int nThreads) {
+            this.nThreads = nThreads;
+            return this;
+        }
+
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder splitMode(SplitMode splitMode) {
+            this.splitMode = splitMode;
+            return this;
+        }
+
+        public Builder maxBins(int maxBins) {
+            if (maxBins < 2 || maxBins > 256)
+                throw new IllegalArgumentException("maxBins must be between 2 and 256, got " + maxBins);
+            this.maxBins = maxBins;
+            return this;
+        }
+
+        public Builder nFeaturesPerNode(int nFeaturesPerNode) {
+            this.nFeaturesPerNode = nFeaturesPerNode;
+            return this;
+        }
+
+        public Builder histogramPoolBytes(long histogramPoolBytes) {
+            this.histogramPoolBytes = histogramPoolBytes;
+            return this;
+        }
+
+        public Builder bootstrap(boolean bootstrap) {
+            this.bootstrap = bootstrap;
+            return this;
+        }
+
+        public Builder listener(TrainingListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public Builder levelWise(boolean levelWise) {
+            this.levelWise = levelWise;
+            return this;
+        }
+
+        public Builder minParallelSearchCost(long minParallelSearchCost) {
+            this.minParallelSearchCost = minParallelSearchCost;
+            return this;
+        }
+
+        public Builder minParallelSubtreeCost(long minParallelSubtreeCost) {
+            this.minParallelSubtreeCost = minParallelSubtreeCost;
+            return this;
+        }
+
+        public Builder splitCriterion(SplitCriterion splitCriterion) {
+            this.splitCriterion = splitCriterion;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder decay(float decay) {
+            if (!(decay > 0 && decay <= 1))
+                throw new IllegalArgumentException("decay must be in (0, 1], got " + decay);
+            this.decay = decay;
+            return this;
+        }
+
+        public Builder reservoirSize(int reservoirSize) {
+            if (reservoirSize < 1)
+                throw new IllegalArgumentException("reservoirSize must be positive, got " + reservoirSize);
+            this.reservoirSize = reservoirSize;
+            return this;
+        }
+
         public TrainingOptions build() {
-            return new TrainingOptions(nTrees, nSample, treeMaxDepth, minInformationGain, minDataSizePerNode);
+            return new TrainingOptions(this);
         }
     }
 }
@@ -0,0 +1,81 @@
+package ml.randomforest;
+
+import java.util.Random;
+
+import ml.randomforest.model.DataPoint;
+
+/**
+ * Synthetic data sets for the tests and the benchmarks. Each generator draws
+ * from the Random it is given, so a fixed seed gives the same data every run.
+ */
+public final class SampleGenerators {
+
+    private SampleGenerators() {
+    }
+
+    public static interface SampleGenerator {
+        public DataPoint generate();
+    }
+
+    public static DataPoint[] generateData(int N, SampleGenerator sampleGenerator) {
+        DataPoint[] data = new DataPoint[N];
+        for (int i = 0; i < N; i++) {
+            data[i] = sampleGenerator.generate();
+        }
+        return data;
+    }
+
+    /**
+     * Each class uniformly distributed in its own box,
+     * sampleRanges[class][feature] = { min, max }
+     */
+    public static class UniformSampleGenerator implements SampleGenerator {
+        private final float[][][] sampleRanges;
+        private final int nClasses;
+        private final int featureDimentions;
+        private final Random random;
+
+        public UniformSampleGenerator(float[][][] sampleRanges, Random random) {
+            this.sampleRanges = sampleRanges;
+            this.random = random;
+            nClasses = sampleRanges.length;
+            featureDimentions = sampleRanges[0].length;
+        }
+
+        @Override
+        public DataPoint generate() {
+            int label = random.nextInt(nClasses);
+            float[] features = new float[featureDimentions];
+            for (int f = 0; f < featureDimentions; f++) {
+                features[f] = sampleRanges[label][f][0]
+                        + random.nextFloat() * (sampleRanges[label][f][1] - sampleRanges[label][f][0]);
+            }
+            return new DataPoint(label, features);
+        }
+    }
+
+    /**
+     * nClasses interleaved spiral arms around (20, 20), in [0, 40) x [0, 40)
+     */
+    public static class Spiral2DSampleGenerator implements SampleGenerator {
+
+        private final int nClasses;
+        private final Random random;
+
+        public Spiral2DSampleGenerator(int nClasses, Random random) {
+            this.nClasses = nClasses;
+            this.random = random;
+        }
+
+        @Override
+        public DataPoint generate() {
+            int label = random.nextInt(nClasses);
+            float r = (float) ((random.nextGaussian() + 3) * 2);
+            double angle = 2 * Math.PI / nClasses * label + random.nextFloat() * 5 * Math.PI / nClasses / 10 + 0.5 * r;
+            float[] features = new float[2];
+            features[0] = (float) (r * Math.cos(angle) + 20);
+            features[1] = (float) (r * Math.sin(angle) + 20);
+            return new DataPoint(label, features);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ml.randomforest;
 
+import static ml.randomforest.SampleGenerators.generateData;
 import static org.junit.Assert.*;
 
 import java.awt.Color;
@@ -19,6 +20,9 @@ import javax.swing.JPanel;
 
 import org.junit.Test;
 
+import ml.randomforest.SampleGenerators.SampleGenerator;
+import ml.randomforest.SampleGenerators.Spiral2DSampleGenerator;
+import ml.randomforest.SampleGenerators.UniformSampleGenerator;
 import ml.randomforest.algo.RandomDecisionTree;
 import ml.randomforest.algo.RandomForest;
 import ml.randomforest.example.AxisAlignedLearner;
@@ -26,6 +30,7 @@ import ml.randomforest.example.AxisAlignedLearner.AxisAlignedParameterSet;
 import ml.randomforest.model.DataPoint;
 import ml.randomforest.model.DecisionTreeNode;
 import ml.randomforest.model.Learner;
+import ml.randomforest.model.SplitMode;
 import ml.randomforest.model.TrainingOptions;
 
 public class TestAxisAlignedLearner {
@@ -36,7 +41,8 @@ public class TestAxisAlignedLearner {
     public void testDecisionTreeUinformSample2Classes() {
         int nClasses = 2;
         float[][][] sampleRangesForAllClasses = { { { 1, 2 }, { 1, 2 } }, { { 4, 5 }, { 1, 2 } } };
-        UniformSampleGenerator uniformSampleGenerator = new UniformSampleGenerator(sampleRangesForAllClasses);
+        UniformSampleGenerator uniformSampleGenerator = new UniformSampleGenerator(sampleRangesForAllClasses,
+                random);
         int nTraining = 500;
         DataPoint[] trainingSet = generateData(nTraining, uniformSampleGenerator);
         float[][] rangeToSample = { { 0, 6 }, { 0, 3 } };
@@ -71,7 +77,7 @@ public class TestAxisAlignedLearner {
         TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(4).treeMaxDepth(5).build();
         float[][][] sampleRangesForAllClasses = { { { 1, 2 }, { 1, 2 } }, { { 4, 5 }, { 1, 3 } },
                 { { 1, 2 }, { 3, 5 } }, { { 4, 5 }, { 5, 8 } } };
-        SampleGenerator sampleGenerator = new UniformSampleGenerator(sampleRangesForAllClasses);
+        SampleGenerator sampleGenerator = new UniformSampleGenerator(sampleRangesForAllClasses, random);
         DataPoint[] trainingSet = generateData(nTraining, sampleGenerator);
         DataPoint[] testSet = generateData(nTest, sampleGenerator);
         DecisionTreeNode[] forest = testRandomForest(trainingSet, testSet, learner, trainingOption, expectedAccuracy);
@@ -88,7 +94,7 @@ public class TestAxisAlignedLearner {
         Learner learner = new AxisAlignedLearner(nClasses, rangeToSample);
         TrainingOptions trainingOption = new TrainingOptions.Builder().nSample(10).nTrees(400).treeMaxDepth(10)
                 .build();
-        SampleGenerator sampleGenerator = new Spiral2DSampleGenerator(nClasses);
+        SampleGenerator sampleGenerator = new Spiral2DSampleGenerator(nClasses, random);
         DataPoint[] trainingSet = generateData(nTraining, sampleGenerator);
         DataPoint[] testSet = generateData(nTest, sampleGenerator);
         DecisionTreeNode[] forest = testRandomForest(trainingSet, testSet, learner, trainingOption, expectedAccuracy);
@@ -96,6 +102,22 @@ public class TestAxisAlignedLearner {
 
     }
 
+    @Test
+    public void testSpiralSampleHistogramSplit() {
+        int nClasses = 5;
+        int nTraining = 1000;
+        int nTest = 100;
+        float[][] rangeToSample = { { 0, 40 }, { 0, 40 } };
+        float expectedAccuracy = 90;
+        Learner learner = new AxisAlignedLearner(nClasses, rangeToSample);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().splitMode(SplitMode.HISTOGRAM).nTrees(100)
+                .treeMaxDepth(10).build();
+        SampleGenerator sampleGenerator = new Spiral2DSampleGenerator(nClasses, random);
+        DataPoint[] trainingSet = generateData(nTraining, sampleGenerator);
+        DataPoint[] testSet = generateData(nTest, sampleGenerator);
+        testRandomForest(trainingSet, testSet, learner, trainingOption, expectedAccuracy);
+    }
+
     private static DecisionTreeNode[] testRandomForest(DataPoint[] trainingSet, DataPoint[] testSet, Learner learner,
             TrainingOptions trainingOption, float expectedAccuracy) {
         long before = System.currentTimeMillis();
@@ -180,12 +202,19 @@ public class TestAxisAlignedLearner {
             double xScale = ((double) getWidth() - 2 * BORDER_GAP) / nGridX;
             double yScale = ((double) getHeight() - 2 * BORDER_GAP) / nGridY;
 
+            float[][] grid = new float[nGridX * nGridY][];
             for (int i = 0; i < nGridX; i++) {
                 for (int j = 0; j < nGridY; j++) {
                     float x = (i + 0.5f) / nGridX * (dataRange[0][1] - dataRange[0][0]);
                     float y = (j + 0.5f) / nGridY * (dataRange[1][1] - dataRange[1][0]);
-                    DataPoint dataPoint = new DataPoint(new float[] { x, y });
-                    float[] classesDistribution = RandomForest.classify(dataPoint, forest);
+                    grid[i * nGridY + j] = new float[] { x, y };
+                }
+            }
+            float[][] gridDistribution = RandomForest.classifyBatch(grid, forest);
+
+            for (int i = 0; i < nGridX; i++) {
+                for (int j = 0; j < nGridY; j++) {
+                    float[] classesDistribution = gridDistribution[i * nGridY + j];
                     float red = 0, green = 0, blue = 0;
                     for (int c = 0; c < classesDistribution.length; c++) {
                         red += COLORS[c].getRed() * classesDistribution[c];
@@ -228,60 +257,4 @@ public class TestAxisAlignedLearner {
         }
         return mostLikelyClass;
     }
-
-    private static interface SampleGenerator {
-        public DataPoint generate();
-    }
-
-    private static DataPoint[] generateData(int N, SampleGenerator sampleGenerator) {
-        DataPoint[] data = new DataPoint[N];
-        for (int i = 0; i < N; i++) {
-            data[i] = sampleGenerator.generate();
-        }
-        return data;
-    }
-
-    private static class UniformSampleGenerator implements SampleGenerator {
-        private final float[][][] sampleRanges;
-        private final int nClasses;
-        private final int featureDimentions;
-
-        public UniformSampleGenerator(float[][][] sampleRanges) {
-            this.sampleRanges = sampleRanges;
-            nClasses = sampleRanges.length;
-            featureDimentions = sampleRanges[0].length;
-        }
-
-        @Override
-        public DataPoint generate() {
-            int label = random.nextInt(nClasses);
-            float[] features = new float[featureDimentions];
-            for (int f = 0; f < featureDimentions; f++) {
-                features[f] = sampleRanges[label][f][0]
-                        + random.nextFloat() * (sampleRanges[label][f][1] - sampleRanges[label][f][0]);
-            }
-            return new DataPoint(label, features);
-        }
-    }
-
-    private static class Spiral2DSampleGenerator implements SampleGenerator {
-
-        private final int nClasses;
-
-        public Spiral2DSampleGenerator(int nClasses) {
-            this.nClasses = nClasses;
-        }
-
-        @Override
-        public DataPoint generate() {
-            int label = random.nextInt(nClasses);
-            float r = (float) ((random.nextGaussian() + 3) * 2);
-            double angle = 2 * Math.PI / nClasses * label + random.nextFloat() * 5 * Math.PI / nClasses / 10 + 0.5 * r;
-            float[] features = new float[2];
-            features[0] = (float) (r * Math.cos(angle) + 20);
-            features[1] = (float) (r * Math.sin(angle) + 20);
-            return new DataPoint(label, features);
-        }
-    }
-
 }
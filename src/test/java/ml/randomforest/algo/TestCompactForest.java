@@ -0,0 +1,84 @@
+package ml.randomforest.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.randomforest.algo.CompactForest.Thresholds;
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestCompactForest {
+
+    @Test
+    public void testBinIndexThresholds() {
+        DataPoint[] data = TestRandomForest.threeClasses(new Random(11), 500);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(10).nSample(5).treeMaxDepth(6)
+                .seed(1).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(data, TestRandomForest.threeClassLearner(),
+                trainingOption);
+        CompactForest compact = CompactForest.compact(forest, 16, Thresholds.BIN_INDEX);
+        CompiledForest compiled = CompiledForest.compile(forest);
+        assertEquals(compiled.nNodes(), compact.nNodes());
+        assertEquals(compiled.nLeaves(), compact.nLeaves());
+        // the pure leaves share a distribution
+        assertTrue(compact.nDistributions() < compact.nLeaves());
+
+        // the same paths, up to half a step of fixed point per tree
+        FeatureMatrix matrix = FeatureMatrix.fromDataPoints(data);
+        float[] p = new float[3];
+        float[] q = new float[3];
+        for (int i = 0; i < data.length; i++) {
+            compiled.classify(data[i], p);
+            compact.classify(data[i].getFeatures(), q);
+            assertArrayEquals(p, q, 0.5f / 65535);
+            compact.classify(matrix, i, q);
+            assertArrayEquals(p, q, 0.5f / 65535);
+        }
+
+        CompactForest.Report report = compact.compare(forest, matrix);
+        assertEquals(0f, report.getAccuracyDelta(), 0f);
+        assertEquals(0f, report.getChangedPredictions(), 0f);
+        assertTrue(report.getCompactBytes() * 5 < report.getNodeBytes());
+    }
+
+    @Test
+    public void testFloat16Thresholds() {
+        DataPoint[] data = TestRandomForest.threeClasses(new Random(12), 500);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(10).nSample(5).treeMaxDepth(6)
+                .seed(2).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(data, TestRandomForest.threeClassLearner(),
+                trainingOption);
+        CompactForest compact = CompactForest.compact(forest, 8, Thresholds.FLOAT16);
+        CompactForest.Report report = compact.compare(forest,
+                FeatureMatrix.fromDataPoints(TestRandomForest.threeClasses(new Random(13), 1000)));
+        assertEquals(0f, report.getAccuracyDelta(), 0.02f);
+        assertTrue(report.getMaxProbabilityError() < 0.2f);
+
+        for (float f : new float[] { 0f, -0f, 1f, -2.5f, 1e-3f, 1e-6f, 65504f, 3.14159f, 1e-8f }) {
+            float h = CompactForest.toFloat(CompactForest.toFloat16(f));
+            assertEquals(f, h, Math.abs(f) / 2048 + 0x1p-25f);
+            // exactly back from a half precision float
+            assertEquals(Float.floatToIntBits(h),
+                    Float.floatToIntBits(CompactForest.toFloat(CompactForest.toFloat16(h))));
+        }
+        assertEquals(Float.POSITIVE_INFINITY, CompactForest.toFloat(CompactForest.toFloat16(1e5f)), 0f);
+        // ties to even, and a carry into the exponent
+        assertEquals(1f, CompactForest.toFloat(CompactForest.toFloat16(1f + 0x1p-11f)), 0f);
+        assertEquals(2f, CompactForest.toFloat(CompactForest.toFloat16(2f - 0x1p-12f)), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCustomParameterSet() {
+        ParameterSet diagonal = dataPoint -> dataPoint.getFeatures()[0] < dataPoint.getFeatures()[1];
+        DecisionTreeNode root = TestCompiledForest.node(new int[] { 3, 1 }, diagonal);
+        root.setLeft(TestCompiledForest.node(new int[] { 3, 0 }, null));
+        root.setRight(TestCompiledForest.node(new int[] { 0, 1 }, null));
+        CompactForest.compact(new DecisionTreeNode[] { root }, 8, Thresholds.FLOAT16);
+    }
+}
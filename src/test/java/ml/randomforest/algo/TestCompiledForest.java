@@ -0,0 +1,138 @@
+package ml.randomforest.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestCompiledForest {
+
+    @Test
+    public void testSameAsForest() {
+        DataPoint[] data = TestRandomForest.threeClasses(new Random(14), 300);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(10).nSample(5).treeMaxDepth(6)
+                .seed(1).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(data, TestRandomForest.threeClassLearner(),
+                trainingOption);
+        CompiledForest compiled = CompiledForest.compile(forest);
+        assertEquals(10, compiled.nTrees());
+        assertEquals(3, compiled.nClasses());
+
+        FeatureMatrix matrix = FeatureMatrix.fromDataPoints(data);
+        float[] p = new float[3];
+        for (int i = 0; i < data.length; i++) {
+            float[] expected = RandomForest.classify(data[i], forest);
+            compiled.classify(data[i], p);
+            assertArrayEquals(expected, p, 0f);
+            compiled.classify(data[i].getFeatures(), p);
+            assertArrayEquals(expected, p, 0f);
+            compiled.classify(matrix, i, p);
+            assertArrayEquals(expected, p, 0f);
+        }
+    }
+
+    @Test
+    public void testClassifyBatch() {
+        DataPoint[] data = TestRandomForest.threeClasses(new Random(15), 1000);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(7).nSample(5).treeMaxDepth(6)
+                .seed(2).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(data, TestRandomForest.threeClassLearner(),
+                trainingOption);
+        float[][] rows = new float[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            rows[i] = data[i].getFeatures();
+        }
+        float[][] p = RandomForest.classifyBatch(rows, forest);
+        float[][] q = new float[data.length][3];
+        CompiledForest.compile(forest).classifyBatch(FeatureMatrix.fromDataPoints(data), q);
+        for (int i = 0; i < data.length; i++) {
+            float[] expected = RandomForest.classify(data[i], forest);
+            assertArrayEquals(expected, p[i], 0f);
+            assertArrayEquals(expected, q[i], 0f);
+        }
+    }
+
+    @Test
+    public void testCustomParameterSet() {
+        ParameterSet diagonal = dataPoint -> dataPoint.getFeatures()[0] < dataPoint.getFeatures()[1];
+        DecisionTreeNode root = node(new int[] { 3, 1 }, diagonal);
+        root.setLeft(node(new int[] { 3, 0 }, null));
+        root.setRight(node(new int[] { 0, 1 }, null));
+        CompiledForest compiled = CompiledForest.compile(new DecisionTreeNode[] { root });
+        assertEquals(1, compiled.nNodes());
+        assertEquals(2, compiled.nLeaves());
+
+        float[] p = new float[2];
+        compiled.classify(new float[] { 1, 2 }, p);
+        assertArrayEquals(new float[] { 1, 0 }, p, 0f);
+        compiled.classify(new DataPoint(new float[] { 2, 1 }), p);
+        assertArrayEquals(new float[] { 0, 1 }, p, 0f);
+    }
+
+    @Test
+    public void testClassifyEarlyExit() {
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(50).nSample(5).treeMaxDepth(6)
+                .seed(1).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(TestRandomForest.twoClasses(new Random(16), 500),
+                TestRandomForest.learner(), trainingOption);
+        CompiledForest compiled = CompiledForest.compile(forest);
+        // rows across the gap between the classes, where the trees disagree
+        Random random = new Random(3);
+        float[][] rows = new float[1000][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new float[] { 1 + 4 * random.nextFloat(), 1 + random.nextFloat() };
+        }
+        float[] all = new float[2];
+        float[] p = new float[2];
+        int nTreesExact = 0, nTreesBound = 0, nAgree = 0;
+        for (float[] row : rows) {
+            compiled.classify(row, all);
+            int k = compiled.classifyEarlyExit(row, p, 0f);
+            assertEquals(argMax(all), argMax(p));
+            nTreesExact += k;
+            if (k == 50)
+                assertArrayEquals(all, p, 0f);
+            nTreesBound += compiled.classifyEarlyExit(row, p, 0.01f);
+            nAgree += argMax(all) == argMax(p) ? 1 : 0;
+        }
+        assertTrue(nTreesExact < 50 * rows.length * 0.7);
+        assertTrue(nTreesBound < nTreesExact);
+        assertTrue(nAgree > 0.97 * rows.length);
+
+        FeatureMatrix validation = FeatureMatrix.fromDataPoints(TestRandomForest.twoClasses(new Random(17), 200));
+        int[] order = compiled.treeOrderByAccuracy(validation);
+        assertEquals(50, IntStream.of(order).distinct().filter(t -> t >= 0 && t < 50).count());
+        CompiledForest ordered = compiled.inTreeOrder(order);
+        for (int i = 0; i < validation.nRows(); i++) {
+            compiled.classify(validation, i, all);
+            ordered.classify(validation, i, p);
+            assertArrayEquals(all, p, 1e-6f);
+            ordered.classifyEarlyExit(validation, i, p, 0f);
+            assertEquals(argMax(all), argMax(p));
+        }
+    }
+
+    private static int argMax(float[] p) {
+        return p[1] > p[0] ? 1 : 0;
+    }
+
+    static DecisionTreeNode node(int[] histogram, ParameterSet param) {
+        DecisionTreeNode node = new DecisionTreeNode(histogram.length);
+        System.arraycopy(histogram, 0, node.getHistogram(), 0, histogram.length);
+        int nTotal = 0;
+        for (int h : histogram) {
+            nTotal += h;
+        }
+        node.setNTotal(nTotal);
+        node.setParam(param);
+        return node;
+    }
+}
@@ -0,0 +1,185 @@
+package ml.randomforest.algo;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.randomforest.example.AxisAlignedLearner;
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.ParameterSetCodec;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestForestFile {
+
+    @Test
+    public void testSameAsCompiledForest() throws IOException {
+        DataPoint[] data = TestRandomForest.threeClasses(new Random(18), 500);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(10).nSample(5).treeMaxDepth(6)
+                .seed(1).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(data, TestRandomForest.threeClassLearner(),
+                trainingOption);
+        File file = tempFile();
+        ForestFile.write(forest, file);
+        MappedForest mapped = MappedForest.open(file);
+        CompiledForest compiled = CompiledForest.compile(forest);
+        assertEquals(compiled.nTrees(), mapped.nTrees());
+        assertEquals(compiled.nNodes(), mapped.nNodes());
+        assertEquals(compiled.nLeaves(), mapped.nLeaves());
+
+        FeatureMatrix matrix = FeatureMatrix.fromDataPoints(data);
+        float[][] rows = new float[data.length][];
+        float[][] batch = new float[data.length][3];
+        for (int i = 0; i < data.length; i++) {
+            rows[i] = data[i].getFeatures();
+        }
+        mapped.classifyBatch(rows, batch);
+        float[] expected = new float[3];
+        float[] p = new float[3];
+        for (int i = 0; i < data.length; i++) {
+            compiled.classify(data[i], expected);
+            mapped.classify(data[i], p);
+            assertArrayEquals(expected, p, 0f);
+            mapped.classify(matrix, i, p);
+            assertArrayEquals(expected, p, 0f);
+            assertArrayEquals(expected, batch[i], 0f);
+        }
+    }
+
+    @Test
+    public void testCustomParameterSet() throws IOException {
+        DecisionTreeNode root = TestCompiledForest.node(new int[] { 3, 1 }, new Diagonal());
+        root.setLeft(TestCompiledForest.node(new int[] { 3, 0 }, null));
+        root.setRight(TestCompiledForest.node(new int[] { 0, 1 }, null));
+        File file = tempFile();
+        ForestFile.write(new DecisionTreeNode[] { root }, file, DIAGONAL);
+        MappedForest mapped = MappedForest.open(file, DIAGONAL);
+
+        float[] p = new float[2];
+        mapped.classify(new float[] { 1, 2 }, p);
+        assertArrayEquals(new float[] { 1, 0 }, p, 0f);
+        mapped.classify(new DataPoint(new float[] { 2, 1 }), p);
+        assertArrayEquals(new float[] { 0, 1 }, p, 0f);
+
+        try {
+            MappedForest.open(file);
+            fail();
+        } catch (IOException e) {
+            assertEquals("no codec named diagonal", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoCodec() throws IOException {
+        DecisionTreeNode root = TestCompiledForest.node(new int[] { 3, 1 }, new Diagonal());
+        root.setLeft(TestCompiledForest.node(new int[] { 3, 0 }, null));
+        root.setRight(TestCompiledForest.node(new int[] { 0, 1 }, null));
+        ForestFile.write(new DecisionTreeNode[] { root }, tempFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAForestFile() throws IOException {
+        File file = tempFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[64]);
+        }
+        MappedForest.open(file);
+    }
+
+    @Test
+    public void testCorruptHeader() throws IOException {
+        DecisionTreeNode root = TestCompiledForest.node(new int[] { 3, 1 }, new Diagonal());
+        root.setLeft(TestCompiledForest.node(new int[] { 3, 0 }, null));
+        root.setRight(TestCompiledForest.node(new int[] { 0, 1 }, null));
+        File file = tempFile();
+        // nNodes whose records would take 2^32 bytes, 0 in int arithmetic;
+        // a negative nLeaves; a custom node out of range; a negative length
+        int[][] patches = { { 16, 1 << 28 }, { 20, -1 }, { 32 + 4 + 16 + 4 * 2 * 2 + 2 + "diagonal".length(), 5 },
+                { 32 + 4 + 16 + 4 * 2 * 2 + 2 + "diagonal".length() + 8, -3 } };
+        for (int[] patch : patches) {
+            ForestFile.write(new DecisionTreeNode[] { root }, file, DIAGONAL);
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.seek(patch[0]);
+                out.writeInt(patch[1]);
+            }
+            try {
+                MappedForest.open(file, DIAGONAL);
+                fail("expected an IOException patching " + patch[0]);
+            } catch (IOException e) {
+                // corrupt
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptNodes() throws IOException {
+        DecisionTreeNode root = TestCompiledForest.node(new int[] { 3, 1 },
+                new AxisAlignedLearner.AxisAlignedParameterSet(0, 1.5f));
+        root.setLeft(TestCompiledForest.node(new int[] { 3, 0 }, null));
+        root.setRight(TestCompiledForest.node(new int[] { 0, 1 }, null));
+        File file = tempFile();
+        // a root out of range; a left child back up the tree; a right leaf
+        // out of range; a custom node without a parameter set
+        int[][] patches = { { 32, 1 }, { 36 + 8, 0 }, { 36 + 12, ~2 }, { 36, CompiledForest.CUSTOM } };
+        float[] p = new float[2];
+        for (int[] patch : patches) {
+            ForestFile.write(new DecisionTreeNode[] { root }, file);
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.seek(patch[0]);
+                out.writeInt(patch[1]);
+            }
+            MappedForest mapped = MappedForest.open(file);
+            try {
+                mapped.classify(new float[] { 1, 0 }, p);
+                mapped.classify(new float[] { 2, 0 }, p);
+                fail("expected an IllegalStateException patching " + patch[0]);
+            } catch (IllegalStateException e) {
+                // corrupt
+            }
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("forest", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static class Diagonal implements ParameterSet {
+        @Override
+        public boolean evaluateDecision(DataPoint dataPoint) {
+            return dataPoint.getFeatures()[0] < dataPoint.getFeatures()[1];
+        }
+    }
+
+    private static final ParameterSetCodec DIAGONAL = new ParameterSetCodec() {
+        @Override
+        public String getName() {
+            return "diagonal";
+        }
+
+        @Override
+        public boolean canEncode(ParameterSet param) {
+            return param instanceof Diagonal;
+        }
+
+        @Override
+        public void encode(ParameterSet param, DataOutput out) throws IOException {
+        }
+
+        @Override
+        public ParameterSet decode(DataInput in) throws IOException {
+            return new Diagonal();
+        }
+    };
+}
@@ -0,0 +1,135 @@
+package ml.randomforest.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestIncrementalForest {
+
+    @Test
+    public void testUpdateCounts() {
+        Random random = new Random(1);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(4).treeMaxDepth(3).seed(1).build();
+        DecisionTreeNode[] trained = RandomForest.trainClassifier(TestRandomForest.twoClasses(random, 500),
+                TestRandomForest.learner(), trainingOption);
+        IncrementalForest forest = new IncrementalForest(trained, TestRandomForest.learner(), trainingOption);
+        forest.update(TestRandomForest.twoClasses(random, 100));
+        for (int t = 0; t < trained.length; t++) {
+            // the trained trees are copied on write, not modified
+            assertEquals(500, trained[t].getNTotal());
+            assertEquals(600, forest.getForest()[t].getNTotal());
+            assertSame(trained[t].getParam(), forest.getForest()[t].getParam());
+            assertLeavesAddUp(forest.getForest()[t]);
+            assertTrue(forest.getAccuracy(t) > 0.9f);
+        }
+
+        IncrementalForest decaying = new IncrementalForest(trained, TestRandomForest.learner(),
+                new TrainingOptions.Builder().nTrees(4).treeMaxDepth(3).decay(0.5f).build());
+        decaying.update(TestRandomForest.twoClasses(random, 100));
+        for (DecisionTreeNode tree : decaying.getForest()) {
+            assertEquals(350, tree.getNTotal(), 10);
+            assertLeavesAddUp(tree);
+        }
+        // counts of data no longer seen fade out
+        for (int i = 0; i < 40; i++) {
+            decaying.update(new DataPoint[0]);
+        }
+        for (DecisionTreeNode tree : decaying.getForest()) {
+            assertEquals(0, tree.getNTotal());
+            assertLeavesAddUp(tree);
+        }
+        assertArrayEquals(new float[2], decaying.classify(new DataPoint(0, new float[] { 1.5f, 1.5f })), 0f);
+    }
+
+    @Test
+    public void testGrowLeaves() {
+        Random random = new Random(2);
+        // too few data to split at first
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(2).treeMaxDepth(4)
+                .minDataSizePerNode(50).reservoirSize(100).seed(1).build();
+        DecisionTreeNode[] trained = RandomForest.trainClassifier(TestRandomForest.twoClasses(random, 40),
+                TestRandomForest.learner(), trainingOption);
+        assertNull(trained[0].getParam());
+        IncrementalForest forest = new IncrementalForest(trained, TestRandomForest.learner(), trainingOption);
+        for (int i = 0; i < 5; i++) {
+            forest.update(TestRandomForest.twoClasses(random, 50));
+        }
+        for (DecisionTreeNode tree : forest.getForest()) {
+            assertNotNull(tree.getParam());
+            assertEquals(290, tree.getNTotal());
+            // the subtrees grown on samples are scaled to the leaves' counts
+            assertLeavesAddUp(tree);
+        }
+        assertEquals(1, forest.classify(new DataPoint(1, new float[] { 4.5f, 1.5f }))[1], 0.1f);
+    }
+
+    @Test
+    public void testDriftAndReplaceWorstTrees() throws Exception {
+        Random random = new Random(3);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(4).treeMaxDepth(3).decay(0.5f)
+                .seed(1).build();
+        DecisionTreeNode[] trained = RandomForest.trainClassifier(TestRandomForest.twoClasses(random, 500),
+                TestRandomForest.learner(), trainingOption);
+        IncrementalForest forest = new IncrementalForest(trained, TestRandomForest.learner(), trainingOption);
+
+        // readers classify while the labels flip
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                Random features = new Random(4);
+                while (!done.get()) {
+                    float[] p = forest.classify(new DataPoint(-1, new float[] { features.nextFloat() * 6, 1.5f }));
+                    assertEquals(1f, p[0] + p[1], 1e-4f);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20; i++) {
+            DataPoint[] flipped = TestRandomForest.twoClasses(random, 100);
+            for (int j = 0; j < flipped.length; j++) {
+                flipped[j] = new DataPoint(1 - flipped[j].getLabel(), flipped[j].getFeatures());
+            }
+            forest.update(flipped);
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertTrue(forest.getAccuracy(0) > 0.9f);
+        assertEquals(1, forest.classify(new DataPoint(0, new float[] { 1.5f, 1.5f }))[1], 0.1f);
+
+        DecisionTreeNode[] before = forest.getForest();
+        forest.replaceWorstTrees(2, Runnable::run).get();
+        DecisionTreeNode[] after = forest.getForest();
+        int nReplaced = 0;
+        for (int t = 0; t < after.length; t++) {
+            if (after[t] != before[t]) {
+                nReplaced++;
+                assertTrue(Float.isNaN(forest.getAccuracy(t)));
+                assertLeavesAddUp(after[t]);
+            }
+        }
+        assertEquals(2, nReplaced);
+    }
+
+    private static void assertLeavesAddUp(DecisionTreeNode node) {
+        if (node.getParam() == null)
+            return;
+        assertEquals(node.getNTotal(), node.getLeft().getNTotal() + node.getRight().getNTotal());
+        for (int c = 0; c < node.getHistogram().length; c++) {
+            assertEquals(node.getHistogram()[c], node.getLeft().getHistogram()[c] + node.getRight().getHistogram()[c]);
+        }
+        assertLeavesAddUp(node.getLeft());
+        assertLeavesAddUp(node.getRight());
+    }
+}
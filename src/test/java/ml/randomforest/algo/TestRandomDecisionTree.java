@@ -2,8 +2,29 @@ package ml.randomforest.algo;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
 import org.junit.Test;
 
+import ml.randomforest.example.AxisAlignedLearner;
+import ml.randomforest.example.AxisAlignedLearner.AxisAlignedParameterSet;
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.ParameterSet;
+import ml.randomforest.model.SplitMode;
+import ml.randomforest.model.ThresholdDecision;
+import ml.randomforest.model.TrainingListener.StopReason;
+import ml.randomforest.model.TrainingMetrics;
+import ml.randomforest.model.TrainingOptions;
+
 public class TestRandomDecisionTree {
 
     @Test
@@ -40,4 +61,416 @@ public class TestRandomDecisionTree {
         rightHist = new int[] { 0, 0 };
         assertEquals(0, RandomDecisionTree.informationGain(currentE, leftHist, left, rightHist, right), 0);
     }
+
+    @Test
+    public void testBinCuts() {
+        float[] sorted = { 1, 1, 2, 4, 4, 4 };
+        float[] cuts = FeatureBins.cuts(sorted, 256);
+        assertArrayEquals(new float[] { 1.5f, 3 }, cuts, 0f);
+        assertEquals(0, FeatureBins.bin(cuts, 1));
+        assertEquals(1, FeatureBins.bin(cuts, 2.5f));
+        assertEquals(2, FeatureBins.bin(cuts, 3));
+        assertEquals(2, FeatureBins.bin(cuts, 4));
+        assertEquals(2, FeatureBins.bin(cuts, Float.NaN));
+
+        sorted = new float[1000];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        cuts = FeatureBins.cuts(sorted, 4);
+        assertArrayEquals(new float[] { 249.5f, 499.5f, 749.5f }, cuts, 0f);
+    }
+
+    @Test
+    public void testHistogramSplit() {
+        // fewer distinct values than bins, so there is a cut between the
+        // classes
+        DataPoint[] data = TestRandomForest.twoClasses(new Random(19), 200);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().splitMode(SplitMode.HISTOGRAM)
+                .nFeaturesPerNode(2).build();
+        DecisionTreeNode tree = RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(), trainingOption);
+        ThresholdDecision param = (ThresholdDecision) tree.getParam();
+        assertEquals(0, param.getAxis());
+        assertTrue(param.getThreshold() > 2 && param.getThreshold() < 4);
+        assertEquals(0, RandomDecisionTree.entropy(tree.getLeft().getNTotal(), tree.getLeft().getHistogram()), 0);
+        assertEquals(0, RandomDecisionTree.entropy(tree.getRight().getNTotal(), tree.getRight().getHistogram()), 0);
+    }
+
+    @Test
+    public void testExactSplit() {
+        DataPoint[] data = TestRandomForest.twoClasses(new Random(20), 1000);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().splitMode(SplitMode.EXACT).nFeaturesPerNode(2)
+                .build();
+        DecisionTreeNode tree = RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(), trainingOption);
+        ThresholdDecision param = (ThresholdDecision) tree.getParam();
+        assertEquals(0, param.getAxis());
+        assertTrue(param.getThreshold() > 2 && param.getThreshold() < 4);
+        assertEquals(0, RandomDecisionTree.entropy(tree.getLeft().getNTotal(), tree.getLeft().getHistogram()), 0);
+        assertEquals(0, RandomDecisionTree.entropy(tree.getRight().getNTotal(), tree.getRight().getHistogram()), 0);
+    }
+
+    @Test
+    public void testExactSplitPartitionsByThreshold() {
+        // overlapping classes with ties, for a deep tree of large and small
+        // nodes
+        Random random = new Random(6);
+        DataPoint[] data = new DataPoint[2000];
+        for (int i = 0; i < data.length; i++) {
+            int label = random.nextInt(3);
+            data[i] = new DataPoint(label, new float[] { label + random.nextInt(40) / 10f, random.nextFloat() });
+        }
+        Learner learner = new AxisAlignedLearner(3, new float[][] { { 0, 6 }, { 0, 1 } });
+        for (boolean bootstrap : new boolean[] { false, true }) {
+            TrainingOptions trainingOption = new TrainingOptions.Builder().splitMode(SplitMode.EXACT).treeMaxDepth(14)
+                    .nFeaturesPerNode(2).bootstrap(bootstrap).seed(7).build();
+            DecisionTreeNode tree = RandomDecisionTree.trainClassifier(data, learner, trainingOption);
+            // the rows each node's thresholds send it add up to its counts
+            Map<DecisionTreeNode, int[]> counts = new IdentityHashMap<>();
+            int[] weights = TrainingContext.prepare(FeatureMatrix.fromDataPoints(data), learner, trainingOption, false)
+                    .forTree(0).weights;
+            for (int row = 0; row < data.length; row++) {
+                int weight = weights == null ? 1 : weights[row];
+                for (DecisionTreeNode node = tree; node != null && weight > 0; node = node.getParam() == null ? null
+                        : node.getParam().evaluateDecision(data[row]) ? node.getLeft() : node.getRight()) {
+                    counts.computeIfAbsent(node, n -> new int[3])[data[row].getLabel()] += weight;
+                }
+            }
+            for (Map.Entry<DecisionTreeNode, int[]> entry : counts.entrySet()) {
+                assertArrayEquals(entry.getKey().getHistogram(), entry.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testPresortedSegments() {
+        Random random = new Random(8);
+        DataPoint[] data = new DataPoint[500];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new DataPoint(0, new float[] { random.nextInt(20), random.nextFloat(), random.nextInt(3) });
+        }
+        FeatureMatrix matrix = FeatureMatrix.fromDataPoints(data);
+        int[] index = IntStream.range(0, data.length).filter(row -> random.nextInt(3) > 0).toArray();
+        PresortedFeatures shared = PresortedFeatures.of(matrix);
+        PresortedFeatures chars = shared.forTree(index.clone(), true);
+        PresortedFeatures ints = shared.forTree(index.clone(), false);
+        int[] charIndex = index.clone(), intIndex = index.clone();
+        // split nodes at random down to a few rows, checking both keep each
+        // node's rows sorted by every feature
+        Deque<int[]> nodes = new ArrayDeque<>();
+        nodes.push(new int[] { 0, index.length });
+        while (!nodes.isEmpty()) {
+            int[] node = nodes.pop();
+            for (int f = 0; f < 3; f++) {
+                int[] sorted = chars.sort(node[0], node[1], f).clone();
+                assertArrayEquals(Arrays.copyOfRange(sorted, node[0], node[1]),
+                        Arrays.copyOfRange(ints.sort(node[0], node[1], f), node[0], node[1]));
+                int[] rows = Arrays.copyOfRange(charIndex, node[0], node[1]);
+                Arrays.sort(rows);
+                int[] sortedRows = Arrays.copyOfRange(sorted, node[0], node[1]);
+                for (int i = 1; i < sortedRows.length; i++) {
+                    assertTrue(matrix.getFeature(sortedRows[i - 1], f) <= matrix.getFeature(sortedRows[i], f));
+                }
+                Arrays.sort(sortedRows);
+                assertArrayEquals(rows, sortedRows);
+            }
+            if (node[1] - node[0] < 4)
+                continue;
+            int axis = random.nextInt(3), nLeft = 1 + random.nextInt(node[1] - node[0] - 1);
+            int partitionIndex = chars.partition(charIndex, node[0], node[1], axis, nLeft);
+            assertEquals(partitionIndex, ints.partition(intIndex, node[0], node[1], axis, nLeft));
+            assertArrayEquals(charIndex, intIndex);
+            nodes.push(new int[] { node[0], partitionIndex });
+            nodes.push(new int[] { partitionIndex, node[1] });
+        }
+    }
+
+    @Test
+    public void testChildCountsAddUpToParent() {
+        DataPoint[] data = TestRandomForest.twoClasses(new Random(21), 1000);
+        for (TrainingOptions trainingOption : new TrainingOptions[] {
+                new TrainingOptions.Builder().treeMaxDepth(8).nSample(5).build(),
+                new TrainingOptions.Builder().treeMaxDepth(8).splitMode(SplitMode.HISTOGRAM).build(),
+                new TrainingOptions.Builder().treeMaxDepth(8).splitMode(SplitMode.HISTOGRAM).histogramPoolBytes(0)
+                        .build(),
+                new TrainingOptions.Builder().treeMaxDepth(8).splitMode(SplitMode.EXACT).build() }) {
+            assertCountsAddUp(RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(), trainingOption));
+        }
+        // a table derived by subtracting a sibling's counts from its parent's
+        // must be the one counted from the rows: without a pool, every table
+        // is counted
+        for (boolean bootstrap : new boolean[] { false, true }) {
+            TrainingOptions.Builder builder = new TrainingOptions.Builder().treeMaxDepth(8)
+                    .splitMode(SplitMode.HISTOGRAM).bootstrap(bootstrap).seed(21);
+            assertSameTree(RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(), builder.build()),
+                    RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(),
+                            builder.histogramPoolBytes(0).build()));
+        }
+    }
+
+    @Test
+    public void testForkedSubtrees() {
+        DataPoint[] data = TestRandomForest.twoClasses(new Random(22), 1000);
+        for (SplitMode splitMode : SplitMode.values()) {
+            TrainingMetrics metrics = new TrainingMetrics();
+            TrainingOptions trainingOption = new TrainingOptions.Builder().treeMaxDepth(8).nSample(5)
+                    .splitMode(splitMode).minParallelSearchCost(0).minParallelSubtreeCost(0).listener(metrics)
+                    .build();
+            DecisionTreeNode tree = RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(),
+                    trainingOption);
+            assertCountsAddUp(tree);
+            assertEquals(metrics.getTreeNodes(0), metrics.getNSplits() + metrics.getNLeaves());
+            assertEquals(metrics.getNSplits() + 1, metrics.getNLeaves());
+            assertTrue(splitMode + " forked no subtree", metrics.getNForkedSubtrees() > 0);
+
+            // nothing is forked above the cutoff
+            metrics = new TrainingMetrics();
+            RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(), new TrainingOptions.Builder()
+                    .treeMaxDepth(8).nSample(5).splitMode(splitMode).listener(metrics).build());
+            assertEquals(0, metrics.getNForkedSubtrees());
+        }
+    }
+
+    @Test
+    public void testLevelWise() {
+        // one feature, so that ties between features cannot make the trees
+        // differ: stripes of alternating classes with 10% noise
+        Random random = new Random(7);
+        DataPoint[] data = new DataPoint[2000];
+        for (int i = 0; i < data.length; i++) {
+            float x = random.nextFloat() * 10;
+            int label = (int) x % 2 == 0 ^ random.nextInt(10) == 0 ? 0 : 1;
+            data[i] = new DataPoint(label, new float[] { x });
+        }
+        TrainingOptions.Builder builder = new TrainingOptions.Builder().splitMode(SplitMode.HISTOGRAM)
+                .treeMaxDepth(8).minDataSizePerNode(5);
+        DecisionTreeNode depthFirst = RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(),
+                builder.build());
+        DecisionTreeNode levelWise = RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(),
+                builder.levelWise(true).build());
+        assertSameTree(depthFirst, levelWise);
+        // one table at a time, a pass per node
+        assertSameTree(depthFirst, RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(),
+                builder.histogramPoolBytes(0).build()));
+
+        data = TestRandomForest.twoClasses(new Random(23), 1000);
+        for (TrainingOptions trainingOption : new TrainingOptions[] {
+                new TrainingOptions.Builder().treeMaxDepth(8).nSample(5).levelWise(true).seed(1).build(),
+                new TrainingOptions.Builder().treeMaxDepth(8).nSample(5).levelWise(true).bootstrap(true).seed(1)
+                        .build(),
+                new TrainingOptions.Builder().treeMaxDepth(8).splitMode(SplitMode.HISTOGRAM).levelWise(true)
+                        .bootstrap(true).seed(1).build() }) {
+            DecisionTreeNode tree = RandomDecisionTree.trainClassifier(data, TestRandomForest.learner(),
+                    trainingOption);
+            assertNotNull(tree.getParam());
+            assertCountsAddUp(tree);
+        }
+    }
+
+    @Test
+    public void testThresholdKernel() {
+        // heap columns are scored by the threshold kernel, off-heap ones
+        // decision by decision
+        DataPoint[] data = TestRandomForest.twoClasses(new Random(24), 3000);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nSample(10).treeMaxDepth(10).build();
+        assertSameTree(
+                RandomDecisionTree.trainClassifier(FeatureMatrix.fromDataPoints(data, true),
+                        new AxisAlignedLearner(2, new float[][] { { 0, 6 }, { 0, 3 } }, 5), trainingOption),
+                RandomDecisionTree.trainClassifier(FeatureMatrix.fromDataPoints(data),
+                        new AxisAlignedLearner(2, new float[][] { { 0, 6 }, { 0, 3 } }, 5), trainingOption));
+
+        // with weights and NaN, against the decisions themselves
+        Random random = new Random(3);
+        int nRows = 1000, nClasses = 3;
+        float[] column = new float[nRows];
+        int[] labels = new int[nRows];
+        int[] weights = new int[nRows];
+        for (int row = 0; row < nRows; row++) {
+            column[row] = row % 50 == 0 ? Float.NaN : random.nextFloat();
+            labels[row] = random.nextInt(nClasses);
+            weights[row] = random.nextInt(4);
+        }
+        int[] index = shuffledIndex(nRows, random);
+        float[] thresholds = { 0f, 0.25f, 0.5f, 1f };
+        int[] leftCounts = new int[thresholds.length * nClasses];
+        ThresholdKernels.KERNEL.countLeft(column, labels, weights, index, 100, 900, thresholds, nClasses,
+                leftCounts);
+        int[] expected = new int[thresholds.length * nClasses];
+        for (int i = 100; i < 900; i++) {
+            for (int k = 0; k < thresholds.length; k++) {
+                if (column[index[i]] < thresholds[k])
+                    expected[k * nClasses + labels[index[i]]] += weights[index[i]];
+            }
+        }
+        assertArrayEquals(expected, leftCounts);
+
+        int[] partitioned = index.clone();
+        int p = ThresholdKernels.KERNEL.partition(column, partitioned, 100, 900, 0.5f);
+        int[] expectedOrder = index.clone();
+        assertEquals(RandomDecisionTree.partition(FeatureMatrix.offHeap(new float[][] { column }, labels),
+                expectedOrder, 100, 900, new AxisAlignedParameterSet(0, 0.5f)), p);
+        assertArrayEquals(Arrays.copyOf(expectedOrder, p), Arrays.copyOf(partitioned, p));
+        Arrays.sort(expectedOrder, p, 900);
+        Arrays.sort(partitioned, p, 900);
+        assertArrayEquals(expectedOrder, partitioned);
+    }
+
+    @Test
+    public void testBatchDecisions() {
+        // a pairwise difference learner, f0 - f1 < threshold, with and
+        // without its own batch decisions
+        DataPoint[] data = TestRandomForest.twoClasses(new Random(25), 3000);
+        TrainingOptions.Builder builder = new TrainingOptions.Builder().nSample(10).treeMaxDepth(10);
+        DecisionTreeNode perRow = RandomDecisionTree.trainClassifier(data, new DifferenceLearner(false),
+                builder.build());
+        DecisionTreeNode batch = RandomDecisionTree.trainClassifier(data, new DifferenceLearner(true),
+                builder.build());
+        assertNotNull(batch.getParam());
+        assertSameCounts(perRow, batch);
+        assertCountsAddUp(RandomDecisionTree.trainClassifier(data, new DifferenceLearner(true),
+                builder.bootstrap(true).build()));
+    }
+
+    private static void assertSameCounts(DecisionTreeNode expected, DecisionTreeNode actual) {
+        assertArrayEquals(expected.getHistogram(), actual.getHistogram());
+        assertEquals(expected.getParam() == null, actual.getParam() == null);
+        if (expected.getParam() != null) {
+            assertSameCounts(expected.getLeft(), actual.getLeft());
+            assertSameCounts(expected.getRight(), actual.getRight());
+        }
+    }
+
+    private static final class DifferenceLearner implements Learner {
+        private final boolean batch;
+        private final Random random = new Random(11);
+
+        DifferenceLearner(boolean batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public int nClasses() {
+            return 2;
+        }
+
+        @Override
+        public ParameterSet sample() {
+            float threshold = random.nextFloat() * 8 - 4;
+            return batch ? new BatchDifference(threshold) : new Difference(threshold);
+        }
+    }
+
+    private static class Difference implements ParameterSet {
+        final float threshold;
+
+        Difference(float threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean evaluateDecision(DataPoint dataPoint) {
+            return dataPoint.getFeatures()[0] - dataPoint.getFeatures()[1] < threshold;
+        }
+    }
+
+    private static final class BatchDifference extends Difference {
+
+        BatchDifference(float threshold) {
+            super(threshold);
+        }
+
+        @Override
+        public void evaluateDecisions(FeatureMatrix data, int[] index, int lowInclusive, int hiExclusive,
+                long[] goesLeft) {
+            float[] x = data.heapColumn(0), y = data.heapColumn(1);
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                int row = index[i];
+                goesLeft[(i - lowInclusive) >>> 6] |= (x[row] - y[row] < threshold ? 1L : 0L) << (i - lowInclusive);
+            }
+        }
+
+        @Override
+        public void countDecisions(FeatureMatrix data, int[] index, int lowInclusive, int hiExclusive,
+                int[] weights, int[] leftHist, int[] rightHist) {
+            float[] x = data.heapColumn(0), y = data.heapColumn(1);
+            int[] labels = data.heapLabels();
+            for (int i = lowInclusive; i < hiExclusive; i++) {
+                int row = index[i];
+                int weight = weights == null ? 1 : weights[row];
+                boolean left = x[row] - y[row] < threshold;
+                leftHist[labels[row]] += left ? weight : 0;
+                rightHist[labels[row]] += left ? 0 : weight;
+            }
+        }
+    }
+
+    private static int[] shuffledIndex(int n, Random random) {
+        int[] index = RandomDecisionTree.identityPermutation(n);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = index[i];
+            index[i] = index[j];
+            index[j] = tmp;
+        }
+        return index;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLevelWiseNeedsRowSplitMode() {
+        RandomDecisionTree.trainClassifier(TestRandomForest.twoClasses(new Random(26), 100), TestRandomForest.learner(),
+                new TrainingOptions.Builder().splitMode(SplitMode.EXACT).levelWise(true).build());
+    }
+
+    @Test
+    public void testTrainingMetrics() {
+        DataPoint[] data = TestRandomForest.twoClasses(new Random(27), 1000);
+        TrainingMetrics metrics = new TrainingMetrics();
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(3).nSample(5).treeMaxDepth(4)
+                .listener(metrics).build();
+        RandomForest.trainClassifier(data, TestRandomForest.learner(), trainingOption);
+
+        long nNodes = 0;
+        for (int t = 0; t < 3; t++) {
+            assertTrue(metrics.getTreeNodes(t) > 0);
+            nNodes += metrics.getTreeNodes(t);
+        }
+        assertEquals(nNodes, metrics.getNSplits() + metrics.getNLeaves());
+        // a binary tree has one more leaf than splits
+        assertEquals(metrics.getNSplits() + 3, metrics.getNLeaves());
+        assertEquals(3 * data.length, metrics.getRowsAtDepth(1));
+        // the classes are separable, the nodes beneath them pure
+        assertTrue(metrics.getNLeaves(StopReason.NO_SPLIT) > 0);
+        long nSearched = metrics.getNSplits() + metrics.getNLeaves(StopReason.NO_SPLIT)
+                + metrics.getNLeaves(StopReason.MIN_INFORMATION_GAIN);
+        assertEquals(5 * nSearched, metrics.getNCandidates());
+    }
+
+    public static void assertSameTree(DecisionTreeNode expected, DecisionTreeNode actual) {
+        assertEquals(expected.getNTotal(), actual.getNTotal());
+        assertArrayEquals(expected.getHistogram(), actual.getHistogram());
+        if (expected.getParam() == null) {
+            assertNull(actual.getParam());
+            return;
+        }
+        ThresholdDecision expectedParam = (ThresholdDecision) expected.getParam();
+        ThresholdDecision actualParam = (ThresholdDecision) actual.getParam();
+        assertEquals(expectedParam.getAxis(), actualParam.getAxis());
+        assertEquals(expectedParam.getThreshold(), actualParam.getThreshold(), 0f);
+        assertSameTree(expected.getLeft(), actual.getLeft());
+        assertSameTree(expected.getRight(), actual.getRight());
+    }
+
+    private static void assertCountsAddUp(DecisionTreeNode node) {
+        int nTotal = 0;
+        for (int c = 0; c < node.getHistogram().length; c++) {
+            nTotal += node.getHistogram()[c];
+        }
+        assertEquals(node.getNTotal(), nTotal);
+        if (node.getParam() == null)
+            return;
+        for (int c = 0; c < node.getHistogram().length; c++) {
+            assertEquals(node.getHistogram()[c], node.getLeft().getHistogram()[c] + node.getRight().getHistogram()[c]);
+        }
+        assertCountsAddUp(node.getLeft());
+        assertCountsAddUp(node.getRight());
+    }
 }
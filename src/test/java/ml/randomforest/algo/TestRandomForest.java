@@ -0,0 +1,243 @@
+package ml.randomforest.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ml.randomforest.example.AxisAlignedLearner;
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.OutOfBagEstimate;
+import ml.randomforest.model.SplitMode;
+import ml.randomforest.model.TrainingMetrics;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestRandomForest {
+
+    @Test
+    public void testTrainingDoesNotReorderData() {
+        DataPoint[] data = twoClasses(new Random(28), 200);
+        DataPoint[] copy = data.clone();
+        RandomDecisionTree.trainClassifier(data, learner(),
+                new TrainingOptions.Builder().treeMaxDepth(5).seed(1).build());
+        assertArrayEquals(copy, data);
+    }
+
+    @Test
+    public void testParallelTraining() {
+        DataPoint[] data = twoClasses(new Random(29), 500);
+        DataPoint[] copy = data.clone();
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(16).treeMaxDepth(5).nThreads(4)
+                .seed(2).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(data, learner(), trainingOption);
+        assertArrayEquals(copy, data);
+        assertForest(forest, 16, data);
+    }
+
+    @Test
+    public void testParallelTrainingOnExecutor() {
+        DataPoint[] data = twoClasses(new Random(30), 500);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(8).treeMaxDepth(5)
+                    .executor(executor).seed(3).build();
+            assertForest(RandomForest.trainClassifier(data, learner(), trainingOption), 8, data);
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSeed() {
+        DataPoint[] data = twoClasses(new Random(31), 2000);
+        TrainingOptions.Builder builder = new TrainingOptions.Builder().nTrees(6).treeMaxDepth(6).nSample(5)
+                .bootstrap(true).seed(7);
+        String forest = describe(RandomForest.trainClassifier(data, learner(), builder.build()));
+        // the same forest whatever the threads training trees and subtrees
+        assertEquals(forest, describe(RandomForest.trainClassifier(data, learner(),
+                builder.nThreads(4).minParallelSearchCost(0).minParallelSubtreeCost(0).build())));
+        assertNotEquals(forest, describe(RandomForest.trainClassifier(data, learner(), builder.seed(8).build())));
+
+        // a single thread forking every subtree to the pool and searching
+        // every node in parallel grows the same trees as growing them in turn
+        for (SplitMode splitMode : SplitMode.values()) {
+            builder = new TrainingOptions.Builder().nTrees(3).treeMaxDepth(8).nSample(5).splitMode(splitMode)
+                    .bootstrap(true).nThreads(1).seed(7);
+            TrainingMetrics metrics = new TrainingMetrics();
+            String forked = describe(RandomForest.trainClassifier(data, learner(),
+                    builder.minParallelSearchCost(0).minParallelSubtreeCost(0).listener(metrics).build()));
+            assertTrue(splitMode + " forked no subtree", metrics.getNForkedSubtrees() > 0);
+            metrics = new TrainingMetrics();
+            assertEquals(splitMode.toString(), forked, describe(RandomForest.trainClassifier(data, learner(),
+                    builder.minParallelSearchCost(Long.MAX_VALUE).minParallelSubtreeCost(Long.MAX_VALUE)
+                            .listener(metrics).build())));
+            assertEquals(0, metrics.getNForkedSubtrees());
+        }
+
+        // nodes draw the same features growing depth-first and level-wise
+        builder = new TrainingOptions.Builder().nTrees(3).treeMaxDepth(6).splitMode(SplitMode.HISTOGRAM)
+                .nFeaturesPerNode(1).bootstrap(true).seed(7);
+        assertEquals(describe(RandomForest.trainClassifier(data, learner(), builder.build())),
+                describe(RandomForest.trainClassifier(data, learner(), builder.levelWise(true).build())));
+    }
+
+    private static String describe(DecisionTreeNode[] forest) {
+        StringBuilder description = new StringBuilder();
+        for (DecisionTreeNode tree : forest) {
+            describe(tree, description);
+            description.append('\n');
+        }
+        return description.toString();
+    }
+
+    private static void describe(DecisionTreeNode node, StringBuilder description) {
+        description.append(Arrays.toString(node.getHistogram()));
+        if (node.getParam() != null) {
+            description.append(node.getParam()).append(" (");
+            describe(node.getLeft(), description);
+            description.append(", ");
+            describe(node.getRight(), description);
+            description.append(')');
+        }
+    }
+
+    @Test
+    public void testTrainingOnOffHeapMatrix() {
+        DataPoint[] data = twoClasses(new Random(32), 500);
+        FeatureMatrix matrix = FeatureMatrix.fromDataPoints(data, true);
+        assertEquals(data.length, matrix.nRows());
+        assertEquals(2, matrix.nFeatures());
+        assertEquals(data[7].getFeatures()[1], matrix.getFeature(7, 1), 0f);
+        assertNotSame(data[7], matrix.getDataPoint(7));
+        assertArrayEquals(data[7].getFeatures(), matrix.getDataPoint(7).getFeatures(), 0f);
+        assertEquals(data[7].getLabel(), matrix.getDataPoint(7).getLabel());
+        assertSame(data[7], FeatureMatrix.fromDataPoints(data, true, true).getDataPoint(7));
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(4).treeMaxDepth(5).seed(4).build();
+        assertForest(RandomForest.trainClassifier(matrix, learner(), trainingOption), 4, data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLabel() {
+        FeatureMatrix matrix = FeatureMatrix.of(new float[][] { { 1, 2, 3 } }, new int[] { 0, -1, 1 });
+        RandomForest.trainClassifier(matrix, learner(), new TrainingOptions.Builder().nTrees(1).build());
+    }
+
+    @Test
+    public void testBootstrap() {
+        DataPoint[] data = threeClasses(new Random(1), 1000);
+        DataPoint[] test = threeClasses(new Random(2), 1000);
+        for (SplitMode splitMode : SplitMode.values()) {
+            TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(20).treeMaxDepth(6)
+                    .splitMode(splitMode).bootstrap(true).seed(3).build();
+            DecisionTreeNode[] forest = RandomForest.trainClassifier(data, threeClassLearner(), trainingOption);
+            Set<String> trees = new HashSet<>();
+            for (DecisionTreeNode tree : forest) {
+                // the root counts the whole sample, some rows more than once
+                assertEquals(data.length, tree.getNTotal());
+                trees.add(describe(new DecisionTreeNode[] { tree }));
+            }
+            // every tree has a sample of its own
+            assertEquals(forest.length, trees.size());
+            float accuracy = accuracy(forest, test);
+            assertTrue(splitMode + ": " + accuracy, accuracy > 0.8f && accuracy < 0.95f);
+        }
+    }
+
+    @Test
+    public void testOutOfBagEstimate() {
+        DataPoint[] data = threeClasses(new Random(4), 1000);
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(40).treeMaxDepth(6).nThreads(4)
+                .bootstrap(true).seed(5).build();
+        OutOfBagEstimate oob = RandomForest.trainWithOutOfBagEstimate(FeatureMatrix.fromDataPoints(data),
+                threeClassLearner(), trainingOption);
+        assertEquals(40, oob.getForest().length);
+        int nTrees = 0;
+        for (int row = 0; row < data.length; row++) {
+            nTrees += oob.getNTrees(row);
+            if (oob.getNTrees(row) > 0) {
+                float[] p = oob.getDistribution(row);
+                assertEquals(1f, p[0] + p[1] + p[2], 1e-5f);
+            }
+        }
+        // a row is out of bag for about 1/e of the trees
+        assertEquals(40 / Math.E, nTrees * 1.0 / data.length, 1.0);
+        // the estimate is close to the accuracy on data not trained on, and
+        // below the accuracy on the training data
+        float testAccuracy = accuracy(oob.getForest(), threeClasses(new Random(6), 4000));
+        assertEquals(testAccuracy, oob.getAccuracy(), 0.03f);
+        assertTrue(oob.getAccuracy() < accuracy(oob.getForest(), data) - 0.01f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfBagEstimateNeedsBootstrap() {
+        RandomForest.trainWithOutOfBagEstimate(FeatureMatrix.fromDataPoints(twoClasses(new Random(35), 10)), learner(),
+                new TrainingOptions.Builder().build());
+    }
+
+    private static void assertForest(DecisionTreeNode[] forest, int nTrees, DataPoint[] data) {
+        assertEquals(nTrees, forest.length);
+        for (DecisionTreeNode tree : forest) {
+            assertNotNull(tree);
+            assertEquals(data.length, tree.getNTotal());
+        }
+        for (DataPoint dataPoint : data) {
+            float[] p = RandomForest.classify(dataPoint, forest);
+            assertTrue(p[dataPoint.getLabel()] > 0.5f);
+        }
+    }
+
+    private static float accuracy(DecisionTreeNode[] forest, DataPoint[] data) {
+        int nCorrect = 0;
+        for (DataPoint dataPoint : data) {
+            float[] p = RandomForest.classify(dataPoint, forest);
+            int best = 0;
+            for (int c = 1; c < p.length; c++) {
+                if (p[c] > p[best])
+                    best = c;
+            }
+            if (best == dataPoint.getLabel())
+                nCorrect++;
+        }
+        return nCorrect * 1.0f / data.length;
+    }
+
+    static Learner learner() {
+        return new AxisAlignedLearner(2, new float[][] { { 0, 6 }, { 0, 3 } });
+    }
+
+    // two classes apart on feature 0, which any threshold between them splits
+    static DataPoint[] twoClasses(Random random, int n) {
+        DataPoint[] data = new DataPoint[n];
+        for (int i = 0; i < n; i++) {
+            int label = random.nextInt(2);
+            data[i] = new DataPoint(label, new float[] { 1 + 3 * label + random.nextFloat(), 1 + random.nextFloat() });
+        }
+        return data;
+    }
+
+    static Learner threeClassLearner() {
+        return new AxisAlignedLearner(3, new float[][] { { 0, 6 }, { 0, 3 } });
+    }
+
+    // three classes overlapping on both features, so that no forest gets
+    // them all right
+    static DataPoint[] threeClasses(Random random, int n) {
+        DataPoint[] data = new DataPoint[n];
+        for (int i = 0; i < n; i++) {
+            int label = random.nextInt(3);
+            data[i] = new DataPoint(label,
+                    new float[] { 1 + 1.5f * label + 2 * random.nextFloat(), 0.5f * label + 2 * random.nextFloat() });
+        }
+        return data;
+    }
+}
@@ -0,0 +1,94 @@
+package ml.randomforest.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.randomforest.example.AxisAlignedLearner;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestShardedTree {
+
+    @Test
+    public void testSameAsLevelWiseTree() {
+        // three features, three classes: x + y against z
+        Random random = new Random(3);
+        int nRows = 3000;
+        float[][] columns = new float[3][nRows];
+        int[] labels = new int[nRows];
+        for (int i = 0; i < nRows; i++) {
+            columns[0][i] = random.nextFloat();
+            columns[1][i] = random.nextFloat();
+            columns[2][i] = 2 * random.nextFloat();
+            float sum = columns[0][i] + columns[1][i] - columns[2][i];
+            labels[i] = sum < -0.3f ? 0 : sum < 0.3f ? 1 : 2;
+        }
+        Learner learner = new AxisAlignedLearner(3, new float[][] { { 0, 1 }, { 0, 1 }, { 0, 2 } });
+        FeatureMatrix data = FeatureMatrix.of(columns, labels);
+
+        // uneven shards, one of them empty
+        int[] bounds = { 0, 400, 400, 1700, nRows };
+        ShardedTree.Shard[] shards = new ShardedTree.Shard[bounds.length - 1];
+        for (int i = 0; i < shards.length; i++) {
+            float[][] shardColumns = new float[3][];
+            for (int f = 0; f < 3; f++) {
+                shardColumns[f] = Arrays.copyOfRange(columns[f], bounds[i], bounds[i + 1]);
+            }
+            shards[i] = ShardedTree.shard(
+                    FeatureMatrix.of(shardColumns, Arrays.copyOfRange(labels, bounds[i], bounds[i + 1])), learner);
+        }
+
+        TrainingOptions.Builder builder = new TrainingOptions.Builder().nSample(10).treeMaxDepth(10)
+                .minDataSizePerNode(5).seed(4);
+        DecisionTreeNode expected = RandomDecisionTree.trainClassifier(data, learner,
+                builder.levelWise(true).build());
+        TestRandomDecisionTree.assertSameTree(expected,
+                ShardedTree.trainClassifier(shards, learner, builder.build()));
+        // the counts of a few nodes at a time
+        TestRandomDecisionTree.assertSameTree(expected,
+                ShardedTree.trainClassifier(shards, learner, builder.histogramPoolBytes(3 * 4 * 10 * 3).build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBootstrapNotSharded() {
+        ShardedTree.trainClassifier(new ShardedTree.Shard[0], TestRandomForest.learner(),
+                new TrainingOptions.Builder().bootstrap(true).build());
+    }
+
+    @Test
+    public void testShardCountsChecked() {
+        FeatureMatrix data = FeatureMatrix.fromDataPoints(TestRandomForest.twoClasses(new Random(36), 200));
+        ShardedTree.Shard shard = ShardedTree.shard(data, TestRandomForest.learner());
+        // a shard drawing fewer candidates than asked
+        ShardedTree.Shard inner = ShardedTree.shard(data, TestRandomForest.learner());
+        ShardedTree.Shard truncated = new ShardedTree.Shard() {
+            @Override
+            public int[] classCounts() {
+                return inner.classCounts();
+            }
+
+            @Override
+            public int[] countLeft(int fromNode, long[] seeds, int nSample) {
+                return inner.countLeft(fromNode, seeds, nSample - 1);
+            }
+
+            @Override
+            public void split(int[] chosen, int[] childSlot) {
+                inner.split(chosen, childSlot);
+            }
+        };
+        try {
+            ShardedTree.trainClassifier(new ShardedTree.Shard[] { shard, truncated }, TestRandomForest.learner(),
+                    new TrainingOptions.Builder().nSample(5).seed(1).build());
+            fail("expected the short counts to be rejected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("from shard 1"));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ml.randomforest.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.randomforest.example.AxisAlignedLearner;
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestTabulatedForest {
+
+    @Test
+    public void testSameAsCompiledForest() {
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(20).nSample(5).treeMaxDepth(5)
+                .seed(1).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(TestRandomForest.twoClasses(new Random(37), 500),
+                TestRandomForest.learner(), trainingOption);
+        assertSameAsCompiledForest(forest, 2, 3);
+
+        // three features, three classes: x + y against z
+        Random random = new Random(2);
+        DataPoint[] data = new DataPoint[1000];
+        for (int i = 0; i < data.length; i++) {
+            float[] features = { random.nextFloat(), random.nextFloat(), 2 * random.nextFloat() };
+            float sum = features[0] + features[1] - features[2];
+            data[i] = new DataPoint(sum < -0.3f ? 0 : sum < 0.3f ? 1 : 2, features);
+        }
+        forest = RandomForest.trainClassifier(data,
+                new AxisAlignedLearner(3, new float[][] { { 0, 1 }, { 0, 1 }, { 0, 2 } }), trainingOption);
+        assertSameAsCompiledForest(forest, 3, 4);
+    }
+
+    private static void assertSameAsCompiledForest(DecisionTreeNode[] forest, int nClasses, long seed) {
+        CompiledForest compiled = CompiledForest.compile(forest);
+        TabulatedForest dense = TabulatedForest.tabulate(compiled, 1 << 26, false);
+        TabulatedForest compressed = TabulatedForest.tabulate(compiled, 1 << 26, true);
+        assertEquals(dense.nCells(), compressed.nCells());
+        assertTrue(compressed.nDistributions() < dense.nDistributions());
+        assertTrue(compressed.sizeInBytes() < dense.sizeInBytes());
+
+        // random points, and points on the thresholds
+        Random random = new Random(seed);
+        int nFeatures = dense.cuts.length;
+        float[][] rows = new float[2000][nFeatures];
+        for (int i = 0; i < rows.length; i++) {
+            for (int f = 0; f < nFeatures; f++) {
+                float[] cuts = dense.cuts[f];
+                rows[i][f] = i % 2 == 0 ? 3 * random.nextFloat() - 0.5f : cuts[random.nextInt(cuts.length)];
+            }
+        }
+        rows[0][0] = Float.NaN;
+        float[] expected = new float[nClasses];
+        float[] p = new float[nClasses];
+        FeatureMatrix matrix = FeatureMatrix.of(transpose(rows), new int[rows.length]);
+        for (int i = 0; i < rows.length; i++) {
+            compiled.classify(rows[i], expected);
+            dense.classify(rows[i], p);
+            assertArrayEquals(expected, p, 0f);
+            compressed.classify(rows[i], p);
+            assertArrayEquals(expected, p, 0f);
+            compressed.classify(matrix, i, p);
+            assertArrayEquals(expected, p, 0f);
+        }
+    }
+
+    private static float[][] transpose(float[][] rows) {
+        float[][] columns = new float[rows[0].length][rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            for (int f = 0; f < columns.length; f++) {
+                columns[f][i] = rows[i][f];
+            }
+        }
+        return columns;
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        TrainingOptions trainingOption = new TrainingOptions.Builder().nTrees(20).nSample(5).treeMaxDepth(5)
+                .seed(1).build();
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(TestRandomForest.twoClasses(new Random(38), 500),
+                TestRandomForest.learner(), trainingOption);
+        try {
+            TabulatedForest.tabulate(forest, 1024, true);
+            fail("expected the table to exceed the budget");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("beyond the budget of 1024"));
+        }
+
+        // compressing takes more than the dense table
+        long tableBytes = 4L * TabulatedForest.tabulate(forest, 1 << 26, false).distributions.length;
+        TabulatedForest.tabulate(forest, tableBytes, false);
+        try {
+            TabulatedForest.tabulate(forest, tableBytes, true);
+            fail("expected compressing to exceed the budget");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("to compress"));
+        }
+    }
+}
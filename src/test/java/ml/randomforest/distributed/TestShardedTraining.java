@@ -0,0 +1,51 @@
+package ml.randomforest.distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.randomforest.algo.RandomDecisionTree;
+import ml.randomforest.algo.TestRandomDecisionTree;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.MappedFeatureMatrix;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestShardedTraining {
+
+    @Test
+    public void testSameAsLevelWiseTree() throws IOException {
+        Random random = new Random(1);
+        int nRows = 600;
+        float[][] columns = new float[2][nRows];
+        int[] labels = new int[nRows];
+        for (int i = 0; i < nRows; i++) {
+            labels[i] = random.nextInt(2);
+            columns[0][i] = 1 + 3 * labels[i] + 2 * random.nextFloat();
+            columns[1][i] = 1 + random.nextFloat();
+        }
+        File[] shards = new File[2];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                int from = i * nRows / shards.length, to = (i + 1) * nRows / shards.length;
+                shards[i] = File.createTempFile("shard", ".rfm");
+                MappedFeatureMatrix.write(FeatureMatrix.of(new float[][] {
+                        Arrays.copyOfRange(columns[0], from, to), Arrays.copyOfRange(columns[1], from, to) },
+                        Arrays.copyOfRange(labels, from, to)), shards[i]);
+            }
+            TestTrainingCoordinator.Job job = new TestTrainingCoordinator.Job();
+            DecisionTreeNode expected = RandomDecisionTree.trainClassifier(FeatureMatrix.of(columns, labels),
+                    job.learner(), new TrainingOptions.Builder(job.trainingOptions()).levelWise(true).build());
+            TestRandomDecisionTree.assertSameTree(expected,
+                    ShardedTraining.trainClassifier(TestTrainingCoordinator.Job.class, shards));
+        } finally {
+            for (File shard : shards) {
+                if (shard != null)
+                    shard.delete();
+            }
+        }
+    }
+}
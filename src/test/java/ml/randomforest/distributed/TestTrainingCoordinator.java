@@ -0,0 +1,199 @@
+package ml.randomforest.distributed;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ml.randomforest.algo.RandomForest;
+import ml.randomforest.algo.TestRandomDecisionTree;
+import ml.randomforest.example.AxisAlignedLearner;
+import ml.randomforest.model.DataPoint;
+import ml.randomforest.model.DecisionTreeNode;
+import ml.randomforest.model.FeatureMatrix;
+import ml.randomforest.model.Learner;
+import ml.randomforest.model.MappedFeatureMatrix;
+import ml.randomforest.model.TrainingOptions;
+
+public class TestTrainingCoordinator {
+
+    public static class Job implements ForestJob {
+        @Override
+        public Learner learner() {
+            return new AxisAlignedLearner(2, new float[][] { { 0, 6 }, { 0, 3 } });
+        }
+
+        @Override
+        public TrainingOptions trainingOptions() {
+            return new TrainingOptions.Builder().nTrees(12).nSample(5).treeMaxDepth(6).nThreads(2).seed(7).build();
+        }
+    }
+
+    // connects, takes a range and dies with it
+    public static class CrashingWorker {
+        public static void main(String[] args) throws IOException {
+            try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out.writeInt(TrainingCoordinator.MAGIC);
+                out.writeInt(Integer.parseInt(args[2]));
+                in.readUTF();
+                in.readUTF();
+                in.readLong();
+                in.readInt();
+                in.readInt();
+                System.exit(1);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsSingleProcess() throws IOException {
+        File dataset = dataset();
+        try {
+            DecisionTreeNode[] forest = TrainingCoordinator.trainClassifier(Job.class, dataset, 2);
+            assertSameForest(forest, dataset);
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    @Test
+    public void testFailedWorkerIsReplaced() throws IOException {
+        File dataset = dataset();
+        AtomicInteger nLaunched = new AtomicInteger();
+        TrainingCoordinator.WorkerLauncher launcher = (coordinator, workerId) -> {
+            Class<?> main = nLaunched.getAndIncrement() == 0 ? CrashingWorker.class : TrainingWorker.class;
+            return TrainingCoordinator.localProcesses(main).launch(coordinator, workerId);
+        };
+        try {
+            DecisionTreeNode[] forest = new TrainingCoordinator(Job.class, dataset, 1, 3, 1, launcher)
+                    .train(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            assertEquals(2, nLaunched.get());
+            assertSameForest(forest, dataset);
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    @Test
+    public void testAllWorkersFailed() throws Exception {
+        File dataset = dataset();
+        int port;
+        try (ServerSocket free = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        // a worker started apart, which dies with its range
+        Thread worker = new Thread(() -> {
+            while (true) {
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    out.writeInt(TrainingCoordinator.MAGIC);
+                    out.writeInt(TrainingCoordinator.EXTERNAL_WORKER);
+                    in.readUTF();
+                    in.readUTF();
+                    in.readLong();
+                    in.readInt();
+                    in.readInt();
+                    return;
+                } catch (IOException e) {
+                    // not listening yet
+                    Thread.yield();
+                }
+            }
+        });
+        worker.setDaemon(true);
+        worker.start();
+        try {
+            new TrainingCoordinator(Job.class, dataset, 1, 3, 1, null)
+                    .train(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            fail("expected training to fail without workers");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("all workers failed"));
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    @Test
+    public void testHungWorkerIsDropped() throws Exception {
+        File dataset = dataset();
+        int port;
+        try (ServerSocket free = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        // a worker started apart, which takes a range and sends nothing more,
+        // not even heartbeats
+        Thread worker = new Thread(() -> {
+            Socket socket = null;
+            while (socket == null) {
+                try {
+                    socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                } catch (IOException e) {
+                    // not listening yet
+                    Thread.yield();
+                }
+            }
+            try (Socket connection = socket) {
+                DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                DataInputStream in = new DataInputStream(connection.getInputStream());
+                out.writeInt(TrainingCoordinator.MAGIC);
+                out.writeInt(TrainingCoordinator.EXTERNAL_WORKER);
+                in.readUTF();
+                in.readUTF();
+                in.readLong();
+                in.readInt();
+                in.readInt();
+                // until the coordinator hangs up
+                in.read();
+            } catch (IOException e) {
+                // hung up on
+            }
+        });
+        worker.setDaemon(true);
+        worker.start();
+        TrainingCoordinator coordinator = new TrainingCoordinator(Job.class, dataset, 1, 3, 1, null);
+        coordinator.readTimeoutMillis = 200;
+        try {
+            coordinator.train(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            fail("expected training to fail without workers");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("all workers failed"));
+        } finally {
+            dataset.delete();
+        }
+    }
+
+    private static File dataset() throws IOException {
+        Random random = new Random(1);
+        DataPoint[] data = new DataPoint[300];
+        for (int i = 0; i < data.length; i++) {
+            int label = random.nextInt(2);
+            data[i] = new DataPoint(label, new float[] { 1 + 3 * label + random.nextFloat(), 1 + random.nextFloat() });
+        }
+        File file = File.createTempFile("dataset", ".rfm");
+        MappedFeatureMatrix.write(FeatureMatrix.fromDataPoints(data), file);
+        return file;
+    }
+
+    private static void assertSameForest(DecisionTreeNode[] forest, File dataset) throws IOException {
+        Job job = new Job();
+        DecisionTreeNode[] expected = RandomForest.trainClassifier(MappedFeatureMatrix.open(dataset), job.learner(),
+                job.trainingOptions());
+        assertEquals(expected.length, forest.length);
+        for (int t = 0; t < forest.length; t++) {
+            TestRandomDecisionTree.assertSameTree(expected[t], forest[t]);
+        }
+    }
+}
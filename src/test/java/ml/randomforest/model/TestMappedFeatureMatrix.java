@@ -0,0 +1,89 @@
+package ml.randomforest.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ReadOnlyBufferException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.randomforest.algo.RandomForest;
+import ml.randomforest.example.AxisAlignedLearner;
+
+public class TestMappedFeatureMatrix {
+
+    @Test
+    public void testChunks() throws IOException {
+        File file = tempFile();
+        // 16 rows per chunk, the last one partial
+        MappedFeatureMatrix created = MappedFeatureMatrix.create(file, 100, 3, 4);
+        for (int row = 0; row < 100; row++) {
+            created.setLabel(row, row % 7);
+            for (int f = 0; f < 3; f++) {
+                created.setFeature(row, f, row * 10 + f);
+            }
+        }
+        created.force();
+
+        MappedFeatureMatrix mapped = MappedFeatureMatrix.open(file, false, 4);
+        assertEquals(100, mapped.nRows());
+        assertEquals(3, mapped.nFeatures());
+        for (int row = 0; row < 100; row++) {
+            assertEquals(row % 7, mapped.getLabel(row));
+            for (int f = 0; f < 3; f++) {
+                assertEquals(row * 10 + f, mapped.getFeature(row, f), 0f);
+            }
+        }
+        assertEquals(99 * 10 + 2, mapped.getDataPoint(99).getFeatures()[2], 0f);
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testReadOnly() throws IOException {
+        File file = tempFile();
+        MappedFeatureMatrix.create(file, 10, 1);
+        MappedFeatureMatrix.open(file).setFeature(0, 0, 1f);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        File file = tempFile();
+        MappedFeatureMatrix.create(file, 10, 2);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        MappedFeatureMatrix.open(file);
+    }
+
+    @Test
+    public void testTraining() throws IOException {
+        Random random = new Random(42);
+        int n = 1000;
+        float[][] columns = new float[2][n];
+        int[] labels = new int[n];
+        for (int row = 0; row < n; row++) {
+            labels[row] = random.nextInt(2);
+            columns[0][row] = 1 + 3 * labels[row] + random.nextFloat();
+            columns[1][row] = 1 + random.nextFloat();
+        }
+        MappedFeatureMatrix mapped = MappedFeatureMatrix.write(FeatureMatrix.of(columns, labels), tempFile());
+        Learner learner = new AxisAlignedLearner(2, new float[][] { { 0, 6 }, { 0, 3 } });
+        DecisionTreeNode[] forest = RandomForest.trainClassifier(mapped, learner,
+                new TrainingOptions.Builder().nTrees(4).treeMaxDepth(5).build());
+        for (DecisionTreeNode tree : forest) {
+            assertEquals(n, tree.getNTotal());
+        }
+        for (int row = 0; row < n; row++) {
+            float[] p = RandomForest.classify(mapped.getDataPoint(row), forest);
+            assertTrue(p[labels[row]] > 0.5f);
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("data", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,90 @@
+package ml.randomforest.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ml.randomforest.algo.RandomDecisionTree;
+import ml.randomforest.example.AxisAlignedLearner;
+
+public class TestSplitCriterion {
+
+    @Test
+    public void testEntropy() {
+        // within and beyond the n log n table
+        for (int n : new int[] { 10, 1000, 100000 }) {
+            int[] hist = { n / 2, n / 5, n - n / 2 - n / 5 };
+            double expected = 0;
+            for (int h : hist) {
+                double p = h * 1.0 / n;
+                expected -= p * Math.log(p);
+            }
+            assertEquals(expected, SplitCriterion.ENTROPY.impurity(hist, n), 1e-5);
+        }
+        assertEquals(0f, SplitCriterion.ENTROPY.impurity(new int[] { 7, 0 }, 7), 0f);
+        assertEquals(0f, SplitCriterion.ENTROPY.impurity(new int[] { 0, 0 }, 0), 0f);
+    }
+
+    @Test
+    public void testGini() {
+        assertEquals(0.5f, SplitCriterion.GINI.impurity(new int[] { 5, 5 }, 10), 1e-6f);
+        assertEquals(1 - 0.36f - 0.16f, SplitCriterion.GINI.impurity(new int[] { 6, 4, 0 }, 10), 1e-6f);
+        assertEquals(0f, SplitCriterion.GINI.impurity(new int[] { 0, 9 }, 9), 0f);
+
+        float node = SplitCriterion.GINI.impurity(new int[] { 5, 5 }, 10);
+        assertEquals(0.5f, SplitCriterion.GINI.gain(node, new int[] { 5, 0 }, 5, new int[] { 0, 5 }, 5), 1e-6f);
+        assertEquals(0f, SplitCriterion.GINI.gain(node, new int[] { 5, 5 }, 10, new int[] { 0, 0 }, 0), 0f);
+    }
+
+    @Test
+    public void testCustomCriterion() {
+        // the misclassification rate, 1 - max p, is not a sum of terms: it
+        // only works through the impurity of whole class counts
+        SplitCriterion misclassification = new SplitCriterion() {
+            @Override
+            public boolean isSumOfTerms() {
+                return false;
+            }
+
+            @Override
+            public float impurity(int[] hist, int n) {
+                int max = 0;
+                for (int h : hist) {
+                    max = Math.max(max, h);
+                }
+                return n == 0 ? 0f : 1 - max * 1.0f / n;
+            }
+
+            @Override
+            public float gain(float nodeImpurity, int[] leftHist, int left, int[] rightHist, int right) {
+                return nodeImpurity - (left * impurity(leftHist, left) + right * impurity(rightHist, right))
+                        / (left + right);
+            }
+
+            @Override
+            public String toString() {
+                return "misclassification";
+            }
+        };
+        DataPoint[] data = new DataPoint[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new DataPoint(i % 2, new float[] { i % 2 == 0 ? 1 + i * 0.005f : 4 + i * 0.005f, i * 0.01f });
+        }
+        Learner learner = new AxisAlignedLearner(2, new float[][] { { 0, 6 }, { 0, 3 } });
+        for (SplitMode splitMode : new SplitMode[] { SplitMode.RANDOM, SplitMode.HISTOGRAM }) {
+            TrainingOptions trainingOption = new TrainingOptions.Builder().splitMode(splitMode).nFeaturesPerNode(2)
+                    .splitCriterion(misclassification).build();
+            DecisionTreeNode tree = RandomDecisionTree.trainClassifier(data, learner, trainingOption);
+            assertNotNull(tree.getParam());
+            assertEquals(0, misclassification.impurity(tree.getLeft().getHistogram(), tree.getLeft().getNTotal()),
+                    0);
+        }
+        try {
+            RandomDecisionTree.trainClassifier(data, learner, new TrainingOptions.Builder().splitMode(SplitMode.EXACT)
+                    .splitCriterion(misclassification).build());
+            fail("expected EXACT to reject a criterion that is no sum of terms");
+        } catch (IllegalArgumentException e) {
+            assertEquals("EXACT split mode needs a sum of terms, not the misclassification criterion", e.getMessage());
+        }
+    }
+}
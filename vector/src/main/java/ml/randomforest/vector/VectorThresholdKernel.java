@@ -0,0 +1,120 @@
+package ml.randomforest.vector;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import ml.randomforest.algo.ScalarThresholdKernel;
+import ml.randomforest.algo.ThresholdKernel;
+
+/**
+ * A {@link ThresholdKernel} on the JDK Vector API, taking the rows a vector
+ * of lanes at a time: the values and labels of the rows are gathered through
+ * the index, and each threshold is compared with all the values at once into
+ * a mask.
+ * 
+ * Counting adds the mask's rows into packed per-class counters: each int lane
+ * of a threshold's accumulator holds one bit field per class, so a row of
+ * class c adds its weight shifted to field c, and the lanes are unpacked into
+ * the counts before a field can overflow. This costs one compare and one
+ * masked add per threshold and vector of rows whatever the number of classes;
+ * with more than MAX_PACKED_CLASSES classes, or a weight too large for a
+ * field, the rows are counted by the scalar kernel.
+ * 
+ * Partitioning compares a vector of rows at a time and moves them by the
+ * mask's bits, as the JDK 17 Vector API has no compress operation.
+ */
+public class VectorThresholdKernel extends ScalarThresholdKernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // as many int lanes as float lanes, so masks convert lane for lane
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+    private static final int LANES = FLOATS.length();
+
+    // the most classes whose counters fit one int lane in fields of 4 bits
+    static final int MAX_PACKED_CLASSES = 8;
+
+    @Override
+    public void countLeft(float[] column, int[] labels, int[] weights, int[] index, int lowInclusive,
+            int hiExclusive, float[] thresholds, int nClasses, int[] leftCounts) {
+        if (nClasses > MAX_PACKED_CLASSES) {
+            super.countLeft(column, labels, weights, index, lowInclusive, hiExclusive, thresholds, nClasses,
+                    leftCounts);
+            return;
+        }
+        int nThresholds = thresholds.length;
+        int bits = Math.min(16, Integer.SIZE / nClasses);
+        int fieldMax = (1 << bits) - 1;
+        int[] counters = new int[nThresholds * LANES];
+        IntVector ones = IntVector.broadcast(INTS, 1);
+        // the most any field may have grown since the counters were unpacked
+        int pending = 0;
+        int i = lowInclusive;
+        for (; i <= hiExclusive - LANES; i += LANES) {
+            IntVector weight = weights == null ? ones : IntVector.fromArray(INTS, weights, 0, index, i);
+            int maxWeight = weights == null ? 1 : weight.reduceLanes(VectorOperators.MAX);
+            if (maxWeight > fieldMax) {
+                super.countLeft(column, labels, weights, index, i, i + LANES, thresholds, nClasses, leftCounts);
+                continue;
+            }
+            if (pending + maxWeight > fieldMax) {
+                unpack(counters, nThresholds, nClasses, bits, leftCounts);
+                pending = 0;
+            }
+            pending += maxWeight;
+
+            FloatVector values = FloatVector.fromArray(FLOATS, column, 0, index, i);
+            IntVector label = IntVector.fromArray(INTS, labels, 0, index, i);
+            IntVector packed = weight.lanewise(VectorOperators.LSHL, label.mul(bits));
+            for (int k = 0; k < nThresholds; k++) {
+                VectorMask<Integer> left = values.lt(thresholds[k]).cast(INTS);
+                IntVector.fromArray(INTS, counters, k * LANES).add(packed, left).intoArray(counters, k * LANES);
+            }
+        }
+        unpack(counters, nThresholds, nClasses, bits, leftCounts);
+        super.countLeft(column, labels, weights, index, i, hiExclusive, thresholds, nClasses, leftCounts);
+    }
+
+    // adds the packed counters to the counts and clears them
+    private static void unpack(int[] counters, int nThresholds, int nClasses, int bits, int[] leftCounts) {
+        int fieldMask = (int) ((1L << bits) - 1);
+        for (int k = 0; k < nThresholds; k++) {
+            for (int lane = k * LANES; lane < (k + 1) * LANES; lane++) {
+                int packed = counters[lane];
+                for (int c = 0; c < nClasses; c++) {
+                    leftCounts[k * nClasses + c] += packed >>> (c * bits) & fieldMask;
+                }
+                counters[lane] = 0;
+            }
+        }
+    }
+
+    @Override
+    public int partition(float[] column, int[] index, int lowInclusive, int hiExclusive, float threshold) {
+        int p = lowInclusive;
+        int i = lowInclusive;
+        for (; i <= hiExclusive - LANES; i += LANES) {
+            // the swaps below only write to positions up to the row being
+            // moved, so the rows gathered ahead of it are still in place
+            long left = FloatVector.fromArray(FLOATS, column, 0, index, i).lt(threshold).toLong();
+            for (int j = i; j < i + LANES; j++, left >>>= 1) {
+                int row = index[j];
+                int first = index[p];
+                int goesLeft = (int) left & 1;
+                index[p] = goesLeft != 0 ? row : first;
+                index[j] = goesLeft != 0 ? first : row;
+                p += goesLeft;
+            }
+        }
+        for (; i < hiExclusive; i++) {
+            int row = index[i];
+            int first = index[p];
+            boolean left = column[row] < threshold;
+            index[p] = left ? row : first;
+            index[i] = left ? first : row;
+            p += left ? 1 : 0;
+        }
+        return p;
+    }
+}
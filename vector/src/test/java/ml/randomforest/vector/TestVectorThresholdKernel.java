@@ -0,0 +1,105 @@
+package ml.randomforest.vector;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ml.randomforest.algo.ScalarThresholdKernel;
+import ml.randomforest.algo.ThresholdKernel;
+
+public class TestVectorThresholdKernel {
+
+    private static final ThresholdKernel SCALAR = new ScalarThresholdKernel();
+    private static final ThresholdKernel VECTOR = new VectorThresholdKernel();
+
+    @Test
+    public void testCountLeft() {
+        Random random = new Random(1);
+        // packed up to 8 classes, counted by the scalar kernel beyond
+        for (int nClasses : new int[] { 2, VectorThresholdKernel.MAX_PACKED_CLASSES,
+                VectorThresholdKernel.MAX_PACKED_CLASSES + 1 }) {
+            // ranges long enough that the counters are unpacked many times
+            // over, and not a multiple of the lanes
+            int nRows = 5000;
+            float[] column = column(random, nRows);
+            int[] labels = new int[nRows];
+            for (int row = 0; row < nRows; row++) {
+                labels[row] = random.nextInt(nClasses);
+            }
+            int[] index = shuffled(random, nRows);
+            float[] thresholds = { Float.NEGATIVE_INFINITY, -0.5f, 0f, 0.25f, 0.5f, 1f, Float.NaN };
+
+            // a field of 8 classes holds at most 15: weights up to it, and
+            // above it in some vectors of rows
+            int fieldMax = (1 << Integer.SIZE / VectorThresholdKernel.MAX_PACKED_CLASSES) - 1;
+            int[] small = new int[nRows];
+            int[] large = new int[nRows];
+            for (int row = 0; row < nRows; row++) {
+                small[row] = random.nextInt(fieldMax + 1);
+                large[row] = random.nextInt(10) == 0 ? fieldMax + 1 + random.nextInt(1000) : small[row];
+            }
+            for (int[] weights : new int[][] { null, small, large }) {
+                for (int[] range : new int[][] { { 0, nRows }, { 3, nRows - 5 }, { 7, 12 } }) {
+                    int[] expected = new int[thresholds.length * nClasses];
+                    int[] actual = new int[thresholds.length * nClasses];
+                    // the counts are added to
+                    Arrays.fill(expected, 3);
+                    Arrays.fill(actual, 3);
+                    SCALAR.countLeft(column, labels, weights, index, range[0], range[1], thresholds, nClasses,
+                            expected);
+                    VECTOR.countLeft(column, labels, weights, index, range[0], range[1], thresholds, nClasses,
+                            actual);
+                    assertArrayEquals(nClasses + " classes, " + Arrays.toString(range), expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPartition() {
+        Random random = new Random(2);
+        int nRows = 1000;
+        float[] column = column(random, nRows);
+        for (float threshold : new float[] { Float.NEGATIVE_INFINITY, 0f, 0.3f, 0.5f, Float.POSITIVE_INFINITY,
+                Float.NaN }) {
+            for (int[] range : new int[][] { { 0, nRows }, { 5, nRows - 3 }, { 1, 4 } }) {
+                int[] expected = shuffled(new Random(3), nRows);
+                int[] actual = expected.clone();
+                int p = SCALAR.partition(column, expected, range[0], range[1], threshold);
+                assertEquals(p, VECTOR.partition(column, actual, range[0], range[1], threshold));
+                // the same rows in the same order on both sides
+                assertArrayEquals(threshold + ", " + Arrays.toString(range), expected, actual);
+                for (int i = range[0]; i < range[1]; i++) {
+                    assertEquals(i < p, column[actual[i]] < threshold);
+                }
+            }
+        }
+    }
+
+    // values in [0, 1), with repeated values and NaNs
+    private static float[] column(Random random, int nRows) {
+        float[] column = new float[nRows];
+        for (int row = 0; row < nRows; row++) {
+            column[row] = random.nextInt(20) == 0 ? Float.NaN
+                    : random.nextBoolean() ? random.nextInt(4) / 4f : random.nextFloat();
+        }
+        return column;
+    }
+
+    private static int[] shuffled(Random random, int nRows) {
+        int[] index = new int[nRows];
+        for (int i = 0; i < nRows; i++) {
+            index[i] = i;
+        }
+        for (int i = nRows - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = index[i];
+            index[i] = index[j];
+            index[j] = tmp;
+        }
+        return index;
+    }
+}